@@ -0,0 +1,374 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogNodes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes all objects of an XPath query in batches, with a number of workers.
+ *
+ * The id range of the objects is split into more ranges than there are workers; each worker takes
+ * the next range that is not processed yet and pages through it by id (keyset paging), so retrieves
+ * stay fast however far the batch has come.
+ *
+ * With an {@link IBatchHandler}, every batch is processed in a transaction of its own: when an item
+ * fails, the batch is rolled back, its objects are counted as failed and the worker continues with
+ * the next batch. With an {@link IItemHandler}, every object is processed in a transaction of its
+ * own and the first failure stops the whole batch, like executeInBatches always did.
+ *
+ * The progress of a running (or recently finished) batch can be looked up by its id. To protect
+ * the database, a pause between the batches of a worker can be set.
+ */
+public class BatchEngine {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+	/** Ranges per worker, so that a worker that finishes early can take over work from the others. */
+	private static final int RANGES_PER_WORKER = 4;
+	/** Finished batches are kept this long, so that their progress can be requested. */
+	private static final long FINISHED_BATCH_RETENTION_MS = 60 * 60 * 1000L;
+	private static final Map<String, BatchEngine> batches = new ConcurrentHashMap<>();
+
+	public interface IItemHandler {
+
+		void handle(IContext context, IMendixObject obj) throws Exception;
+	}
+
+	public interface IBatchHandler {
+
+		void handle(IContext context, List<IMendixObject> objects) throws Exception;
+	}
+
+	private final String id = UUID.randomUUID().toString();
+	private final String xpath;
+	private final int batchsize;
+	private final int workers;
+	private final boolean asc;
+	private final IBatchHandler handler;
+	private final IItemHandler itemHandler;
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicInteger failedBatches = new AtomicInteger();
+	private final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+	private volatile boolean stopped;
+	private volatile long pauseMs;
+	private volatile long total;
+	private volatile long startTime;
+	private volatile long endTime;
+
+	/**
+	 * Processes every object in a transaction of its own; the first object that fails stops the batch.
+	 */
+	public BatchEngine(String xpath, int batchsize, int workers, boolean asc, IItemHandler handler) {
+		this(xpath, batchsize, workers, asc, null, handler);
+	}
+
+	/**
+	 * Processes every batch in a transaction of its own; a batch that fails is rolled back and the
+	 * other batches are still processed.
+	 */
+	public BatchEngine(String xpath, int batchsize, int workers, boolean asc, IBatchHandler handler) {
+		this(xpath, batchsize, workers, asc, handler, null);
+	}
+
+	private BatchEngine(String xpath, int batchsize, int workers, boolean asc, IBatchHandler handler, IItemHandler itemHandler) {
+		if (batchsize < 1) {
+			throw new IllegalArgumentException("Batch size should be at least 1");
+		}
+		if (workers < 1) {
+			throw new IllegalArgumentException("Number of workers should be at least 1");
+		}
+		this.xpath = xpath.startsWith("//") ? xpath : "//" + xpath;
+		this.batchsize = batchsize;
+		this.workers = workers;
+		this.asc = asc;
+		this.handler = handler;
+		this.itemHandler = itemHandler;
+	}
+
+	/**
+	 * Creates a batch that deletes all objects of the XPath query, a batch at a time, each batch in a
+	 * transaction of its own. Without events, before and after delete event handlers are not run, but
+	 * delete behavior of associations is still applied.
+	 */
+	public static BatchEngine delete(String xpath, int batchsize, int workers, boolean withEvents) {
+		return new BatchEngine(xpath, batchsize, workers, true, (IBatchHandler) (context, objects) -> {
+			if (withEvents) {
+				if (!Core.delete(context, objects)) {
+					throw new CoreException("Failed to delete " + objects.size() + " objects");
+				}
+			} else {
+				Core.deleteWithoutEvents(context, objects, true);
+			}
+		});
+	}
+
+	/**
+	 * Sets the time each worker waits after a batch before it starts the next one.
+	 */
+	public BatchEngine setPause(long pauseMs) {
+		this.pauseMs = Math.max(0, pauseMs);
+		return this;
+	}
+
+	public static BatchEngine get(String id) {
+		return batches.get(id);
+	}
+
+	/**
+	 * Starts processing in the background.
+	 *
+	 * @return A future that completes when all objects are processed, with true if no batch failed.
+	 */
+	public CompletableFuture<Boolean> start() throws CoreException {
+		removeFinishedBatches();
+		batches.put(id, this);
+		startTime = System.currentTimeMillis();
+
+		IContext context = Core.createSystemContext();
+		total = Core.createXPathQuery("count(" + xpath + ")").executeAggregateLong(context);
+		Queue<long[]> ranges = createRanges(context);
+
+		Logging.debug(LOGNODE, String.format("[ExecuteInBatches] Starting batch %s on ~ %d objects with %d worker(s) over %d range(s)",
+			id, total, workers, ranges.size()));
+
+		if (ranges.isEmpty()) {
+			finish(true);
+			return completion;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(workers, ranges.size()), new ThreadFactory() {
+
+			//Default thread factory takes care of setting the proper thread context
+			private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+			private final AtomicInteger threadnr = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread t = defaultFactory.newThread(runnable);
+				t.setPriority(Thread.MIN_PRIORITY);
+				t.setName("CommunityCommons batch worker " + threadnr.incrementAndGet());
+				return t;
+			}
+
+		});
+
+		List<CompletableFuture<Void>> workerFutures = new ArrayList<>();
+		for (int i = 0; i < Math.min(workers, ranges.size()); i++) {
+			workerFutures.add(CompletableFuture.runAsync(() -> {
+				long[] range;
+				while (!stopped && (range = ranges.poll()) != null) {
+					processRange(range[0], range[1]);
+				}
+			}, executor));
+		}
+
+		CompletableFuture.allOf(workerFutures.toArray(new CompletableFuture[0])).whenComplete((result, e) -> {
+			executor.shutdown();
+			if (e != null) {
+				Logging.error(LOGNODE, "[ExecuteInBatches] Batch " + id + " failed: " + e.getMessage(), e);
+			}
+			finish(e == null && failedBatches.get() == 0);
+		});
+
+		return completion;
+	}
+
+	/**
+	 * Splits the ids between the lowest and highest id into ranges (from, to], in processing order.
+	 * The last range has no upper bound, so that objects that are created while the batch runs are
+	 * processed as well when processing in ascending order.
+	 */
+	private Queue<long[]> createRanges(IContext context) throws CoreException {
+		Queue<long[]> ranges = new ConcurrentLinkedQueue<>();
+		if (total == 0) {
+			return ranges;
+		}
+
+		List<IMendixObject> first = Core.createXPathQuery(xpath).setAmount(1).addSort(XPath.ID, true).execute(context);
+		List<IMendixObject> last = Core.createXPathQuery(xpath).setAmount(1).addSort(XPath.ID, false).execute(context);
+		if (first.isEmpty() || last.isEmpty()) {
+			return ranges;
+		}
+
+		long min = first.get(0).getId().toLong() - 1;
+		long max = last.get(0).getId().toLong();
+		long rangeCount = Math.max(1, Math.min((long) workers * RANGES_PER_WORKER, (total + batchsize - 1) / batchsize));
+		long step = Math.max(1, (max - min + rangeCount - 1) / rangeCount);
+
+		List<long[]> ordered = new ArrayList<>();
+		for (long from = min; from < max; from += step) {
+			long to = from + step >= max ? Long.MAX_VALUE : from + step;
+			ordered.add(new long[] { from, to });
+		}
+		if (!asc) {
+			Collections.reverse(ordered);
+		}
+		ranges.addAll(ordered);
+		return ranges;
+	}
+
+	private void processRange(long from, long to) {
+		// keyset paging: the next page starts after the last id of the previous page
+		long last = asc ? from : to;
+		while (!stopped) {
+			IContext context = Core.createSystemContext();
+			List<IMendixObject> objects;
+			try {
+				String constraint = asc
+					? "[id > " + last + "]" + (to == Long.MAX_VALUE ? "" : "[id <= " + to + "]")
+					: (last == Long.MAX_VALUE ? "" : "[id <= " + last + "]") + "[id > " + from + "]";
+				objects = Core.createXPathQuery(xpath + constraint)
+					.setAmount(batchsize)
+					.setOffset(0)
+					.addSort(XPath.ID, asc)
+					.execute(context);
+			} catch (CoreException e) {
+				throw new RuntimeException("[ExecuteInBatches] Failed to retrieve batch: " + e.getMessage(), e);
+			}
+
+			if (objects.isEmpty()) {
+				return;
+			}
+			if (itemHandler != null) {
+				processItems(context, objects);
+			} else {
+				processBatch(context, objects);
+			}
+
+			long lastId = objects.get(objects.size() - 1).getId().toLong();
+			last = asc ? lastId : lastId - 1;
+			if (objects.size() < batchsize) {
+				return;
+			}
+			if (pauseMs > 0) {
+				try {
+					Thread.sleep(pauseMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("[ExecuteInBatches] Interrupted while pausing between batches", e);
+				}
+			}
+		}
+	}
+
+	private void processBatch(IContext context, List<IMendixObject> objects) {
+		context.startTransaction();
+		try {
+			handler.handle(context, objects);
+			context.endTransaction();
+			processed.addAndGet(objects.size());
+		} catch (Exception e) {
+			context.rollbackTransaction();
+			failed.addAndGet(objects.size());
+			failedBatches.incrementAndGet();
+			Logging.error(LOGNODE, String.format("[ExecuteInBatches] Failed to process batch of %d objects starting at id %d: %s",
+				objects.size(), objects.get(0).getId().toLong(), e.getMessage()), e);
+		}
+	}
+
+	private void processItems(IContext context, List<IMendixObject> objects) {
+		for (IMendixObject obj : objects) {
+			if (stopped) {
+				return;
+			}
+			context.startTransaction();
+			try {
+				itemHandler.handle(context, obj);
+				context.endTransaction();
+				processed.incrementAndGet();
+			} catch (Exception e) {
+				context.rollbackTransaction();
+				failed.incrementAndGet();
+				failedBatches.incrementAndGet();
+				stopped = true;
+				Logging.error(LOGNODE, String.format("[ExecuteInBatches] Failed to process object %d, stopping batch %s: %s",
+					obj.getId().toLong(), id, e.getMessage()), e);
+			}
+		}
+	}
+
+	private void finish(boolean succeeded) {
+		endTime = System.currentTimeMillis();
+		if (succeeded) {
+			Logging.debug(LOGNODE, "[ExecuteInBatches] Successfully finished batch " + id + ": " + this);
+		} else {
+			Logging.error(LOGNODE, "[ExecuteInBatches] Failed to finish batch " + id + ": " + this);
+		}
+		completion.complete(succeeded);
+	}
+
+	private static void removeFinishedBatches() {
+		long threshold = System.currentTimeMillis() - FINISHED_BATCH_RETENTION_MS;
+		batches.values().removeIf(batch -> batch.endTime > 0 && batch.endTime < threshold);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public CompletableFuture<Boolean> getCompletion() {
+		return completion;
+	}
+
+	public boolean isDone() {
+		return completion.isDone();
+	}
+
+	/**
+	 * The number of objects at the start of the batch; objects created during the batch may be
+	 * processed as well.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getElapsedMs() {
+		return startTime == 0 ? 0 : (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+	}
+
+	/**
+	 * @return The estimated time until the batch finishes, based on the speed so far, or -1 if it
+	 * cannot be estimated yet.
+	 */
+	public long getEtaMs() {
+		if (endTime > 0) {
+			return 0;
+		}
+		long done = processed.get() + failed.get();
+		if (done == 0) {
+			return -1;
+		}
+		return Math.max(0, getElapsedMs() * (total - done) / done);
+	}
+
+	@Override
+	public String toString() {
+		long eta = getEtaMs();
+		return String.format("%d of ~%d objects processed, %d failed, %d ms elapsed%s", processed.get(), total, failed.get(),
+			getElapsedMs(), endTime > 0 ? ", finished" : eta < 0 ? "" : ", ~" + eta + " ms remaining");
+	}
+}
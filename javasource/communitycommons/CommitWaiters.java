@@ -0,0 +1,158 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Registry of the threads that wait in XPath.firstOrWait for an object to appear, by entity and
+ * XPath query. When an object is committed and an after commit event handler of its entity calls
+ * signal, the waiters of its entity (and of the entities it specializes) run their query again right
+ * away, instead of waiting for their next poll. Waiters of entities without such a handler only
+ * find objects by polling.
+ *
+ * Signals only reach the waiters in the same instance; on a cluster, waiters still find objects
+ * committed on other instances by polling the database at a lower rate.
+ */
+public class CommitWaiters {
+
+	/**
+	 * Delay before the first check after a signal that found nothing: the after commit event may
+	 * run before the transaction that committed the object is finished. The delay doubles until it
+	 * reaches the poll interval.
+	 */
+	private static final long SETTLE_DELAY_MS = 25;
+	private static final long BACKOFF_INITIAL_MS = 200;
+	private static final int BACKOFF_STEP_POLLS = 5;
+	private static final double BACKOFF_FACTOR = 1.5;
+
+	private static final Map<String, Map<String, WaitGroup>> groups = new ConcurrentHashMap<>();
+
+	private CommitWaiters() {
+	}
+
+	/**
+	 * Wakes up the waiters for the entity of the object and its generalizations, so that they check
+	 * the database right away instead of at their next poll. Call this from an after commit event
+	 * handler of the entity.
+	 */
+	public static void signal(IMendixObject object) {
+		signal(object.getMetaObject());
+	}
+
+	public static void signal(String entityName) {
+		signal(Core.getMetaObject(entityName));
+	}
+
+	private static void signal(IMetaObject meta) {
+		for (IMetaObject m = meta; m != null; m = m.getSuperObject()) {
+			Map<String, WaitGroup> waiting = groups.get(m.getName());
+			if (waiting != null) {
+				waiting.values().forEach(WaitGroup::signal);
+			}
+		}
+	}
+
+	/**
+	 * The poll schedule of firstOrWait from before waiters could be signalled: 200 ms, growing by
+	 * half after every 5 polls.
+	 *
+	 * @param polls The number of polls so far
+	 */
+	static long backoff(int polls) {
+		return (long) (BACKOFF_INITIAL_MS * Math.pow(BACKOFF_FACTOR, (polls + 1) / BACKOFF_STEP_POLLS));
+	}
+
+	/**
+	 * Runs the check until it finds an object or the timeout expires. The check runs once at the
+	 * start, when the entity is signalled, and every poll interval.
+	 *
+	 * @param pollIntervals The maximum time until the next check by the number of polls so far, or
+	 * Long.MAX_VALUE to check only after signals
+	 * @return The object found, or null if the timeout expired
+	 */
+	static <X> X await(String entity, String xpath, long timeoutMs, IntToLongFunction pollIntervals, Check<X> check)
+		throws CoreException, InterruptedException {
+		WaitGroup group = groups.computeIfAbsent(entity, e -> new ConcurrentHashMap<>()).compute(xpath,
+			(k, g) -> (g == null ? new WaitGroup() : g).join());
+		try {
+			long deadline = System.currentTimeMillis() + timeoutMs;
+			int polls = 0;
+			long settleWait = 0;
+			while (true) {
+				long seen = group.version();
+				X result = check.run();
+				if (result != null) {
+					return result;
+				}
+
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return null;
+				}
+				long pollWait = pollIntervals.applyAsLong(polls);
+				long wait = settleWait > 0 ? Math.min(settleWait, pollWait) : pollWait;
+				if (group.await(seen, Math.min(remaining, wait))) {
+					settleWait = SETTLE_DELAY_MS;
+				} else {
+					polls++;
+					settleWait = settleWait > 0 && settleWait < pollWait / 2 ? settleWait * 2 : 0;
+				}
+			}
+		} finally {
+			groups.get(entity).computeIfPresent(xpath, (k, g) -> g.leave() ? null : g);
+		}
+	}
+
+	@FunctionalInterface
+	interface Check<X> {
+
+		X run() throws CoreException;
+	}
+
+	private static final class WaitGroup {
+
+		private long version;
+		private int waiters;
+
+		private synchronized WaitGroup join() {
+			waiters++;
+			return this;
+		}
+
+		/**
+		 * @return true if this was the last waiter
+		 */
+		private synchronized boolean leave() {
+			return --waiters == 0;
+		}
+
+		private synchronized long version() {
+			return version;
+		}
+
+		private synchronized void signal() {
+			version++;
+			notifyAll();
+		}
+
+		/**
+		 * @return true if signalled since the version was seen, false if the time expired
+		 */
+		private synchronized boolean await(long seen, long timeoutMs) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeoutMs;
+			while (version == seen) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				wait(remaining);
+			}
+			return true;
+		}
+	}
+}
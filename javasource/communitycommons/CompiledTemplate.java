@@ -0,0 +1,333 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.core.objectmanagement.member.MendixDateTime;
+import com.mendix.core.objectmanagement.member.MendixEnum;
+import com.mendix.core.objectmanagement.member.MendixObjectReference;
+import com.mendix.core.objectmanagement.member.MendixObjectReferenceSet;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.IMendixObjectMember;
+import com.mendix.systemwideinterfaces.core.meta.IMetaEnumValue;
+import com.mendix.systemwideinterfaces.core.meta.IMetaEnumeration;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A template of StringUtils.substituteTemplate, parsed once into literal text and placeholders.
+ * A placeholder is either a constant, {@Module.Constant}, or a path from the substitute object,
+ * {Module.Reference/Module.Reference2/Attribute}. Compiled templates are cached by their text.
+ *
+ * While rendering, every object over a reference is retrieved only once. When rendering many
+ * objects with renderAll, the objects over each reference in the template are retrieved for all of
+ * them together, one query per reference and 100 objects, instead of one per placeholder and
+ * object.
+ */
+public class CompiledTemplate {
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\{(@)?([\\w./]+)\\}");
+	private static final String DEFAULT_DATETIME_FORMAT = "EEE dd MMM yyyy, HH:mm";
+	private static final int CACHE_SIZE = 256;
+	private static final int RETRIEVE_CHUNK_SIZE = 100;
+
+	private static final Map<String, CompiledTemplate> cache = StringUtils.lruCache(CACHE_SIZE);
+
+	private final List<Segment> segments = new ArrayList<>();
+	private final Node references = new Node();
+
+	private CompiledTemplate(String template) {
+		Matcher matcher = PLACEHOLDER.matcher(template);
+		int end = 0;
+		while (matcher.find()) {
+			if (matcher.start() > end) {
+				segments.add(new Literal(template.substring(end, matcher.start())));
+			}
+			if (matcher.group(1) != null) {
+				segments.add(new Constant(matcher.group(2)));
+			} else {
+				Path path = new Path(matcher.group(2));
+				references.add(path.references);
+				segments.add(path);
+			}
+			end = matcher.end();
+		}
+		if (end < template.length()) {
+			segments.add(new Literal(template.substring(end)));
+		}
+	}
+
+	public static CompiledTemplate compile(String template) {
+		return cache.computeIfAbsent(template, CompiledTemplate::new);
+	}
+
+	public String render(IContext context, IMendixObject substitute, boolean htmlEncode, String datetimeformat)
+		throws CoreException {
+		return render(new Renderer(context, htmlEncode, datetimeformat), substitute);
+	}
+
+	/**
+	 * Renders the template for every object, after retrieving the objects the template refers to for
+	 * all of them at once.
+	 *
+	 * @return The rendered templates, in the order of the objects
+	 */
+	public List<String> renderAll(IContext context, List<? extends IMendixObject> substitutes, boolean htmlEncode,
+		String datetimeformat) throws CoreException {
+		Renderer renderer = new Renderer(context, htmlEncode, datetimeformat);
+		renderer.prefetch(references, substitutes);
+		List<String> result = new ArrayList<>(substitutes.size());
+		for (IMendixObject substitute : substitutes) {
+			result.add(render(renderer, substitute));
+		}
+		return result;
+	}
+
+	/**
+	 * @return The value of a path like Module.Reference/Attribute, see ORM.getValueOfPath
+	 */
+	static String valueOfPath(IContext context, IMendixObject substitute, String path, String datetimeformat)
+		throws CoreException {
+		return new Path(path).resolve(new Renderer(context, false, datetimeformat), substitute, 0);
+	}
+
+	private String render(Renderer renderer, IMendixObject substitute) throws CoreException {
+		StringBuilder result = new StringBuilder();
+		for (Segment segment : segments) {
+			result.append(segment.render(renderer, substitute));
+		}
+		return result.toString();
+	}
+
+	private interface Segment {
+
+		String render(Renderer renderer, IMendixObject substitute) throws CoreException;
+	}
+
+	private static final class Literal implements Segment {
+
+		private final String text;
+
+		private Literal(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public String render(Renderer renderer, IMendixObject substitute) {
+			return text;
+		}
+	}
+
+	private static final class Constant implements Segment {
+
+		private final String name;
+
+		private Constant(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String render(Renderer renderer, IMendixObject substitute) {
+			return renderer.encode(String.valueOf(Core.getConfiguration().getConstantValue(name)));
+		}
+	}
+
+	private static final class Path implements Segment {
+
+		private final String text;
+		private final String[] references;
+		private final String attribute;
+
+		private Path(String text) {
+			String[] path = text.split("/");
+			this.text = text;
+			this.references = path.length == 0 ? path : Arrays.copyOf(path, path.length - 1);
+			this.attribute = path.length == 0 ? null : path[path.length - 1];
+		}
+
+		@Override
+		public String render(Renderer renderer, IMendixObject substitute) throws CoreException {
+			return renderer.encode(resolve(renderer, substitute, 0));
+		}
+
+		private String resolve(Renderer renderer, IMendixObject obj, int step) throws CoreException {
+			if (attribute == null) {
+				throw new CoreException("Unexpected end of path: '" + text + "'");
+			}
+			if (step == references.length) {
+				IMendixObjectMember<?> member = obj.getMember(attribute);
+				if (member == null) {
+					throw new CoreException("Not a valid member: '" + attribute + "' in '" + text + "'");
+				}
+				return renderer.format(member);
+			}
+
+			IMendixObjectMember<?> member = obj.getMember(references[step]);
+			if (member instanceof MendixObjectReference) {
+				IMendixIdentifier id = ((MendixObjectReference) member).getValue(renderer.context);
+				IMendixObject target = id == null ? null : renderer.retrieve(id);
+				return target == null ? "" : resolve(renderer, target, step + 1);
+			} else if (member instanceof MendixObjectReferenceSet) {
+				List<IMendixIdentifier> ids = ((MendixObjectReferenceSet) member).getValue(renderer.context);
+				StringJoiner result = new StringJoiner(", ");
+				if (ids != null) {
+					for (IMendixIdentifier id : ids) {
+						IMendixObject target = id == null ? null : renderer.retrieve(id);
+						if (target != null) {
+							result.add(resolve(renderer, target, step + 1));
+						}
+					}
+				}
+				return result.toString();
+			}
+			throw new CoreException("Not a valid reference: '" + references[step] + "' in '" + text + "'");
+		}
+	}
+
+	/**
+	 * The references of the paths in a template, as a tree.
+	 */
+	private static final class Node {
+
+		private final Map<String, Node> children = new LinkedHashMap<>();
+
+		private void add(String[] references) {
+			Node node = this;
+			for (String reference : references) {
+				node = node.children.computeIfAbsent(reference, r -> new Node());
+			}
+		}
+	}
+
+	/**
+	 * The state of one render call: the objects retrieved so far and the date format.
+	 */
+	private static final class Renderer {
+
+		private final IContext context;
+		private final boolean htmlEncode;
+		private final String datetimeformat;
+		private final Map<IMendixIdentifier, IMendixObject> objects = new HashMap<>();
+		private final Set<IMendixIdentifier> missing = new HashSet<>();
+		private DateFormat dateFormat;
+
+		private Renderer(IContext context, boolean htmlEncode, String datetimeformat) {
+			this.context = context;
+			this.htmlEncode = htmlEncode;
+			this.datetimeformat = datetimeformat;
+		}
+
+		private String encode(String value) {
+			return htmlEncode ? StringUtils.HTMLEncode(value) : value;
+		}
+
+		private IMendixObject retrieve(IMendixIdentifier id) throws CoreException {
+			IMendixObject obj = objects.get(id);
+			if (obj == null && !missing.contains(id)) {
+				obj = Core.retrieveId(context, id);
+				if (obj == null) {
+					missing.add(id);
+				} else {
+					objects.put(id, obj);
+				}
+			}
+			return obj;
+		}
+
+		/**
+		 * Retrieves the objects over the references of the node for all sources, level by level.
+		 */
+		private void prefetch(Node node, Collection<? extends IMendixObject> sources) throws CoreException {
+			for (Map.Entry<String, Node> child : node.children.entrySet()) {
+				Set<IMendixIdentifier> ids = new LinkedHashSet<>();
+				for (IMendixObject src : sources) {
+					IMendixObjectMember<?> member = src.getMember(child.getKey());
+					if (member instanceof MendixObjectReference) {
+						IMendixIdentifier id = ((MendixObjectReference) member).getValue(context);
+						if (id != null) {
+							ids.add(id);
+						}
+					} else if (member instanceof MendixObjectReferenceSet) {
+						List<IMendixIdentifier> refs = ((MendixObjectReferenceSet) member).getValue(context);
+						if (refs != null) {
+							for (IMendixIdentifier id : refs) {
+								if (id != null) {
+									ids.add(id);
+								}
+							}
+						}
+					}
+				}
+
+				List<IMendixObject> targets = new ArrayList<>(ids.size());
+				List<IMendixIdentifier> toRetrieve = new ArrayList<>();
+				for (IMendixIdentifier id : ids) {
+					IMendixObject obj = objects.get(id);
+					if (obj != null) {
+						targets.add(obj);
+					} else if (!missing.contains(id)) {
+						toRetrieve.add(id);
+					}
+				}
+				for (int i = 0; i < toRetrieve.size(); i += RETRIEVE_CHUNK_SIZE) {
+					for (IMendixObject obj : Core.retrieveIdList(context,
+						toRetrieve.subList(i, Math.min(i + RETRIEVE_CHUNK_SIZE, toRetrieve.size())))) {
+						objects.put(obj.getId(), obj);
+						targets.add(obj);
+					}
+				}
+				for (IMendixIdentifier id : toRetrieve) {
+					if (!objects.containsKey(id)) {
+						missing.add(id);
+					}
+				}
+
+				if (!child.getValue().children.isEmpty()) {
+					prefetch(child.getValue(), targets);
+				}
+			}
+		}
+
+		private String format(IMendixObjectMember<?> member) {
+			//special case, see ticket 9135, format datetime.
+			if (member instanceof MendixDateTime) {
+				Date time = ((MendixDateTime) member).getValue(context);
+				if (time == null) {
+					return "";
+				}
+				if (dateFormat == null) {
+					dateFormat = new SimpleDateFormat(datetimeformat != null && !datetimeformat.isEmpty() ? datetimeformat : DEFAULT_DATETIME_FORMAT);
+				}
+				return dateFormat.format(time);
+			}
+
+			if (member instanceof MendixEnum) {
+				String value = member.parseValueToString(context);
+				if (value == null || value.isEmpty()) {
+					return "";
+				}
+
+				IMetaEnumeration enumeration = ((MendixEnum) member).getEnumeration();
+				IMetaEnumValue evalue = enumeration.getEnumValues().get(value);
+				return Core.getInternationalizedString(context, evalue.getI18NCaptionKey());
+			}
+			//default
+			return member.parseValueToString(context);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.core.objectmanagement.member.MendixAutoNumber;
+import com.mendix.core.objectmanagement.member.MendixObjectReference;
+import com.mendix.core.objectmanagement.member.MendixObjectReferenceSet;
+import com.mendix.datastorage.XPathQuery;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.IMendixObjectMember;
+import com.mendix.systemwideinterfaces.core.meta.IMetaAssociation;
+import com.mendix.systemwideinterfaces.core.meta.IMetaAssociation.AssociationType;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Clones an object graph for ORM.deepClone, a level at a time: the referenced objects of all objects
+ * of a level, and the objects that refer to them through a reverse association, are retrieved with
+ * one query per chunk instead of one query per object. The clones are committed together, without
+ * events, at the end.
+ */
+class DeepCloner {
+
+	/** The number of ids that are retrieved, or compared in a reverse association query, at a time. */
+	private static final int RETRIEVE_CHUNK_SIZE = 100;
+	private static final int COMMIT_CHUNK_SIZE = 1000;
+
+	private final IContext ctx;
+	private final List<String> toskip;
+	private final List<String> tokeep;
+	private final List<String> revAssocs;
+	private final Set<String> skipEntities;
+	private final Set<String> skipModules;
+
+	private final Map<String, TypeRules> rules = new HashMap<>();
+	private final Map<IMendixIdentifier, IMendixIdentifier> mappedObjects = new HashMap<>();
+	/** Referenced objects that are not cloned because of their entity or module; references keep pointing to them. */
+	private final Set<IMendixIdentifier> excluded = new HashSet<>();
+	/** Referenced objects that no longer exist; references to them are left empty. */
+	private final Set<IMendixIdentifier> missing = new HashSet<>();
+	private final List<IMendixObject> clones = new ArrayList<>();
+
+	DeepCloner(IContext ctx, String membersToSkip, String membersToKeep, String reverseAssociations,
+		String excludeEntities, String excludeModules) {
+		this.ctx = ctx;
+		this.toskip = Arrays.asList((membersToSkip + ",createdDate,changedDate").split(","));
+		this.tokeep = Arrays.asList((membersToKeep + ",System.owner,System.changedBy").split(","));
+		this.revAssocs = Arrays.asList(reverseAssociations.split(","));
+		this.skipEntities = new HashSet<>(Arrays.asList(excludeEntities.split(",")));
+		this.skipModules = new HashSet<>(Arrays.asList(excludeModules.split(",")));
+	}
+
+	void clone(IMendixObject source, IMendixObject target) throws CoreException {
+		Map<IMendixObject, IMendixObject> level = new LinkedHashMap<>();
+		level.put(source, target);
+		mappedObjects.put(source.getId(), target.getId());
+
+		while (!level.isEmpty()) {
+			Map<IMendixObject, IMendixObject> next = new LinkedHashMap<>();
+			for (IMendixObject src : retrieveReferences(level.keySet())) {
+				addClone(src, next);
+			}
+			for (IMendixObject src : retrieveReverseReferences(level.keySet())) {
+				addClone(src, next);
+			}
+			for (Map.Entry<IMendixObject, IMendixObject> entry : level.entrySet()) {
+				copyMembers(entry.getKey(), entry.getValue());
+				clones.add(entry.getValue());
+			}
+			level = next;
+		}
+
+		for (int i = 0; i < clones.size(); i += COMMIT_CHUNK_SIZE) {
+			Core.commitWithoutEvents(ctx, clones.subList(i, Math.min(i + COMMIT_CHUNK_SIZE, clones.size())));
+		}
+	}
+
+	private void addClone(IMendixObject src, Map<IMendixObject, IMendixObject> next) {
+		if (mappedObjects.containsKey(src.getId()) || excluded.contains(src.getId())) {
+			return;
+		}
+		IMetaObject meta = src.getMetaObject();
+		if (skipEntities.contains(meta.getName()) || skipModules.contains(meta.getModuleName())) {
+			// references to objects that should be skipped keep pointing to the source object
+			excluded.add(src.getId());
+			return;
+		}
+		IMendixObject clone = Core.instantiate(ctx, src.getType());
+		mappedObjects.put(src.getId(), clone.getId());
+		next.put(src, clone);
+	}
+
+	/**
+	 * @return The objects that the objects refer to, that are not cloned or skipped yet
+	 */
+	private List<IMendixObject> retrieveReferences(Set<IMendixObject> objects) throws CoreException {
+		Set<IMendixIdentifier> ids = new LinkedHashSet<>();
+		for (IMendixObject src : objects) {
+			TypeRules typeRules = rulesFor(src);
+			for (var entry : src.getMembers(ctx).entrySet()) {
+				if (!typeRules.isCloned(entry.getKey())) {
+					continue;
+				}
+				IMendixObjectMember<?> m = entry.getValue();
+				if (m instanceof MendixObjectReference && m.getValue(ctx) != null) {
+					ids.add(((MendixObjectReference) m).getValue(ctx));
+				} else if (m instanceof MendixObjectReferenceSet && m.getValue(ctx) != null) {
+					ids.addAll(((MendixObjectReferenceSet) m).getValue(ctx));
+				}
+			}
+		}
+		ids.removeAll(mappedObjects.keySet());
+		ids.removeAll(excluded);
+		ids.removeAll(missing);
+
+		List<IMendixIdentifier> idList = new ArrayList<>(ids);
+		List<IMendixObject> result = new ArrayList<>(idList.size());
+		for (int i = 0; i < idList.size(); i += RETRIEVE_CHUNK_SIZE) {
+			result.addAll(Core.retrieveIdList(ctx, idList.subList(i, Math.min(i + RETRIEVE_CHUNK_SIZE, idList.size()))));
+		}
+		if (result.size() < ids.size()) {
+			for (IMendixObject o : result) {
+				ids.remove(o.getId());
+			}
+			missing.addAll(ids);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The objects that refer to the objects through one of the reverse associations
+	 */
+	private List<IMendixObject> retrieveReverseReferences(Set<IMendixObject> objects) throws CoreException {
+		List<IMendixObject> result = new ArrayList<>();
+		if (revAssocs.size() == 1 && revAssocs.get(0).isEmpty()) {
+			return result;
+		}
+
+		Map<String, List<IMendixObject>> byType = new LinkedHashMap<>();
+		for (IMendixObject src : objects) {
+			byType.computeIfAbsent(src.getType(), t -> new ArrayList<>()).add(src);
+		}
+
+		for (List<IMendixObject> sources : byType.values()) {
+			for (Map.Entry<String, IMetaAssociation> assoc : rulesFor(sources.get(0)).reverseAssociations.entrySet()) {
+				String parent = assoc.getValue().getParent().getName();
+				for (int i = 0; i < sources.size(); i += RETRIEVE_CHUNK_SIZE) {
+					List<IMendixObject> chunk = sources.subList(i, Math.min(i + RETRIEVE_CHUNK_SIZE, sources.size()));
+					StringBuilder constraint = new StringBuilder();
+					for (int j = 0; j < chunk.size(); j++) {
+						constraint.append(j == 0 ? "" : " or ").append(assoc.getKey()).append(" = $value").append(j);
+					}
+					XPathQuery query = Core.createXPathQuery(String.format("//%s[%s]", parent, constraint));
+					for (int j = 0; j < chunk.size(); j++) {
+						query.setVariable("value" + j, chunk.get(j).getId().toLong());
+					}
+					result.addAll(query.execute(ctx));
+				}
+			}
+		}
+		return result;
+	}
+
+	private void copyMembers(IMendixObject src, IMendixObject tar) {
+		TypeRules typeRules = rulesFor(src);
+		for (var entry : src.getMembers(ctx).entrySet()) {
+			String key = entry.getKey();
+			if (typeRules.skip.contains(key)) {
+				continue;
+			}
+			IMendixObjectMember<?> m = entry.getValue();
+			if (m.isVirtual() || m instanceof MendixAutoNumber) { //skip autonumbers! Ticket 14893
+				continue;
+			}
+
+			boolean keep = typeRules.keep.contains(key);
+
+			if (m instanceof MendixObjectReference && !keep && m.getValue(ctx) != null) {
+				tar.setValue(ctx, key, cloneOf(((MendixObjectReference) m).getValue(ctx)));
+			} else if (m instanceof MendixObjectReferenceSet && !keep && m.getValue(ctx) != null) {
+				List<IMendixIdentifier> res = new ArrayList<IMendixIdentifier>();
+				for (IMendixIdentifier item : ((MendixObjectReferenceSet) m).getValue(ctx)) {
+					IMendixIdentifier refObj = cloneOf(item);
+					if (refObj != null) {
+						res.add(refObj);
+					}
+				}
+				tar.setValue(ctx, key, res);
+			} else if ("__UUID__".equals(key) && typeRules.fileDocument) {
+				// do nothing
+			} else {
+				tar.setValue(ctx, key, m.getValue(ctx));
+			}
+		}
+	}
+
+	/**
+	 * @return The clone of the referenced object, the object itself if it should not be cloned, or
+	 * null if it no longer exists
+	 */
+	private IMendixIdentifier cloneOf(IMendixIdentifier id) {
+		IMendixIdentifier clone = mappedObjects.get(id);
+		if (clone != null) {
+			return clone;
+		}
+		return missing.contains(id) ? null : id;
+	}
+
+	private TypeRules rulesFor(IMendixObject object) {
+		return rules.computeIfAbsent(object.getType(), type -> new TypeRules(object.getMetaObject()));
+	}
+
+	/**
+	 * The skip and keep rules of one entity type, and its reverse associations.
+	 */
+	private final class TypeRules {
+
+		private final Set<String> skip;
+		private final Set<String> keep;
+		private final boolean fileDocument;
+		private final Map<String, IMetaAssociation> reverseAssociations = new LinkedHashMap<>();
+
+		private TypeRules(IMetaObject meta) {
+			String prefix = meta.getName() + "/";
+			this.skip = compile(toskip, prefix);
+			this.keep = compile(tokeep, prefix);
+			this.fileDocument = meta.isFileDocument();
+
+			for (String fullAssocName : revAssocs) {
+				if (fullAssocName.isEmpty()) {
+					continue;
+				}
+				String[] parts = fullAssocName.split("/");
+
+				if (parts.length != 1 && parts.length != 3) //specifying entity has no meaning anymore, but remain backward compatible.
+				{
+					throw new IllegalArgumentException("Reverse association is not defined correctly, please mention the relation name only: '" + fullAssocName + "'");
+				}
+
+				String assocname = parts.length == 3 ? parts[1] : parts[0]; //support length 3 for backward compatibility
+
+				IMetaAssociation massoc = meta.getDeclaredMetaAssociationChild(assocname);
+				if (massoc == null) {
+					continue;
+				}
+
+				IMetaObject relationParent = massoc.getParent();
+				// if the parent is in the exclude list, we can't clone the parent, and setting the
+				// references to the newly cloned target object will screw up the source data.
+				if (skipEntities.contains(relationParent.getName()) || skipModules.contains(relationParent.getModuleName())) {
+					throw new IllegalArgumentException("A reverse reference has been specified that starts at an entity in the exclude list, this is not possible to clone: '" + fullAssocName + "'");
+				}
+
+				//MWE: what to do with reverse reference sets? -> to avoid spam creating objects on
+				//reverse references, do not support referenceset (todo: we could keep a map of converted guids and reuse that!)
+				if (massoc.getType() == AssociationType.REFERENCESET) {
+					throw new IllegalArgumentException("It is not possible to clone reverse referencesets: '" + fullAssocName + "'");
+				}
+
+				reverseAssociations.put(assocname, massoc);
+			}
+		}
+
+		/**
+		 * Members are either named for all entities, or prefixed with 'Module.Entity/' for one entity.
+		 */
+		private Set<String> compile(List<String> members, String prefix) {
+			Set<String> result = new HashSet<>();
+			for (String member : members) {
+				if (member.startsWith(prefix)) {
+					result.add(member.substring(prefix.length()));
+				} else {
+					result.add(member);
+				}
+			}
+			return result;
+		}
+
+		private boolean isCloned(String member) {
+			return !skip.contains(member) && !keep.contains(member);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package communitycommons;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, of which one is picked by the hash of a key. Callers with different keys
+ * usually get different locks and proceed in parallel, while callers with the same key always get
+ * the same lock. Keeps track of how often and how long callers had to wait for a lock.
+ *
+ * Locks are reentrant. A thread that already holds one lock of the set and asks for another one
+ * gets that lock only if it is free right away; otherwise it gets the nested lock of the set, which
+ * is only taken by such nested callers. Waiting for the other lock could deadlock with a thread
+ * that holds it and waits for ours, even though the keys only share a lock by chance. A thread that
+ * holds the nested lock never waits for a lock of the set, so nested callers cannot deadlock.
+ */
+public class KeyLocks {
+
+	private final ReentrantLock[] locks;
+	private final ReentrantLock nested = new ReentrantLock();
+	private final LongAdder acquired = new LongAdder();
+	private final LongAdder contended = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * @param stripes The number of locks, rounded up to a power of two
+	 */
+	public KeyLocks(int stripes) {
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Acquires the lock of the key, or the nested lock if the thread holds another lock of the set
+	 * that is not free. Release the returned lock with unlock() in a finally block.
+	 */
+	public ReentrantLock lock(String key) throws InterruptedException {
+		int h = key.hashCode();
+		ReentrantLock lock = locks[(h ^ (h >>> 16)) & (locks.length - 1)];
+		acquired.increment();
+		if (lock.tryLock()) {
+			return lock;
+		}
+		if (nested.isHeldByCurrentThread() || holdsOther(lock)) {
+			lock = nested;
+		}
+
+		contended.increment();
+		long start = System.nanoTime();
+		lock.lockInterruptibly();
+		long waited = System.nanoTime() - start;
+		waitNanos.add(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+		return lock;
+	}
+
+	private boolean holdsOther(ReentrantLock lock) {
+		for (ReentrantLock other : locks) {
+			if (other != lock && other.isHeldByCurrentThread()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public long getAcquired() {
+		return acquired.sum();
+	}
+
+	/**
+	 * @return The number of times a caller had to wait because the lock was held
+	 */
+	public long getContended() {
+		return contended.sum();
+	}
+
+	public double getAverageWaitMs() {
+		long count = contended.sum();
+		return count == 0 ? 0 : waitNanos.sum() / 1e6 / count;
+	}
+
+	public double getMaxWaitMs() {
+		return maxWaitNanos.get() / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d locks acquired, %d contended (wait avg %.2f ms, max %.2f ms) over %d stripes", getAcquired(),
+			getContended(), getAverageWaitMs(), getMaxWaitMs(), locks.length);
+	}
+}
@@ -2,15 +2,23 @@ package communitycommons;
 
 import com.mendix.core.Core;
 import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
 import communitycommons.proxies.LogLevel;
 import communitycommons.proxies.LogNodes;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class Logging {
 
-	private static Map<String, Long> timers = new HashMap<String, Long>();
+	/**
+	 * The timers of measureStart by context and name, so that concurrent microflows that use the
+	 * same timer name do not overwrite each other's start time. The timers of a context are dropped
+	 * with the context.
+	 */
+	private static final Map<IContext, Map<String, Long>> timers = Collections.synchronizedMap(new WeakHashMap<>());
 
 	public static void trace(String lognode, String message) {
 		log(lognode, LogLevel.Trace, message, null);
@@ -68,20 +76,23 @@ public class Logging {
 		}
 	}
 
-	public static Long measureEnd(String timerName, LogLevel loglevel,
+	public static Long measureEnd(IContext context, String timerName, LogLevel loglevel,
 		String message) {
-		Long cur = new Date().getTime();
-		if (!timers.containsKey(timerName)) {
+		long cur = System.nanoTime();
+		Map<String, Long> started = timers.get(context);
+		Long start = started == null ? null : started.get(timerName);
+		if (start == null) {
 			throw new IllegalArgumentException(String.format("Timer with key %s not found", timerName));
 		}
-		Long timeTaken = cur - timers.get(timerName);
+		Timers.record(timerName, cur - start);
+		Long timeTaken = TimeUnit.NANOSECONDS.toMillis(cur - start);
 		String time = String.format("%d", timeTaken);
 		log(LogNodes.CommunityCommons.name(), loglevel, "Timer " + timerName + " finished in " + time + " ms. " + message, null);
 		return timeTaken;
 	}
 
-	public static void measureStart(String timerName) {
-		timers.put(timerName, new Date().getTime());
+	public static void measureStart(IContext context, String timerName) {
+		timers.computeIfAbsent(context, c -> new ConcurrentHashMap<>()).put(timerName, System.nanoTime());
 	}
 
 	public static ILogNode createLogNode(String logNode) {
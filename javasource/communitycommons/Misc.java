@@ -5,6 +5,7 @@ import com.mendix.core.CoreException;
 import com.mendix.core.objectmanagement.member.MendixBoolean;
 import com.mendix.integration.WebserviceException;
 import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.ISession;
 import com.mendix.systemwideinterfaces.core.IUser;
@@ -28,12 +29,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.apache.commons.io.IOUtils;
 import org.apache.pdfbox.multipdf.Overlay;
@@ -375,61 +373,8 @@ public class Misc {
 		return Core.microflowCall(microflowName).withParams(params).execute(c);
 	}
 
-	//MWE: based on: http://download.oracle.com/javase/6/docs/api/java/util/concurrent/Executor.html
-	static class MFSerialExecutor {
-
-		private static MFSerialExecutor _instance = new MFSerialExecutor();
-
-		private final AtomicLong tasknr = new AtomicLong();
-		private final ExecutorService executor;
-
-		public static MFSerialExecutor instance() {
-			return _instance;
-		}
-
-		private MFSerialExecutor() {
-			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-
-				//Default thread factory takes care of setting the proper thread context
-				private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
-
-				@Override
-				public Thread newThread(Runnable runnable) {
-					Thread t = defaultFactory.newThread(runnable);
-					t.setPriority(Thread.MIN_PRIORITY);
-					t.setName("CommunityCommons background pool executor thread");
-					return t;
-				}
-
-			});
-		}
-
-		public void execute(final Runnable command) {
-			if (command == null) {
-				throw new NullPointerException("command");
-			}
-
-			final long currenttasknr = tasknr.incrementAndGet();
-			Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Scheduling task #" + currenttasknr);
-
-			executor.submit(new Runnable() {
-				@Override
-				public void run() {
-					Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Running task #" + currenttasknr);
-					try {
-						command.run();
-					} catch (RuntimeException e) {
-						Logging.error(LOGNODE, "[RunMicroflowAsyncInQueue] Execution of task #" + currenttasknr + " failed: " + e.getMessage(), e);
-						throw e; //single thread executor will continue, even if an exception is thrown.
-					}
-					Logging.debug(LOGNODE, "[RunMicroflowAsyncInQueue] Completed task #" + currenttasknr + ". Tasks left: " + (tasknr.get() - currenttasknr));
-				}
-			});
-		}
-	}
-
 	public static Boolean runMicroflowAsyncInQueue(final String microflowName) {
-		MFSerialExecutor.instance().execute(new Runnable() {
+		TaskQueues.getDefault().execute(new Runnable() {
 			@Override
 			public void run() {
 				try {
@@ -446,7 +391,7 @@ public class Misc {
 	public static Boolean runMicroflowInBackground(final IContext context, final String microflowName,
 		final IMendixObject paramObject) {
 
-		MFSerialExecutor.instance().execute(new Runnable() {
+		TaskQueues.getDefault().execute(new Runnable() {
 
 			@Override
 			public void run() {
@@ -467,6 +412,53 @@ public class Misc {
 		return true;
 	}
 
+	/**
+	 * Creates or replaces a named task queue for runMicroflowInTaskQueue, see TaskQueues.configure.
+	 * Each queue has worker threads of its own and starts its tasks in FIFO order.
+	 *
+	 * @param concurrency The number of tasks that run at the same time, 1 if empty
+	 * @param priority The thread priority, from 1 (lowest) to 10 (highest), 1 if empty
+	 * @param capacity The number of tasks that can wait, no limit if 0 or empty
+	 * @param rejectionPolicy Reject (the default), CallerRuns or DiscardOldest, see
+	 * TaskQueue.RejectionPolicy
+	 * @param persistent Whether tasks are stored in the database until they have run. A task may run
+	 * again if the application stopped while it was running.
+	 */
+	public static Boolean configureTaskQueue(String queueName, Long concurrency, Long priority, Long capacity,
+		String rejectionPolicy, Boolean persistent) {
+		if (queueName == null || queueName.isBlank()) {
+			throw new IllegalArgumentException("Queue name should not be empty");
+		}
+		TaskQueues.configure(queueName,
+			concurrency == null ? 1 : concurrency.intValue(),
+			priority == null ? Thread.MIN_PRIORITY : priority.intValue(),
+			capacity == null ? 0 : capacity.intValue(),
+			rejectionPolicy == null || rejectionPolicy.isBlank() ? TaskQueue.RejectionPolicy.Reject : TaskQueue.RejectionPolicy.valueOf(rejectionPolicy),
+			Boolean.TRUE.equals(persistent));
+		return true;
+	}
+
+	/**
+	 * Runs a microflow in the background in the named task queue. Like executeMicroflowInBackground,
+	 * the microflow runs in a system context and in its own transaction, so $currentUser is not
+	 * available and no security is applied, but it only waits for the tasks of the same queue.
+	 *
+	 * @param paramObject The only argument of the microflow, if any. A persistent queue retrieves it
+	 * again when the task runs, see TaskQueue.
+	 * @return false if the queue is full and rejects the task
+	 */
+	public static Boolean runMicroflowInTaskQueue(String queueName, String microflowName, IMendixObject paramObject) {
+		return TaskQueues.get(queueName).executeMicroflow(microflowName, paramObject);
+	}
+
+	/**
+	 * @return The waiting, running, completed, failed and rejected tasks and the wait and run times of
+	 * all task queues, one line per queue
+	 */
+	public static String getTaskQueueStatistics() {
+		return TaskQueues.getStatistics();
+	}
+
 	private interface IBatchItemHandler {
 
 		void exec(IContext context, IMendixObject obj) throws Exception;
@@ -475,7 +467,7 @@ public class Misc {
 
 	private static class BatchState {
 
-		private int state = 0; //-1 = error, 1 = done.
+		private volatile int state = 0; //-1 = error, 1 = done.
 		private final IBatchItemHandler callback;
 
 		public BatchState(IBatchItemHandler callback) {
@@ -495,17 +487,96 @@ public class Misc {
 		}
 	}
 
+	/**
+	 * Calls the microflow with the object as its only argument, in the context (and transaction) of
+	 * the batch or of the object.
+	 */
+	private static IBatchItemHandler createMicroflowHandler(final String microflow) {
+		Map<String, IDataType> parameters = Core.getInputParameters(microflow);
+		if (parameters == null || parameters.size() != 1) {
+			throw new IllegalArgumentException("Microflow '" + microflow + "' should exist and accept exactly one argument");
+		}
+		final String parameter = parameters.keySet().iterator().next();
+
+		return (context, obj) -> Core.microflowCall(microflow).withParam(parameter, obj).execute(context);
+	}
+
 	public static Boolean executeMicroflowInBatches(String xpath, final String microflow, int batchsize, boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
 		Logging.debug(LOGNODE, "[ExecuteInBatches] Starting microflow batch '" + microflow + "...");
 
-		return executeInBatches(xpath, new BatchState(new IBatchItemHandler() {
+		return executeInBatches(xpath, new BatchState(createMicroflowHandler(microflow)), batchsize, waitUntilFinished, asc);
+	}
 
-			@Override
-			public void exec(IContext context, IMendixObject obj) throws Exception {
-				Core.executeAsync(context, microflow, true, obj).get();
+	/**
+	 * Like executeMicroflowInBatches, but with a number of workers that process batches in parallel.
+	 * Each batch is processed in a transaction of its own; when the microflow fails for an object, the
+	 * batch is rolled back and counted as failed, and the workers continue with the next batch. Only
+	 * use more than one worker if the microflow can safely run in parallel for different objects.
+	 *
+	 * @param batchsize The number of objects that are processed in a single transaction.
+	 * @param workers The number of batches that are processed at the same time.
+	 * @return The id of the batch, to request its progress with getBatchProgress.
+	 */
+	public static String executeMicroflowInParallelBatches(String xpath, final String microflow, int batchsize, int workers,
+		boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
+		Logging.debug(LOGNODE, "[ExecuteInBatches] Starting microflow batch '" + microflow + "' with " + workers + " worker(s)...");
+
+		IBatchItemHandler handler = createMicroflowHandler(microflow);
+		BatchEngine batch = new BatchEngine(xpath, batchsize, workers, asc, (BatchEngine.IBatchHandler) (context, objects) -> {
+			for (IMendixObject obj : objects) {
+				handler.exec(context, obj);
 			}
+		});
+		CompletableFuture<Boolean> completion = batch.start();
+		if (waitUntilFinished) {
+			try {
+				completion.get();
+			} catch (ExecutionException e) {
+				Logging.error(LOGNODE, "[ExecuteInBatches] Failed to finish batch: " + e.getMessage(), e);
+			}
+		}
+		return batch.getId();
+	}
 
-		}), batchsize, waitUntilFinished, asc);
+	/**
+	 * Deletes all objects of the XPath query in the background, in batches. Unlike deleteAll, every
+	 * batch is deleted in a transaction of its own, so a large purge does not keep tables locked or
+	 * all objects in memory. A failed batch is rolled back and counted as failed, and the workers
+	 * continue with the next batch; batches that were deleted already stay deleted.
+	 *
+	 * @param xpath The objects to delete, e.g. '//MyFirstModule.AuditLog[createdDate &lt;
+	 * '[%BeginOfCurrentYear%]']'
+	 * @param batchsize The number of objects deleted in one transaction
+	 * @param workers The number of batches that are deleted at the same time
+	 * @param withEvents Whether the before and after delete events run. The delete behavior of
+	 * associations is applied either way.
+	 * @param pauseMs The time each worker waits between two batches, 0 for no pause
+	 * @return The id of the batch, to request its progress with getBatchProgress.
+	 */
+	public static String deleteAllInBatches(String xpath, int batchsize, int workers, boolean withEvents, long pauseMs,
+		boolean waitUntilFinished) throws CoreException, InterruptedException {
+		Logging.debug(LOGNODE, "[ExecuteInBatches] Starting delete batch on '" + xpath + "' with " + workers + " worker(s)...");
+
+		BatchEngine batch = BatchEngine.delete(xpath, batchsize, workers, withEvents).setPause(pauseMs);
+		CompletableFuture<Boolean> completion = batch.start();
+		if (waitUntilFinished) {
+			try {
+				completion.get();
+			} catch (ExecutionException e) {
+				Logging.error(LOGNODE, "[ExecuteInBatches] Failed to finish batch: " + e.getMessage(), e);
+			}
+		}
+		return batch.getId();
+	}
+
+	/**
+	 * @return The progress of a batch started with executeMicroflowInParallelBatches or
+	 * deleteAllInBatches: the number of processed and failed objects, the elapsed time and the
+	 * estimated remaining time, or null if the batch is unknown. Finished batches are kept for an hour.
+	 */
+	public static String getBatchProgress(String batchId) {
+		BatchEngine batch = BatchEngine.get(batchId);
+		return batch == null ? null : batch.toString();
 	}
 
 	public static Boolean recommitInBatches(String xpath, int batchsize,
@@ -522,24 +593,30 @@ public class Misc {
 		}), batchsize, waitUntilFinished, asc);
 	}
 
+	/**
+	 * Processes the objects with a single worker, in order, each object in a transaction of its own;
+	 * the first object that fails stops the batch. Completion is signalled by the future of the batch,
+	 * so waiting does not poll.
+	 */
 	public static Boolean executeInBatches(String xpathRaw, BatchState batchState, int batchsize, boolean waitUntilFinished, boolean asc) throws CoreException, InterruptedException {
-		String xpath = xpathRaw.startsWith("//") ? xpathRaw : "//" + xpathRaw;
-
-		long count = Core.createXPathQuery("count(" + xpath + ")").executeAggregateLong(Core.createSystemContext());
-		int loop = (int) Math.ceil(((float) count) / ((float) batchsize));
+		BatchEngine batch = new BatchEngine(xpathRaw, batchsize, 1, asc, batchState::handle);
 
 		Logging.debug(LOGNODE,
-			"[ExecuteInBatches] Starting batch on ~ " + count + " objects divided over ~ " + loop + " batches. "
+			"[ExecuteInBatches] Starting batch " + batch.getId() + ". "
 			+ (waitUntilFinished ? "Waiting until the batch has finished..." : "")
 		);
 
-		executeInBatchesHelper(xpath, batchsize, 0, batchState, count, asc);
+		CompletableFuture<Boolean> completion = batch.start()
+			.whenComplete((succeeded, e) -> batchState.setState(Boolean.TRUE.equals(succeeded) ? 1 : -1));
 
 		if (waitUntilFinished) {
-			while (batchState.getState() == 0) {
-				Thread.sleep(5000);
+			boolean succeeded;
+			try {
+				succeeded = completion.get();
+			} catch (ExecutionException e) {
+				succeeded = false;
 			}
-			if (batchState.getState() == 1) {
+			if (succeeded) {
 				Logging.debug(LOGNODE, "[ExecuteInBatches] Successfully finished batch");
 				return true;
 			}
@@ -550,45 +627,6 @@ public class Misc {
 		return true;
 	}
 
-	static void executeInBatchesHelper(final String xpath, final int batchsize, final long last, final BatchState batchState, final long count, final boolean asc) {
-		MFSerialExecutor.instance().execute(new Runnable() {
-
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(200);
-					IContext c = Core.createSystemContext();
-
-					List<IMendixObject> objects = 
-						Core.createXPathQuery(xpath + (last > 0 ? "[id " + (asc ? "> " : "< ") + last + "]" : ""))
-							.setAmount(batchsize)
-							.setOffset(0)
-							.addSort("id", asc ? true : false)
-							.execute(c);
-
-					//no new objects found :)
-					if (objects.isEmpty()) {
-						Logging.debug(LOGNODE, "[ExecuteInBatches] Succesfully finished batch on ~" + count + " objects.");
-						batchState.setState(1);
-					} else {
-
-						//process objects
-						for (IMendixObject obj : objects) {
-							batchState.handle(c, obj);
-						}
-
-						//invoke next batch
-						executeInBatchesHelper(xpath, batchsize, objects.get(objects.size() - 1).getId().toLong(), batchState, count, asc);
-					}
-				} catch (Exception e) {
-					batchState.setState(-1);
-					throw new RuntimeException("[ExecuteInBatches] Failed to run in batch: " + e.getMessage(), e);
-				}
-			}
-
-		});
-	}
-
 	/**
 	 * Tests if two objects are equal with throwing unecessary null pointer exceptions.
 	 *
@@ -0,0 +1,70 @@
+package communitycommons;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * Creates proxy objects through the static initialize(IContext, IMendixObject) method of the proxy
+ * class. The method is looked up once per proxy class and turned into a function, so creating a
+ * proxy costs about as much as calling the method directly. The caches are thread safe.
+ */
+final class ProxyFactory {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final MethodType INITIALIZE_TYPE = MethodType.methodType(Object.class, IContext.class, IMendixObject.class);
+
+	private static final Map<String, Class<?>> proxyClasses = new ConcurrentHashMap<>();
+
+	private static final ClassValue<BiFunction<IContext, IMendixObject, Object>> factories = new ClassValue<>() {
+		@Override
+		protected BiFunction<IContext, IMendixObject, Object> computeValue(Class<?> proxyClass) {
+			return createFactory(proxyClass);
+		}
+	};
+
+	private ProxyFactory() {
+	}
+
+	/**
+	 * @return The factory of the proxy class of the entity type
+	 */
+	static BiFunction<IContext, IMendixObject, Object> forEntity(String entityType) {
+		return factories.get(proxyClasses.computeIfAbsent(entityType, XPath::getProxyClassForEntityName));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BiFunction<IContext, IMendixObject, Object> createFactory(Class<?> proxyClass) {
+		MethodHandle initialize;
+		try {
+			initialize = LOOKUP.findStatic(proxyClass, "initialize", MethodType.methodType(proxyClass, IContext.class, IMendixObject.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new IllegalArgumentException("Class '" + proxyClass.getName() + "' is not a proxy class: " + e.getMessage(), e);
+		}
+
+		try {
+			CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(BiFunction.class),
+				INITIALIZE_TYPE.generic(), initialize, initialize.type());
+			return (BiFunction<IContext, IMendixObject, Object>) site.getTarget().invokeExact();
+		} catch (Throwable e) {
+			// e.g. when the proxy class is not visible from the class loader of this class
+			MethodHandle generic = initialize.asType(INITIALIZE_TYPE);
+			return (context, object) -> {
+				try {
+					return generic.invokeExact(context, object);
+				} catch (RuntimeException | Error e2) {
+					throw e2;
+				} catch (Throwable e2) {
+					throw new RuntimeException(e2);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import communitycommons.proxies.LogNodes;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * A table in the application database outside of the domain model, for data that modules keep
+ * with plain SQL. The table is created on first use with statements that all supported database
+ * vendors understand. Every call runs on a connection of its own and is committed right away, so
+ * it is not part of the transaction of the caller.
+ */
+public class RawTable {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+
+	private final String name;
+	private final String purpose;
+	private final List<String> ddl;
+	private volatile boolean verified = false;
+
+	/**
+	 * @param purpose What the table is for, e.g. "the persistent task queues", for the log
+	 * @param ddl The statements that create the table and its indexes
+	 */
+	public RawTable(String name, String purpose, String... ddl) {
+		this.name = name;
+		this.purpose = purpose;
+		this.ddl = List.of(ddl);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Runs the function on a connection to the application database, after creating the table if
+	 * it does not exist yet, and commits.
+	 *
+	 * @throws IllegalStateException if the function fails
+	 */
+	public <T> T execute(SqlFunction<T> function) {
+		return Core.dataStorage().executeWithConnection(connection -> {
+			try {
+				ensureTable(connection);
+				T result = function.apply(connection);
+				if (!connection.getAutoCommit()) {
+					connection.commit();
+				}
+				return result;
+			} catch (SQLException e) {
+				throw new IllegalStateException("Table " + name + " could not be read or written: " + e.getMessage(), e);
+			}
+		});
+	}
+
+	private void ensureTable(Connection connection) throws SQLException {
+		if (verified) {
+			return;
+		}
+		synchronized (this) {
+			if (!verified) {
+				if (!tableExists(connection)) {
+					try (Statement statement = connection.createStatement()) {
+						for (String sql : ddl) {
+							statement.execute(sql);
+						}
+					}
+					if (!connection.getAutoCommit()) {
+						connection.commit();
+					}
+					Logging.info(LOGNODE, "Table " + name + " created for " + purpose + ".");
+				}
+				verified = true;
+			}
+		}
+	}
+
+	private boolean tableExists(Connection connection) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		// databases differ in how they store unquoted identifiers
+		for (String tableName : new String[] { name, name.toUpperCase() }) {
+			try (ResultSet resultSet = metaData.getTables(null, null, tableName, new String[] { "TABLE" })) {
+				if (resultSet.next()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@FunctionalInterface
+	public interface SqlFunction<T> {
+
+		T apply(Connection connection) throws SQLException;
+	}
+}
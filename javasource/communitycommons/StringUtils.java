@@ -1,6 +1,7 @@
 package communitycommons;
 
 import com.mendix.core.Core;
+import com.mendix.core.CoreException;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import communitycommons.proxies.SanitizerPolicy;
@@ -45,6 +46,7 @@ import system.proxies.FileDocument;
 public class StringUtils {
 
 	private static final Random RANDOM = new SecureRandom();
+	private static final Map<String, Pattern> PATTERNS = lruCache(128);
 
 	private static final String UPPERCASE_ALPHA = stringRange('A', 'Z');
 	private static final String LOWERCASE_ALPHA = stringRange('a', 'z');
@@ -103,11 +105,29 @@ public class StringUtils {
 	 */
 	public static String regexReplaceAll(String haystack, String needleRegex,
 										 String replacement) {
-		Pattern pattern = Pattern.compile(needleRegex);
-		Matcher matcher = pattern.matcher(haystack);
+		Matcher matcher = compilePattern(needleRegex).matcher(haystack);
 		return matcher.replaceAll(replacement);
 	}
 
+	/**
+	 * @return The compiled regular expression, from a cache of the most recently used expressions
+	 */
+	public static Pattern compilePattern(String regex) {
+		return PATTERNS.computeIfAbsent(regex, Pattern::compile);
+	}
+
+	/**
+	 * @return A thread safe map that evicts its least recently used entry when it exceeds the size
+	 */
+	static <K, V> Map<K, V> lruCache(int size) {
+		return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > size;
+			}
+		});
+	}
+
 	public static String leftPad(String value, Long amount, String fillCharacter) {
 		if (fillCharacter == null || fillCharacter.length() == 0) {
 			return org.apache.commons.lang3.StringUtils.leftPad(value, amount.intValue(), " ");
@@ -128,20 +148,33 @@ public class StringUtils {
 
 	public static String substituteTemplate(final IContext context, String template,
 											final IMendixObject substitute, final boolean HTMLEncode, final String datetimeformat) {
-		return regexReplaceAll(template, "\\{(@)?([\\w./]+)\\}", (MatchResult match) -> {
-			String value;
-			String path = match.group(2);
-			if (match.group(1) != null) {
-				value = String.valueOf(Core.getConfiguration().getConstantValue(path));
-			} else {
-				try {
-					value = ORM.getValueOfPath(context, substitute, path, datetimeformat);
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				}
-			}
-			return HTMLEncode ? HTMLEncode(value) : value;
-		});
+		if (template == null || template.trim().isEmpty()) {
+			return "";
+		}
+		try {
+			return CompiledTemplate.compile(template).render(context, substitute, HTMLEncode, datetimeformat);
+		} catch (CoreException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Substitutes the template for every object, retrieving the objects that the template refers to
+	 * for all of them at once. Use this instead of substituteTemplate in a loop when rendering many
+	 * objects.
+	 *
+	 * @return The substituted templates, in the order of the objects
+	 */
+	public static List<String> substituteTemplates(final IContext context, String template,
+												   final List<? extends IMendixObject> substitutes, final boolean HTMLEncode, final String datetimeformat) {
+		if (template == null || template.trim().isEmpty()) {
+			return Collections.nCopies(substitutes.size(), "");
+		}
+		try {
+			return CompiledTemplate.compile(template).renderAll(context, substitutes, HTMLEncode, datetimeformat);
+		} catch (CoreException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	public static String regexReplaceAll(String source, String regexString, Function<MatchResult, String> replaceFunction) {
@@ -150,9 +183,8 @@ public class StringUtils {
 			return "";
 		}
 
-		StringBuffer resultString = new StringBuffer();
-		Pattern regex = Pattern.compile(regexString);
-		Matcher regexMatcher = regex.matcher(source);
+		StringBuilder resultString = new StringBuilder();
+		Matcher regexMatcher = compilePattern(regexString).matcher(source);
 
 		while (regexMatcher.find()) {
 			MatchResult match = regexMatcher.toMatchResult();
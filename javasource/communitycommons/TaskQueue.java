@@ -0,0 +1,387 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogNodes;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named queue of background tasks, with its own worker threads. Tasks are started in the order
+ * in which they were queued, by at most 'concurrency' threads at a time.
+ *
+ * When the queue is full, the rejection policy decides what happens to a new task: it is rejected,
+ * it runs in the thread that queued it, or the oldest waiting task is dropped to make room.
+ *
+ * Microflow tasks of a persistent queue are stored in the database until they have run, so that the
+ * tasks that were waiting or running when the application stopped run again when the queue is
+ * configured after a restart. The table is written outside of the transaction of the caller, so a
+ * task can start before that transaction has committed; a task whose object is not visible yet is
+ * postponed until it is, and dropped when the object does not appear within
+ * {@link #VISIBILITY_TIMEOUT_MS}, e.g. because the transaction that created it was rolled back. A
+ * task for an existing object still runs when the caller rolls back its changes.
+ */
+public class TaskQueue {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+	/** Time a task of a persistent queue waits for its object to become visible. */
+	static final long VISIBILITY_TIMEOUT_MS = TimeUnit.HOURS.toMillis(1);
+	private static final long MIN_RETRY_DELAY_MS = 500;
+	private static final long MAX_RETRY_DELAY_MS = 30_000;
+	private static final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread t = Executors.defaultThreadFactory().newThread(runnable);
+		t.setName("CommunityCommons task queue retry");
+		t.setDaemon(true);
+		return t;
+	});
+
+	public enum RejectionPolicy {
+		Reject, CallerRuns, DiscardOldest
+	}
+
+	private final String name;
+	private final int concurrency;
+	private final int priority;
+	private final int capacity;
+	private final RejectionPolicy rejectionPolicy;
+	private final boolean persistent;
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong tasknr = new AtomicLong();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder waitMs = new LongAdder();
+	private final LongAdder runMs = new LongAdder();
+	private final AtomicLong maxWaitMs = new AtomicLong();
+	private final AtomicLong maxRunMs = new AtomicLong();
+
+	/**
+	 * @param concurrency The number of tasks that run at the same time
+	 * @param priority The thread priority, between Thread.MIN_PRIORITY (1) and Thread.MAX_PRIORITY (10)
+	 * @param capacity The number of tasks that can wait; 0 for no limit
+	 */
+	public TaskQueue(String name, int concurrency, int priority, int capacity, RejectionPolicy rejectionPolicy, boolean persistent) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("Concurrency of task queue '" + name + "' should be at least 1");
+		}
+		if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY) {
+			throw new IllegalArgumentException("Priority of task queue '" + name + "' should be between " + Thread.MIN_PRIORITY + " and " + Thread.MAX_PRIORITY);
+		}
+		this.name = name;
+		this.concurrency = concurrency;
+		this.priority = priority;
+		this.capacity = capacity;
+		this.rejectionPolicy = rejectionPolicy;
+		this.persistent = persistent;
+
+		executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(capacity > 0 ? capacity : Integer.MAX_VALUE), new ThreadFactory() {
+
+				//Default thread factory takes care of setting the proper thread context
+				private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+				private final AtomicInteger threadnr = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread t = defaultFactory.newThread(runnable);
+					t.setPriority(TaskQueue.this.priority);
+					t.setName("CommunityCommons task queue " + TaskQueue.this.name + " thread " + threadnr.incrementAndGet());
+					return t;
+				}
+
+			}, createRejectedExecutionHandler(rejectionPolicy));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private ThreadPoolExecutor.AbortPolicy createRejectedExecutionHandler(RejectionPolicy rejectionPolicy) {
+		return new ThreadPoolExecutor.AbortPolicy() {
+			@Override
+			public void rejectedExecution(Runnable runnable, ThreadPoolExecutor e) {
+				if (rejectionPolicy == RejectionPolicy.CallerRuns && !e.isShutdown()) {
+					runnable.run();
+				} else if (rejectionPolicy == RejectionPolicy.DiscardOldest && !e.isShutdown()) {
+					Runnable oldest = e.getQueue().poll();
+					if (oldest instanceof Task) {
+						((Task) oldest).discard();
+					}
+					e.execute(runnable);
+				} else {
+					throw new RejectedExecutionException("Task queue '" + name + "' is full or stopped");
+				}
+			}
+		};
+	}
+
+	/**
+	 * @return false if the queue rejected the task
+	 */
+	public boolean execute(Runnable command) {
+		return submit(new Task(command, null, 0));
+	}
+
+	/**
+	 * Queues a microflow that is run in a system context, with the object as its only argument (if
+	 * any). The microflow gets the object itself, with its uncommitted changes, unless the queue is
+	 * persistent: then the object has to be persistable and is retrieved again when the task runs.
+	 *
+	 * @return false if the queue rejected the task
+	 */
+	public boolean executeMicroflow(String microflowName, IMendixObject paramObject) {
+		Map<String, IDataType> parameters = Core.getInputParameters(microflowName);
+		if (parameters == null) {
+			throw new IllegalArgumentException("Microflow '" + microflowName + "' does not exist");
+		}
+		if (parameters.size() > (paramObject == null ? 0 : 1)) {
+			throw new IllegalArgumentException("Microflow '" + microflowName + "' should accept " + (paramObject == null ? "no arguments" : "one argument"));
+		}
+
+		if (!persistent) {
+			return submit(new Task(() -> runMicroflow(microflowName, paramObject), null, 0));
+		}
+		if (paramObject != null && !paramObject.getMetaObject().isPersistable()) {
+			throw new IllegalArgumentException("Task queue '" + name + "' is persistent and only accepts persistable objects");
+		}
+		Long objectId = paramObject == null ? null : paramObject.getId().toLong();
+		String storedId = TaskQueueStore.insert(name, microflowName, objectId);
+		return submit(new Task(() -> runStoredMicroflow(microflowName, objectId), storedId,
+			System.currentTimeMillis() + VISIBILITY_TIMEOUT_MS));
+	}
+
+	/**
+	 * Queues the stored tasks of this queue again, after a restart.
+	 */
+	void recover() {
+		if (!persistent) {
+			return;
+		}
+		int count = 0;
+		for (TaskQueueStore.StoredTask stored : TaskQueueStore.load(name)) {
+			// the transactions that queued them ended with the previous run of the application
+			submit(new Task(() -> runStoredMicroflow(stored.getMicroflow(), stored.getObjectId()), stored.getId(), 0));
+			count++;
+		}
+		if (count > 0) {
+			Logging.info(LOGNODE, "[TaskQueue] Recovered " + count + " stored task(s) of task queue '" + name + "'");
+		}
+	}
+
+	private static void runMicroflow(String microflowName, IMendixObject paramObject) {
+		IContext c = Core.createSystemContext();
+		if (paramObject == null) {
+			Core.microflowCall(microflowName).execute(c);
+			return;
+		}
+		String parameter = Core.getInputParameters(microflowName).keySet().iterator().next();
+		Core.microflowCall(microflowName).withParam(parameter, paramObject).execute(c);
+	}
+
+	private static void runStoredMicroflow(String microflowName, Long objectId) {
+		if (objectId == null) {
+			runMicroflow(microflowName, null);
+			return;
+		}
+		IMendixObject paramObject;
+		try {
+			paramObject = Core.retrieveId(Core.createSystemContext(), Core.createMendixIdentifier(objectId));
+		} catch (CoreException e) {
+			throw new RuntimeException("Failed to retrieve object " + objectId + " for microflow " + microflowName + ": " + e.getMessage(), e);
+		}
+		if (paramObject == null) {
+			throw new ObjectNotVisibleException(objectId);
+		}
+		runMicroflow(microflowName, paramObject);
+	}
+
+	private boolean submit(Task task) {
+		try {
+			executor.execute(task);
+			Logging.debug(LOGNODE, "[TaskQueue] Scheduled task #" + task.tasknr + " in task queue '" + name + "'");
+			return true;
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			task.remove();
+			Logging.warn(LOGNODE, "[TaskQueue] Rejected task #" + task.tasknr + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Stops accepting tasks; the tasks in the queue still run.
+	 */
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public RejectionPolicy getRejectionPolicy() {
+		return rejectionPolicy;
+	}
+
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	/**
+	 * @return The number of tasks waiting to run
+	 */
+	public int getDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getRunning() {
+		return executor.getActiveCount();
+	}
+
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	public double getAverageWaitMs() {
+		long count = completed.sum() + failed.sum();
+		return count == 0 ? 0 : (double) waitMs.sum() / count;
+	}
+
+	public double getAverageRunMs() {
+		long count = completed.sum() + failed.sum();
+		return count == 0 ? 0 : (double) runMs.sum() / count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d waiting, %d running (max %d), %d completed, %d failed, %d rejected; "
+			+ "wait avg %.0f ms, max %d ms; run avg %.0f ms, max %d ms", name, getDepth(), getRunning(), concurrency,
+			getCompleted(), getFailed(), getRejected(), getAverageWaitMs(), maxWaitMs.get(), getAverageRunMs(), maxRunMs.get());
+	}
+
+	/**
+	 * The object of a stored task is not in the database (yet).
+	 */
+	private static final class ObjectNotVisibleException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		private ObjectNotVisibleException(long objectId) {
+			super("Object " + objectId + " does not exist (yet)");
+		}
+	}
+
+	private final class Task implements Runnable {
+
+		private final long tasknr = TaskQueue.this.tasknr.incrementAndGet();
+		private final long queuedAt = System.currentTimeMillis();
+		private final Runnable command;
+		private final String storedId;
+		private final long visibleBefore;
+		private int attempts;
+
+		/**
+		 * @param visibleBefore Until when the task is postponed while its object is not visible
+		 */
+		private Task(Runnable command, String storedId, long visibleBefore) {
+			this.command = command;
+			this.storedId = storedId;
+			this.visibleBefore = visibleBefore;
+		}
+
+		@Override
+		public void run() {
+			long startedAt = System.currentTimeMillis();
+			record(waitMs, maxWaitMs, startedAt - queuedAt);
+			Logging.debug(LOGNODE, "[TaskQueue] Running task #" + tasknr + " of task queue '" + name + "'");
+			boolean postponed = false;
+			try {
+				command.run();
+				completed.increment();
+			} catch (ObjectNotVisibleException e) {
+				postponed = startedAt < visibleBefore;
+				if (!postponed) {
+					completed.increment();
+					Logging.warn(LOGNODE, "[TaskQueue] Skipped task #" + tasknr + " of task queue '" + name + "': " + e.getMessage());
+				}
+			} catch (RuntimeException e) {
+				failed.increment();
+				Logging.error(LOGNODE, "[TaskQueue] Execution of task #" + tasknr + " of task queue '" + name + "' failed: " + e.getMessage(), e);
+			} finally {
+				record(runMs, maxRunMs, System.currentTimeMillis() - startedAt);
+				// a failed task is not retried, like a task of a queue that is not persistent
+				if (postponed) {
+					postpone();
+				} else {
+					remove();
+				}
+			}
+			Logging.debug(LOGNODE, "[TaskQueue] Completed task #" + tasknr + ". Tasks left: " + getDepth());
+		}
+
+		/**
+		 * Queues the task again after a delay, without holding a thread of the queue in the meantime.
+		 */
+		private void postpone() {
+			long delay = Math.min(MAX_RETRY_DELAY_MS, MIN_RETRY_DELAY_MS << Math.min(attempts++, 16));
+			Logging.debug(LOGNODE, "[TaskQueue] Postponed task #" + tasknr + " of task queue '" + name + "' by " + delay + " ms");
+			retries.schedule(this::resume, delay, TimeUnit.MILLISECONDS);
+		}
+
+		private void resume() {
+			TaskQueue current = TaskQueues.get(name);
+			if (current == TaskQueue.this) {
+				submit(this);
+			} else {
+				// the queue was configured again in the meantime
+				current.submit(current.new Task(command, storedId, visibleBefore));
+			}
+		}
+
+		private void discard() {
+			Logging.warn(LOGNODE, "[TaskQueue] Discarded task #" + tasknr + " of task queue '" + name + "'");
+			remove();
+		}
+
+		private void remove() {
+			if (storedId != null) {
+				TaskQueueStore.delete(storedId);
+			}
+		}
+
+		private void record(LongAdder total, AtomicLong max, long ms) {
+			total.add(ms);
+			max.accumulateAndGet(ms, Math::max);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package communitycommons;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Durable table with the microflow tasks of persistent task queues that did not run yet, see
+ * {@link TaskQueue}. The table lives in the application database outside of the domain model and is
+ * created on first use.
+ */
+class TaskQueueStore {
+
+	private static final String TABLE_NAME = "communitycommons_taskqueue";
+	private static final RawTable TABLE = new RawTable(TABLE_NAME, "the persistent task queues",
+		"CREATE TABLE " + TABLE_NAME + " (id VARCHAR(36) NOT NULL, queuename VARCHAR(200) NOT NULL, "
+			+ "microflow VARCHAR(400) NOT NULL, objectid BIGINT, enqueuedat BIGINT NOT NULL, PRIMARY KEY (id))",
+		"CREATE INDEX " + TABLE_NAME + "_queue ON " + TABLE_NAME + " (queuename, enqueuedat)");
+
+	private TaskQueueStore() {
+	}
+
+	/**
+	 * @return The id of the stored task
+	 */
+	static String insert(String queueName, String microflow, Long objectId) {
+		String id = UUID.randomUUID().toString();
+		TABLE.execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(
+				"INSERT INTO " + TABLE_NAME + " (id, queuename, microflow, objectid, enqueuedat) VALUES (?, ?, ?, ?, ?)")) {
+				statement.setString(1, id);
+				statement.setString(2, queueName);
+				statement.setString(3, microflow);
+				if (objectId == null) {
+					statement.setNull(4, Types.BIGINT);
+				} else {
+					statement.setLong(4, objectId);
+				}
+				statement.setLong(5, System.currentTimeMillis());
+				statement.executeUpdate();
+			}
+			return null;
+		});
+		return id;
+	}
+
+	/**
+	 * @return The stored tasks of the queue, oldest first
+	 */
+	static List<StoredTask> load(String queueName) {
+		return TABLE.execute(connection -> {
+			List<StoredTask> tasks = new ArrayList<>();
+			try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT id, microflow, objectid FROM " + TABLE_NAME + " WHERE queuename = ? ORDER BY enqueuedat")) {
+				statement.setString(1, queueName);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						long objectId = resultSet.getLong(3);
+						tasks.add(new StoredTask(resultSet.getString(1), resultSet.getString(2), resultSet.wasNull() ? null : objectId));
+					}
+				}
+			}
+			return tasks;
+		});
+	}
+
+	static void delete(String id) {
+		TABLE.execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE id = ?")) {
+				statement.setString(1, id);
+				statement.executeUpdate();
+			}
+			return null;
+		});
+	}
+
+	static final class StoredTask {
+
+		private final String id;
+		private final String microflow;
+		private final Long objectId;
+
+		private StoredTask(String id, String microflow, Long objectId) {
+			this.id = id;
+			this.microflow = microflow;
+			this.objectId = objectId;
+		}
+
+		String getId() {
+			return id;
+		}
+
+		String getMicroflow() {
+			return microflow;
+		}
+
+		Long getObjectId() {
+			return objectId;
+		}
+	}
+}
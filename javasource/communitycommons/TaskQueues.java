@@ -0,0 +1,68 @@
+package communitycommons;
+
+import communitycommons.proxies.LogNodes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The named task queues of the application. Unknown queues are created on first use with the
+ * settings of the default queue: one task at a time, at the lowest thread priority, without a limit
+ * and in memory only. The default queue runs the tasks of RunMicroflowAsyncInQueue and
+ * executeMicroflowInBackground.
+ */
+public class TaskQueues {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+	public static final String DEFAULT_QUEUE = "Default";
+
+	private static final Map<String, TaskQueue> queues = new ConcurrentHashMap<>();
+	private static final Set<String> recovered = ConcurrentHashMap.newKeySet();
+
+	private TaskQueues() {
+	}
+
+	public static TaskQueue getDefault() {
+		return get(DEFAULT_QUEUE);
+	}
+
+	public static TaskQueue get(String name) {
+		return queues.computeIfAbsent(name == null || name.isBlank() ? DEFAULT_QUEUE : name,
+			n -> new TaskQueue(n, 1, Thread.MIN_PRIORITY, 0, TaskQueue.RejectionPolicy.Reject, false));
+	}
+
+	/**
+	 * Creates the queue, or replaces it if it exists. The tasks of the replaced queue still run, but
+	 * new tasks go to the new queue. The stored tasks of a persistent queue are queued again the first
+	 * time the queue is configured, so configure persistent queues in the after startup microflow.
+	 */
+	public static TaskQueue configure(String name, int concurrency, int priority, int capacity,
+		TaskQueue.RejectionPolicy rejectionPolicy, boolean persistent) {
+		TaskQueue queue = new TaskQueue(name, concurrency, priority, capacity, rejectionPolicy, persistent);
+		TaskQueue previous = queues.put(name, queue);
+		if (previous != null) {
+			previous.shutdown();
+		}
+		if (persistent && recovered.add(name)) {
+			queue.recover();
+		}
+		Logging.debug(LOGNODE, "[TaskQueue] Configured task queue " + queue);
+		return queue;
+	}
+
+	/**
+	 * @return The statistics of all queues, one line per queue
+	 */
+	public static String getStatistics() {
+		List<TaskQueue> sorted = new ArrayList<>(queues.values());
+		sorted.sort(Comparator.comparing(TaskQueue::getName));
+		StringBuilder result = new StringBuilder();
+		for (TaskQueue queue : sorted) {
+			result.append(queue).append('\n');
+		}
+		return result.toString().trim();
+	}
+}
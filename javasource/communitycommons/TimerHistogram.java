@@ -0,0 +1,193 @@
+package communitycommons;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of the durations of one timer over a rolling window of the last few minutes. Durations
+ * are kept in microseconds in log-linear buckets: every power of two is split in 16 buckets, so
+ * percentiles are accurate within about 6%, whatever the range of the durations.
+ *
+ * Every minute of the window has a slot of its own. A slot is replaced by a new one when its
+ * minute comes round again, instead of being cleared, so a duration is never counted in the wrong
+ * minute.
+ */
+public class TimerHistogram {
+
+	public static final int WINDOW_MINUTES = 5;
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(WINDOW_MINUTES);
+	private final LongAdder totalCount = new LongAdder();
+	private final LongAdder totalSum = new LongAdder();
+
+	public TimerHistogram(String name) {
+		this.name = name;
+		for (int i = 0; i < slots.length(); i++) {
+			slots.set(i, new Slot(-1));
+		}
+	}
+
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		long minute = System.currentTimeMillis() / 60000;
+		int index = (int) (minute % slots.length());
+		Slot slot = slots.get(index);
+		while (slot.minute < minute) {
+			Slot next = new Slot(minute);
+			slot = slots.compareAndSet(index, slot, next) ? next : slots.get(index);
+		}
+		slot.record(micros);
+		totalCount.increment();
+		totalSum.add(micros);
+	}
+
+	/**
+	 * @return The statistics of the last WINDOW_MINUTES minutes
+	 */
+	public Snapshot snapshot() {
+		long minute = System.currentTimeMillis() / 60000;
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		long sum = 0;
+		long max = 0;
+		for (int s = 0; s < slots.length(); s++) {
+			Slot slot = slots.get(s);
+			if (slot.minute <= minute - slots.length()) {
+				continue;
+			}
+			for (int i = 0; i < BUCKETS; i++) {
+				long c = slot.counts.get(i);
+				counts[i] += c;
+				count += c;
+			}
+			sum += slot.sum.get();
+			max = Math.max(max, slot.max.get());
+		}
+		return new Snapshot(name, counts, count, sum, max, totalCount.sum(), totalSum.sum());
+	}
+
+	private static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return The highest value of the bucket
+	 */
+	private static long valueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long sub = SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	private static final class Slot {
+
+		private final long minute;
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		private Slot(long minute) {
+			this.minute = minute;
+		}
+
+		private void record(long micros) {
+			counts.incrementAndGet(bucketOf(micros));
+			sum.addAndGet(micros);
+			max.accumulateAndGet(micros, Math::max);
+		}
+	}
+
+	public static final class Snapshot {
+
+		private final String name;
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+		private final long totalCount;
+		private final long totalSum;
+
+		private Snapshot(String name, long[] counts, long count, long sum, long max, long totalCount, long totalSum) {
+			this.name = name;
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+			this.totalCount = totalCount;
+			this.totalSum = totalSum;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The number of durations in the window
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The number of durations since the start of the application
+		 */
+		public long getTotalCount() {
+			return totalCount;
+		}
+
+		/**
+		 * @return The sum of the durations since the start of the application
+		 */
+		public double getTotalSumMs() {
+			return totalSum / 1000.0;
+		}
+
+		public double getMeanMs() {
+			return count == 0 ? 0 : sum / 1000.0 / count;
+		}
+
+		public double getMaxMs() {
+			return max / 1000.0;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 */
+		public double getPercentileMs(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(valueOf(i), max) / 1000.0;
+				}
+			}
+			return getMaxMs();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d in the last %d min (%d in total); p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, mean %.1f ms, max %.1f ms",
+				name, count, WINDOW_MINUTES, totalCount, getPercentileMs(50), getPercentileMs(95), getPercentileMs(99), getMeanMs(),
+				getMaxMs());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package communitycommons;
+
+import com.mendix.core.Core;
+import com.mendix.externalinterface.connector.RequestHandler;
+import com.mendix.m2ee.api.IMxRuntimeRequest;
+import com.mendix.m2ee.api.IMxRuntimeResponse;
+import communitycommons.proxies.LogNodes;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Publishes the timer statistics in the Prometheus text format, in seconds: a summary with the 0.5,
+ * 0.95 and 0.99 quantiles of the last minutes and the count and sum since the start of the
+ * application, and a gauge with the maximum of the last minutes. When an access key is set,
+ * requests have to pass it in the X-Access-Key header.
+ */
+public class TimerMetricsHandler extends RequestHandler {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+	private static final String METRIC = "mx_timer_duration_seconds";
+	private static final String MAX_METRIC = "mx_timer_duration_max_seconds";
+	private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+	private final String accessKey;
+
+	private TimerMetricsHandler(String accessKey) {
+		this.accessKey = accessKey;
+	}
+
+	/**
+	 * Publishes the timer statistics, so they can be collected by a monitoring system. Call this
+	 * once, in the after startup microflow.
+	 *
+	 * @param path The path to publish on, 'metrics/timers/' if empty
+	 * @param accessKey If not empty, requests need to pass it in the X-Access-Key header
+	 */
+	public static void register(String path, String accessKey) {
+		String p = path == null || path.isBlank() ? "metrics/timers/" : path.endsWith("/") ? path : path + "/";
+		Core.addRequestHandler(p, new TimerMetricsHandler(accessKey == null || accessKey.isEmpty() ? null : accessKey));
+		Logging.info(LOGNODE, "Timer metrics are published at /" + p);
+	}
+
+	@Override
+	protected void processRequest(IMxRuntimeRequest request, IMxRuntimeResponse response, String path) throws Exception {
+		if (accessKey != null && !isAccessKey(request.getHeader("X-Access-Key"))) {
+			response.setStatus(401);
+			return;
+		}
+
+		response.setStatus(200);
+		response.setContentType("text/plain; version=0.0.4");
+		response.setCharacterEncoding("UTF-8");
+		Writer writer = response.getWriter();
+		List<TimerHistogram.Snapshot> snapshots = Timers.snapshots();
+		writer.write("# HELP " + METRIC + " Durations of the CommunityCommons timers, with quantiles of the last "
+			+ TimerHistogram.WINDOW_MINUTES + " minutes\n");
+		writer.write("# TYPE " + METRIC + " summary\n");
+		for (TimerHistogram.Snapshot snapshot : snapshots) {
+			String label = label(snapshot);
+			for (double quantile : QUANTILES) {
+				writer.write(METRIC + "{" + label + ",quantile=\"" + quantile + "\"} " + seconds(snapshot.getPercentileMs(quantile * 100)) + "\n");
+			}
+			writer.write(METRIC + "_sum{" + label + "} " + seconds(snapshot.getTotalSumMs()) + "\n");
+			writer.write(METRIC + "_count{" + label + "} " + snapshot.getTotalCount() + "\n");
+		}
+		writer.write("# HELP " + MAX_METRIC + " Longest duration of the CommunityCommons timers in the last "
+			+ TimerHistogram.WINDOW_MINUTES + " minutes\n");
+		writer.write("# TYPE " + MAX_METRIC + " gauge\n");
+		for (TimerHistogram.Snapshot snapshot : snapshots) {
+			writer.write(MAX_METRIC + "{" + label(snapshot) + "} " + seconds(snapshot.getMaxMs()) + "\n");
+		}
+		writer.flush();
+	}
+
+	private boolean isAccessKey(String key) {
+		return key != null && MessageDigest.isEqual(accessKey.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String label(TimerHistogram.Snapshot snapshot) {
+		return "timer=\"" + escape(snapshot.getName()) + "\"";
+	}
+
+	private static double seconds(double ms) {
+		return ms / 1000;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
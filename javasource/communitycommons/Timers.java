@@ -0,0 +1,97 @@
+package communitycommons;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers that record their durations in a histogram per timer name. Every start returns a token
+ * of its own, so concurrent microflows that use the same timer name do not interfere with each
+ * other.
+ */
+public class Timers {
+
+	/** Timers that are started but not stopped within this time are forgotten. */
+	private static final long ABANDONED_NANOS = TimeUnit.HOURS.toNanos(1);
+	private static final int PRUNE_THRESHOLD = 10000;
+	private static final char TOKEN_SEPARATOR = '#';
+
+	private static final Map<String, Long> running = new ConcurrentHashMap<>();
+	private static final Map<String, TimerHistogram> histograms = new ConcurrentHashMap<>();
+
+	private Timers() {
+	}
+
+	/**
+	 * Starts timing something. Every call gets a timer of its own, so the same timer name can be
+	 * used by many users or microflows at the same time, and the token can be passed on to stop
+	 * the timer in another microflow.
+	 *
+	 * @param timerName The name to collect the durations under
+	 * @return The token to stop the timer with
+	 */
+	public static String start(String timerName) {
+		if (timerName == null || timerName.isEmpty()) {
+			throw new IllegalArgumentException("Timer name should not be empty");
+		}
+		if (running.size() > PRUNE_THRESHOLD) {
+			// nanoTime values may overflow, so only their differences can be compared
+			long now = System.nanoTime();
+			running.values().removeIf(start -> now - start > ABANDONED_NANOS);
+		}
+		String token = timerName + TOKEN_SEPARATOR + UUID.randomUUID();
+		running.put(token, System.nanoTime());
+		return token;
+	}
+
+	/**
+	 * Stops the timer of the token and records its duration.
+	 *
+	 * @return The duration in milliseconds
+	 */
+	public static long stop(String token) {
+		long now = System.nanoTime();
+		Long start = token == null ? null : running.remove(token);
+		if (start == null) {
+			throw new IllegalArgumentException(String.format("Timer with token %s not found, or already stopped", token));
+		}
+		long nanos = now - start;
+		record(token.substring(0, token.lastIndexOf(TOKEN_SEPARATOR)), nanos);
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	public static void record(String timerName, long nanos) {
+		histograms.computeIfAbsent(timerName, TimerHistogram::new).record(nanos);
+	}
+
+	/**
+	 * @return The statistics of the timer over the last minutes, or of all timers if the name is
+	 * empty, one per line: the number of durations, the 50th, 95th and 99th percentile, the mean
+	 * and the maximum
+	 */
+	public static String getStatistics(String timerName) {
+		StringBuilder result = new StringBuilder();
+		for (TimerHistogram.Snapshot snapshot : snapshots()) {
+			if (timerName == null || timerName.isEmpty() || timerName.equals(snapshot.getName())) {
+				result.append(snapshot).append('\n');
+			}
+		}
+		return result.toString().trim();
+	}
+
+	/**
+	 * @return The statistics of all timers, by name
+	 */
+	public static List<TimerHistogram.Snapshot> snapshots() {
+		List<TimerHistogram.Snapshot> result = new ArrayList<>();
+		for (TimerHistogram histogram : histograms.values()) {
+			result.add(histogram.snapshot());
+		}
+		result.sort(Comparator.comparing(TimerHistogram.Snapshot::getName));
+		return result;
+	}
+}
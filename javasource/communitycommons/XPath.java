@@ -7,7 +7,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -15,11 +14,23 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.translate.AggregateTranslator;
@@ -33,8 +44,15 @@ import com.mendix.datastorage.XPathQuery;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
+import communitycommons.proxies.LogNodes;
 
 public class XPath<T> {
+
+	private static final String LOGNODE = LogNodes.CommunityCommons.name();
+	private static final int FIND_OR_CREATE_STRIPES = 64;
+	private static final Map<String, KeyLocks> findOrCreateLocks = new ConcurrentHashMap<>();
+	private static final LongAdder uniqueConflicts = new LongAdder();
+
 	/**
 	 * Built-in tokens, see:
 	 * https://docs.mendix.com/refguide/xpath-keywords-and-system-variables/
@@ -392,30 +410,97 @@ public class XPath<T> {
 
 	}
 
+	/**
+	 * Like findOrCreate, but callers that look for the same key values wait for
+	 * each other, so that only one of them creates the object. Callers with other
+	 * key values usually proceed in parallel: the lock is picked by the hash of
+	 * the key values from a fixed set of locks per entity. The object is created
+	 * in a transaction of its own, which is committed before the lock is released.
+	 * Calls can be nested, e.g. from the commit events of the object; see KeyLocks
+	 * for how a nested call for the same entity avoids a deadlock.
+	 */
 	public T findOrCreateSynchronized(Object... keysAndValues) throws CoreException, InterruptedException {
 		T res = findFirst(keysAndValues);
 
 		if (res != null) {
 			return res;
 		} else {
-			synchronized (Core.getMetaObject(entity)) {
-				IContext synchronizedContext = context.getSession().createContext().createSudoClone();
-				try {
-					synchronizedContext.startTransaction();
-					res = createProxy(synchronizedContext, proxyClass,
-						XPath.create(synchronizedContext, entity).findOrCreate(keysAndValues));
-					synchronizedContext.endTransaction();
-					return res;
-				} catch (CoreException e) {
-					if (synchronizedContext.isInTransaction()) {
-						synchronizedContext.rollbackTransaction();
-					}
-					throw e;
+			IContext synchronizedContext = context.getSession().createContext().createSudoClone();
+			ReentrantLock lock = findOrCreateLocks.computeIfAbsent(entity, e -> new KeyLocks(FIND_OR_CREATE_STRIPES))
+				.lock(lockKey(keysAndValues));
+			try {
+				synchronizedContext.startTransaction();
+				res = createProxy(synchronizedContext, proxyClass,
+					XPath.create(synchronizedContext, entity).findOrCreate(keysAndValues));
+				synchronizedContext.endTransaction();
+				return res;
+			} catch (CoreException e) {
+				if (synchronizedContext.isInTransaction()) {
+					synchronizedContext.rollbackTransaction();
 				}
+				throw e;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Like findOrCreate, but relies on a unique index or unique validation rule on
+	 * the key attributes instead of a lock: the object is created in a transaction
+	 * of its own, and when that fails because another caller created the object
+	 * first, the object of the other caller is returned. Works across the
+	 * instances of a cluster; only use it when such a uniqueness constraint exists.
+	 */
+	public T findOrCreateUnique(Object... keysAndValues) throws CoreException {
+		T res = findFirst(keysAndValues);
+		if (res != null)
+			return res;
+
+		IContext insertContext = context.getSession().createContext().createSudoClone();
+		try {
+			insertContext.startTransaction();
+			IMendixObject created = XPath.create(insertContext, entity).constructInstance(true, keysAndValues);
+			insertContext.endTransaction();
+			return createProxy(insertContext, proxyClass, created);
+		} catch (CoreException | RuntimeException e) {
+			if (insertContext.isInTransaction()) {
+				insertContext.rollbackTransaction();
 			}
+
+			XPath<T> retry = new XPath<T>(context, proxyClass);
+			retry.entity = entity;
+			res = retry.findFirst(keysAndValues);
+			if (res == null)
+				throw e;
+
+			uniqueConflicts.increment();
+			return res;
 		}
 	}
 
+	/**
+	 * Use this to find out whether concurrent imports are slowed down by
+	 * contention.
+	 *
+	 * @return How often and how long findOrCreateSynchronized had to wait, one line
+	 *         per entity, and the number of conflicting inserts of
+	 *         findOrCreateUnique
+	 */
+	public static String getFindOrCreateStatistics() {
+		StringBuilder result = new StringBuilder();
+		new TreeMap<>(findOrCreateLocks).forEach((entity, locks) -> result.append("findOrCreateSynchronized ")
+			.append(entity).append(": ").append(locks).append('\n'));
+		return result.append("findOrCreateUnique: ").append(uniqueConflicts.sum()).append(" conflicting inserts").toString();
+	}
+
+	private String lockKey(Object... keysAndValues) {
+		StringBuilder key = new StringBuilder();
+		for (Object part : keysAndValues)
+			key.append('|').append(valueToXPathValue(part));
+		return key.toString();
+	}
+
 	public T findFirst(Object... keysAndValues)
 		throws IllegalStateException, CoreException {
 		if (builder.length() > 0)
@@ -516,29 +601,38 @@ public class XPath<T> {
 		return ImmutablePair.of(added, removed);
 	}
 
+	/**
+	 * Returns the first object of this query, and waits for it to appear if there
+	 * is none yet. Waiters run their query again as soon as an object of the
+	 * entity is reported with CommitWaiters.signal from an after commit event
+	 * handler. They also poll the database, after 200 ms and then less often, to
+	 * find objects that are not reported, for example because the entity has no
+	 * such handler or the object was committed on another instance of a cluster.
+	 *
+	 * @param timeoutMSecs
+	 * @return the first object, or null if the timeout expired
+	 */
 	public T firstOrWait(long timeoutMSecs) throws CoreException, InterruptedException {
-		IMendixObject result = null;
-
-		long start = System.currentTimeMillis();
-		int sleepamount = 200;
-		int loopcount = 0;
-
-		while (result == null) {
-			loopcount += 1;
-			result = firstMendixObject();
+		assertEmptyStack();
 
-			long now = System.currentTimeMillis();
+		IMendixObject result = CommitWaiters.await(entity, getXPath(), timeoutMSecs, CommitWaiters::backoff,
+			this::firstMendixObject);
 
-			if (start + timeoutMSecs < now) // Time expired
-				break;
+		return createProxy(context, proxyClass, result);
+	}
 
-			if (loopcount % 5 == 0)
-				sleepamount = (int)(sleepamount * 1.5);
+	/**
+	 * @param timeoutMSecs
+	 * @param pollIntervalMSecs the maximum time between two queries, or 0 to only
+	 *                          query again when the entity is signalled
+	 * @return the first object, or null if the timeout expired
+	 */
+	public T firstOrWait(long timeoutMSecs, long pollIntervalMSecs) throws CoreException, InterruptedException {
+		assertEmptyStack();
 
-			// not expired, wait a bit
-			if (result == null)
-				Thread.sleep(sleepamount);
-		}
+		long pollInterval = pollIntervalMSecs > 0 ? pollIntervalMSecs : Long.MAX_VALUE;
+		IMendixObject result = CommitWaiters.await(entity, getXPath(), timeoutMSecs, polls -> pollInterval,
+			this::firstMendixObject);
 
 		return createProxy(context, proxyClass, result);
 	}
@@ -567,17 +661,28 @@ public class XPath<T> {
 
 	/* Static utility functions */
 
-	// Cache for proxy constructors. Reflection is slow, so reuse as much as
-	// possible
-	private static Map<String, Method> initializers = new HashMap<String, Method>();
-
 	public static <T> List<T> createProxyList(IContext c, Class<T> proxieClass, List<IMendixObject> objects) {
 		List<T> res = new ArrayList<T>();
 		if (objects == null || objects.size() == 0)
 			return res;
 
-		for (IMendixObject o : objects)
-			res.add(createProxy(c, proxieClass, o));
+		if (c == null || proxieClass == null)
+			throw new IllegalArgumentException("[CreateProxy] No context or proxieClass provided. ");
+
+		// the objects are usually of the same type, so look up the factory only when the type changes
+		String entityType = null;
+		BiFunction<IContext, IMendixObject, Object> factory = null;
+		for (IMendixObject o : objects) {
+			if (o == null || proxieClass == IMendixObject.class) {
+				res.add(createProxy(c, proxieClass, o));
+				continue;
+			}
+			if (!o.getType().equals(entityType)) {
+				entityType = o.getType();
+				factory = ProxyFactory.forEntity(entityType);
+			}
+			res.add(createProxy(c, proxieClass, o, factory));
+		}
 
 		return res;
 	}
@@ -595,34 +700,26 @@ public class XPath<T> {
 		if (proxieClass == IMendixObject.class)
 			return proxieClass.cast(object); // .. since we can do a direct cast
 
-		try {
-			String entityType = object.getType();
-
-			if (!initializers.containsKey(entityType)) {
-
-				String[] entType = object.getType().split("\\.");
-				Class<?> realClass = Class.forName(entType[0].toLowerCase() + ".proxies." + entType[1]);
-
-				initializers.put(entityType, realClass.getMethod("initialize", IContext.class, IMendixObject.class));
-			}
-
-			// find constructor
-			Method m = initializers.get(entityType);
+		return createProxy(c, proxieClass, object, ProxyFactory.forEntity(object.getType()));
+	}
 
+	private static <T> T createProxy(IContext c, Class<T> proxieClass, IMendixObject object,
+		BiFunction<IContext, IMendixObject, Object> factory) {
+		Object result;
+		try {
 			// create proxy object
-			Object result = m.invoke(null, c, object);
-
-			// cast, but check first is needed because the actual type might be a subclass
-			// of the requested type
-			if (!proxieClass.isAssignableFrom(result.getClass()))
-				throw new IllegalArgumentException("The type of the object ('" + object.getType()
-					+ "') is not (a subclass) of '" + proxieClass.getName() + "'");
-
-			T proxie = proxieClass.cast(result);
-			return proxie;
+			result = factory.apply(c, object);
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to instantiate proxie: " + e.getMessage(), e);
 		}
+
+		// cast, but check first is needed because the actual type might be a subclass
+		// of the requested type
+		if (!proxieClass.isInstance(result))
+			throw new IllegalArgumentException("The type of the object ('" + object.getType()
+				+ "') is not (a subclass) of '" + proxieClass.getName() + "'");
+
+		return proxieClass.cast(result);
 	}
 
 	public static String valueToXPathValue(Object value) {
@@ -861,6 +958,169 @@ public class XPath<T> {
 			throw new IllegalStateException("Not all tasks where finished!");
 	}
 
+	/**
+	 * Batch with parallelization and prefetching: while a page is processed by
+	 * at most 'threads' workers, the next page is retrieved already. Pages are
+	 * retrieved by id (keyset paging) instead of by offset, so retrieving stays
+	 * fast however far the batch has come; this means that the items are
+	 * processed in order of id and that offset, limit and sorting of this query
+	 * are ignored.
+	 *
+	 * The work runs in a worker pool that is shared by all pipelined batches, so
+	 * at most 2 workers per processor (at least 4) process items at the same time,
+	 * whatever 'threads' is; the chunks of all batches wait in the queue of that
+	 * pool. The next page is retrieved by a pool of its own, so it never waits
+	 * behind the work that waits for it. A batchPipelined call from within a batch
+	 * processor processes its items in the worker that calls it, one at a time,
+	 * instead of waiting for other workers. The retrieve and process time of every
+	 * page is logged at debug level.
+	 *
+	 * IMPORTANT NOTE: DO NOT USE THE CONTEXT OF THE XPATH OBJECT ITSELF INSIDE THE
+	 * BATCH PROCESSOR! It is used to retrieve the next page at the same time.
+	 *
+	 * @param batchsize
+	 * @param threads
+	 * @param batchProcessor
+	 * @throws CoreException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void batchPipelined(int batchsize, int threads, final IBatchProcessor<T> batchProcessor)
+		throws CoreException, InterruptedException, ExecutionException {
+		if (batchsize < 1 || threads < 1)
+			throw new IllegalArgumentException("Batch size and number of threads should be at least 1");
+
+		final long itemcount = count();
+		final long start = System.currentTimeMillis();
+		long progress = 0;
+		long retrieveTotal = 0;
+		long processTotal = 0;
+		int pagenr = 0;
+
+		Page page = retrievePage(Long.MIN_VALUE, batchsize);
+		while (!page.objects.isEmpty()) {
+			pagenr += 1;
+			final long lastId = page.objects.get(page.objects.size() - 1).getId().toLong();
+			CompletableFuture<Page> next = page.objects.size() < batchsize
+				? CompletableFuture.completedFuture(new Page(new ArrayList<IMendixObject>(), 0))
+				: CompletableFuture.supplyAsync(() -> {
+					try {
+						return retrievePage(lastId, batchsize);
+					} catch (CoreException e) {
+						throw new RuntimeException(String.format("Failed to retrieve batch on '%s' after id %d: %s", this, lastId,
+							e.getMessage()), e);
+					}
+				}, BatchWorkers.PREFETCH);
+
+			long processStart = System.currentTimeMillis();
+			// nested in a batch processor: the workers may all be waiting for this batch already
+			int chunksize = BatchWorkers.isWorker() ? page.objects.size() : (page.objects.size() + threads - 1) / threads;
+			List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+			for (int from = 0; from < page.objects.size(); from += chunksize) {
+				final List<IMendixObject> chunk = page.objects.subList(from, Math.min(from + chunksize, page.objects.size()));
+				final long chunkProgress = progress + from;
+				Runnable work = () -> {
+					long index = chunkProgress;
+					for (IMendixObject item : chunk)
+						new ParallelJobRunner<T>(this, batchProcessor, item, index++, itemcount).call();
+				};
+				if (BatchWorkers.isWorker()) {
+					FutureTask<Void> inline = new FutureTask<Void>(work, null);
+					inline.run();
+					futures.add(inline);
+				} else {
+					futures.add(BatchWorkers.POOL.submit(work));
+				}
+			}
+			try {
+				for (Future<?> future : futures)
+					future.get();
+			} catch (ExecutionException e) {
+				next.cancel(false);
+				throw e;
+			}
+			long processTime = System.currentTimeMillis() - processStart;
+
+			progress += page.objects.size();
+			retrieveTotal += page.retrieveTime;
+			processTotal += processTime;
+			Logging.debug(LOGNODE, String.format("[XPath batch] Page %d of '%s': %d items, retrieved in %d ms, processed in %d ms",
+				pagenr, this, page.objects.size(), page.retrieveTime, processTime));
+
+			page = next.get();
+		}
+
+		Logging.debug(LOGNODE, String.format("[XPath batch] Processed %d items of '%s' in %d pages and %d ms (retrieve %d ms, process %d ms)",
+			progress, this, pagenr, System.currentTimeMillis() - start, retrieveTotal, processTotal));
+	}
+
+	private Page retrievePage(long afterId, int batchsize) throws CoreException {
+		assertEmptyStack();
+
+		long start = System.currentTimeMillis();
+		String xpath = afterId == Long.MIN_VALUE ? getXPath() : getXPath() + "[" + ID + " > " + afterId + "]";
+		List<IMendixObject> objects = Core.createXPathQuery(xpath)
+			.setAmount(batchsize)
+			.setOffset(0)
+			.addSort(ID, true)
+			.execute(context);
+		return new Page(objects, System.currentTimeMillis() - start);
+	}
+
+	private static final class Page {
+		private final List<IMendixObject> objects;
+		private final long retrieveTime;
+
+		Page(List<IMendixObject> objects, long retrieveTime) {
+			this.objects = objects;
+			this.retrieveTime = retrieveTime;
+		}
+	}
+
+	/**
+	 * The worker pools of batchPipelined, one to process items and one to retrieve
+	 * the next pages. Their queues are bounded; when one is full, the thread that
+	 * submits the work runs it, which slows down the producer.
+	 */
+	private static final class BatchWorkers {
+		private static final int POOL_SIZE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+		private static final int QUEUE_SIZE = 1000;
+		private static final ThreadLocal<Boolean> worker = ThreadLocal.withInitial(() -> false);
+
+		static final ExecutorService POOL = createPool("CommunityCommons XPath batch worker ", true);
+		static final ExecutorService PREFETCH = createPool("CommunityCommons XPath batch prefetch ", false);
+
+		/**
+		 * @return Whether the current thread is a worker of POOL
+		 */
+		static boolean isWorker() {
+			return worker.get();
+		}
+
+		private static ExecutorService createPool(String name, boolean processes) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+
+					//Default thread factory takes care of setting the proper thread context
+					private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+					private final AtomicInteger threadnr = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread t = defaultFactory.newThread(() -> {
+							worker.set(processes);
+							runnable.run();
+						});
+						t.setName(name + threadnr.incrementAndGet());
+						return t;
+					}
+
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+			pool.allowCoreThreadTimeOut(true);
+			return pool;
+		}
+	}
+
 	public static Class<?> getProxyClassForEntityName(String entityname) {
 		{
 			String[] parts = entityname.split("\\.");
@@ -884,6 +1144,30 @@ public class XPath<T> {
 		return true;
 	}
 
+	/**
+	 * Deletes all objects of this query in the background, in batches that are
+	 * each deleted in a transaction of their own, optionally by several workers
+	 * at the same time. Unlike deleteAll, this does not delete in the
+	 * transaction of the context of this query, so a failing batch does not roll
+	 * back the batches that were deleted already. Offset, limit and sorting of
+	 * this query are ignored.
+	 *
+	 * @param batchsize
+	 * @param workers
+	 * @param withEvents false to skip the delete event handlers
+	 * @param pauseMs the time each worker waits between two batches
+	 * @return the batch, to follow its progress or wait for its completion
+	 * @throws CoreException
+	 */
+	public BatchEngine deleteAllInBatches(int batchsize, int workers, boolean withEvents, long pauseMs)
+		throws CoreException {
+		assertEmptyStack();
+
+		BatchEngine batch = BatchEngine.delete(getXPath(), batchsize, workers, withEvents).setPause(pauseMs);
+		batch.start();
+		return batch;
+	}
+
 	// Implement our own ESCAPE_XML because the original got deprecated and we
 	// originally translated only a very small
 	// subset of characters.
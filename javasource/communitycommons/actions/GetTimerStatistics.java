@@ -0,0 +1,53 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.Timers;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Returns the statistics of a timer over the last five minutes: the number of durations, the 50th, 95th and 99th percentile, the mean and the maximum. Durations of both TimerStop and TimeMeasureEnd are included.
+ * - TimerName. The name of the timer, or empty to get the statistics of all timers, one per line.
+ */
+public class GetTimerStatistics extends UserAction<java.lang.String>
+{
+	private final java.lang.String TimerName;
+
+	public GetTimerStatistics(
+		IContext context,
+		java.lang.String _TimerName
+	)
+	{
+		super(context);
+		this.TimerName = _TimerName;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return Timers.getStatistics(TimerName);
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "GetTimerStatistics";
+	}
+
+	// BEGIN EXTRA CODE
+	// END EXTRA CODE
+}
@@ -0,0 +1,60 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.TimerMetricsHandler;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Publishes the timer statistics on the given path in the Prometheus text format, so they can be collected by a monitoring system. Call this once, in the after startup microflow.
+ * - Path. The path to publish on, for example 'metrics/timers/'. Defaults to 'metrics/timers/'.
+ * - AccessKey. Optional. If set, requests need to pass it in the X-Access-Key header.
+ * 
+ * Returns true.
+ */
+public class RegisterTimerMetricsEndpoint extends UserAction<java.lang.Boolean>
+{
+	private final java.lang.String Path;
+	private final java.lang.String AccessKey;
+
+	public RegisterTimerMetricsEndpoint(
+		IContext context,
+		java.lang.String _Path,
+		java.lang.String _AccessKey
+	)
+	{
+		super(context);
+		this.Path = _Path;
+		this.AccessKey = _AccessKey;
+	}
+
+	@java.lang.Override
+	public java.lang.Boolean executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		TimerMetricsHandler.register(Path, AccessKey);
+		return true;
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "RegisterTimerMetricsEndpoint";
+	}
+
+	// BEGIN EXTRA CODE
+	// END EXTRA CODE
+}
@@ -36,7 +36,7 @@ public class TimeMeasureStart extends UserAction<java.lang.Boolean>
 	public java.lang.Boolean executeAction() throws Exception
 	{
 		// BEGIN USER CODE
-		Logging.measureStart(TimerName);
+		Logging.measureStart(getContext(), TimerName);
 		return true;
 		// END USER CODE
 	}
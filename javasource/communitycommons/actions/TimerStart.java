@@ -0,0 +1,55 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.Timers;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Starts timing something, and returns a token to stop the timer with TimerStop. Every call gets a timer of its own, so the same timer name can be used by many users or microflows at the same time, and the token can be passed on to stop the timer in another microflow. The durations are collected per timer name; see GetTimerStatistics.
+ * - TimerName. The name to collect the durations under.
+ * 
+ * Returns the token of the timer.
+ */
+public class TimerStart extends UserAction<java.lang.String>
+{
+	private final java.lang.String TimerName;
+
+	public TimerStart(
+		IContext context,
+		java.lang.String _TimerName
+	)
+	{
+		super(context);
+		this.TimerName = _TimerName;
+	}
+
+	@java.lang.Override
+	public java.lang.String executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return Timers.start(TimerName);
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "TimerStart";
+	}
+
+	// BEGIN EXTRA CODE
+	// END EXTRA CODE
+}
@@ -0,0 +1,55 @@
+// This file was generated by Mendix Studio Pro.
+//
+// WARNING: Only the following code will be retained when actions are regenerated:
+// - the import list
+// - the code between BEGIN USER CODE and END USER CODE
+// - the code between BEGIN EXTRA CODE and END EXTRA CODE
+// Other code you write will be lost the next time you deploy the project.
+// Special characters, e.g., é, ö, à, etc. are supported in comments.
+
+package communitycommons.actions;
+
+import communitycommons.Timers;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.UserAction;
+
+/**
+ * Stops a timer started with TimerStart and records its duration in the statistics of its timer name.
+ * - Token. The token returned by TimerStart.
+ * 
+ * Returns the duration in milliseconds.
+ */
+public class TimerStop extends UserAction<java.lang.Long>
+{
+	private final java.lang.String Token;
+
+	public TimerStop(
+		IContext context,
+		java.lang.String _Token
+	)
+	{
+		super(context);
+		this.Token = _Token;
+	}
+
+	@java.lang.Override
+	public java.lang.Long executeAction() throws Exception
+	{
+		// BEGIN USER CODE
+		return Timers.stop(Token);
+		// END USER CODE
+	}
+
+	/**
+	 * Returns a string representation of this action
+	 * @return a string representation of this action
+	 */
+	@java.lang.Override
+	public java.lang.String toString()
+	{
+		return "TimerStop";
+	}
+
+	// BEGIN EXTRA CODE
+	// END EXTRA CODE
+}
@@ -0,0 +1,243 @@
+package databaseconnector.impl;
+
+import com.mendix.core.Core;
+import com.mendix.core.actionmanagement.MicroflowCallBuilder;
+import com.mendix.logging.ILogNode;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.ISession;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * AsyncQueryExecutor runs queries and statements in the background, each on its
+ * own virtual thread, so that long-running queries do not block a request
+ * thread. At most {@link #getMaxConcurrentQueries} jobs use a database
+ * connection at the same time; further jobs wait for their turn. The limit is
+ * {@value #DEFAULT_MAX_CONCURRENT_QUERIES} by default, the default maximum size of
+ * a connection pool; set it to the maximum pool size configured with
+ * {@link JdbcConnectionManager#configurePool}.
+ *
+ * A task typically calls one of the {@link JdbcConnector} methods that take a
+ * StatementListener, passing the job, so that the job can set the timeout and
+ * cancel the running statement:
+ * {@code submit(context, (jobContext, job) -> connector.executeQuery(url, user, password, metaObject, sql, jobContext, job), callback, 0)}.
+ *
+ * When a job finishes, its callback microflow is called with the parameters it
+ * declares: a list parameter receives the objects of a query, an Integer/Long
+ * parameter the number of affected rows of a statement, and String parameters
+ * named JobId and ErrorMessage the id of the job and, when the job failed or was
+ * cancelled, the error.
+ */
+public final class AsyncQueryExecutor {
+	/** Matches the default maximum size of a connection pool. */
+	public static final int DEFAULT_MAX_CONCURRENT_QUERIES = 10;
+	/** Finished jobs are kept this long, so that their status can be requested. */
+	private static final long FINISHED_JOB_RETENTION_MILLIS = 60 * 60 * 1000L;
+	private static final String JOB_ID_PARAMETER = "JobId";
+	private static final String ERROR_MESSAGE_PARAMETER = "ErrorMessage";
+
+	private static AsyncQueryExecutor instance;
+
+	private final ILogNode logNode = Core.getLogger(AsyncQueryExecutor.class.getName());
+	private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+			Thread.ofVirtual().name("MxDbConnector-async-", 0).factory());
+	private final Permits permits = new Permits(DEFAULT_MAX_CONCURRENT_QUERIES);
+	private int maxConcurrentQueries = DEFAULT_MAX_CONCURRENT_QUERIES;
+	private final Map<String, AsyncQueryJob> jobs = new ConcurrentHashMap<>();
+
+	private AsyncQueryExecutor() {
+	}
+
+	public static synchronized AsyncQueryExecutor getInstance() {
+		if (instance == null)
+			instance = new AsyncQueryExecutor();
+
+		return instance;
+	}
+
+	@FunctionalInterface
+	public interface Task {
+		/**
+		 * @return the objects of a query or the number of affected rows of a statement
+		 */
+		Object execute(IContext context, AsyncQueryJob job) throws Exception;
+	}
+
+	public synchronized int getMaxConcurrentQueries() {
+		return maxConcurrentQueries;
+	}
+
+	/**
+	 * Changes the number of jobs that may use a database connection at the same
+	 * time. Running jobs are not interrupted when the limit is lowered; new jobs
+	 * wait until fewer jobs than the new limit are running.
+	 */
+	public synchronized void setMaxConcurrentQueries(final int maxConcurrentQueries) throws DatabaseConnectorException {
+		if (maxConcurrentQueries <= 0)
+			throw new DatabaseConnectorException("The maximum number of concurrent queries must be larger than 0.");
+
+		final int difference = maxConcurrentQueries - this.maxConcurrentQueries;
+		if (difference > 0) permits.release(difference);
+		else if (difference < 0) permits.reduce(-difference);
+		this.maxConcurrentQueries = maxConcurrentQueries;
+	}
+
+	/**
+	 * Starts the task in the background, with a context of the same session as the
+	 * given context. When the job finishes, the callback microflow, if any, is
+	 * called; see the class documentation for its parameters.
+	 *
+	 * @param timeoutSeconds the number of seconds after which the database cancels
+	 *                       the statement, or 0 for no timeout
+	 * @return the id of the job
+	 */
+	public String submit(final IContext context, final Task task, final String callbackMicroflow,
+			final int timeoutSeconds) throws DatabaseConnectorException {
+		final Map<String, IDataType> callbackParameters = getCallbackParameters(callbackMicroflow);
+		removeFinishedJobs();
+
+		final AsyncQueryJob job = new AsyncQueryJob(UUID.randomUUID().toString(), timeoutSeconds);
+		final IContext jobContext = createJobContext(context);
+		jobs.put(job.getId(), job);
+		executor.execute(() -> run(job, task, jobContext, callbackMicroflow, callbackParameters));
+
+		if (logNode.isTraceEnabled()) logNode.trace(String.format("Submitted asynchronous query job %s", job.getId()));
+		return job.getId();
+	}
+
+	/**
+	 * @return the status of the job, or null if the job is unknown; finished jobs
+	 *         are kept for an hour
+	 */
+	public AsyncQueryJob.Status getStatus(final String jobId) {
+		final AsyncQueryJob job = jobs.get(jobId);
+		return job == null ? null : job.getStatus();
+	}
+
+	/**
+	 * Cancels the job: a job that is still waiting for its turn does not start, and
+	 * the statement of a running job is cancelled by the database. The callback
+	 * microflow of the job is called with an error message.
+	 *
+	 * @return false if the job is unknown or had already finished
+	 */
+	public boolean cancel(final String jobId) throws SQLException {
+		final AsyncQueryJob job = jobs.get(jobId);
+		if (job == null || !job.cancel()) return false;
+
+		logNode.info(String.format("Cancelled asynchronous query job %s", jobId));
+		return true;
+	}
+
+	private void run(final AsyncQueryJob job, final Task task, final IContext context, final String callbackMicroflow,
+			final Map<String, IDataType> callbackParameters) {
+		job.setThread(Thread.currentThread());
+		Object result = null;
+		Exception error = null;
+		try {
+			permits.acquire();
+			try {
+				if (job.start()) result = task.execute(context, job);
+			} finally {
+				permits.release();
+			}
+		} catch (InterruptedException e) {
+			// interrupted while waiting, by a cancel
+		} catch (Exception e) {
+			error = e;
+		}
+
+		if (!job.finish(error == null)) {
+			result = null;
+			error = new DatabaseConnectorException("The query was cancelled.");
+		} else if (error != null) {
+			logNode.error(String.format("Asynchronous query job %s failed", job.getId()), error);
+		}
+		// a cancel may have interrupted the thread after it got its turn
+		Thread.interrupted();
+
+		if (callbackMicroflow != null && !callbackMicroflow.isBlank()) {
+			callback(job, context, callbackMicroflow, callbackParameters, result, error);
+		}
+	}
+
+	private void callback(final AsyncQueryJob job, final IContext context, final String callbackMicroflow,
+			final Map<String, IDataType> callbackParameters, final Object result, final Exception error) {
+		MicroflowCallBuilder call = Core.microflowCall(callbackMicroflow);
+		for (Map.Entry<String, IDataType> parameter : callbackParameters.entrySet()) {
+			final String name = parameter.getKey();
+			if (parameter.getValue().isList()) {
+				call = call.withParam(name, result instanceof Long ? null : result);
+			} else if (parameter.getValue().getType() == IDataType.DataTypeEnum.String) {
+				call = call.withParam(name, name.equalsIgnoreCase(JOB_ID_PARAMETER) ? job.getId()
+						: error == null ? null : String.valueOf(error.getMessage()));
+			} else {
+				call = call.withParam(name, result instanceof Long ? result : null);
+			}
+		}
+
+		try {
+			call.execute(context);
+		} catch (RuntimeException e) {
+			logNode.error(String.format("Callback microflow %s of asynchronous query job %s failed", callbackMicroflow, job.getId()), e);
+		}
+	}
+
+	private static Map<String, IDataType> getCallbackParameters(final String callbackMicroflow) throws DatabaseConnectorException {
+		if (callbackMicroflow == null || callbackMicroflow.isBlank()) return Map.of();
+
+		final Map<String, IDataType> inputParameters = Core.getInputParameters(callbackMicroflow);
+		if (inputParameters == null)
+			throw new DatabaseConnectorException(String.format("Microflow '%s' does not exist.", callbackMicroflow));
+
+		for (Map.Entry<String, IDataType> parameter : inputParameters.entrySet()) {
+			final IDataType type = parameter.getValue();
+			final boolean supported = type.isList()
+					|| type.getType() == IDataType.DataTypeEnum.Integer || type.getType() == IDataType.DataTypeEnum.Long
+					|| type.getType() == IDataType.DataTypeEnum.String && (parameter.getKey().equalsIgnoreCase(JOB_ID_PARAMETER)
+							|| parameter.getKey().equalsIgnoreCase(ERROR_MESSAGE_PARAMETER));
+			if (!supported)
+				throw new DatabaseConnectorException(String.format("Parameter '%s' of callback microflow '%s' is not supported; "
+						+ "use a list, an Integer/Long or a String named JobId or ErrorMessage.", parameter.getKey(), callbackMicroflow));
+		}
+		return inputParameters;
+	}
+
+	/**
+	 * The context of the request ends with the request, so the job gets a context of
+	 * its own, with the same session and rights.
+	 */
+	private static IContext createJobContext(final IContext context) {
+		final ISession session = context.getSession();
+		final IContext jobContext = session != null ? session.createContext() : Core.createSystemContext();
+		return context.isSudo() && !jobContext.isSudo() ? jobContext.createSudoClone() : jobContext;
+	}
+
+	private void removeFinishedJobs() {
+		final long threshold = System.currentTimeMillis() - FINISHED_JOB_RETENTION_MILLIS;
+		jobs.values().removeIf(job -> job.getFinishedMillis() > 0 && job.getFinishedMillis() < threshold);
+	}
+
+	/**
+	 * A fair semaphore whose number of permits can be lowered while permits are
+	 * held.
+	 */
+	private static final class Permits extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		private Permits(final int permits) {
+			super(permits, true);
+		}
+
+		private void reduce(final int reduction) {
+			reducePermits(reduction);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package databaseconnector.impl;
+
+import databaseconnector.interfaces.StatementListener;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * AsyncQueryJob is the handle of a query or statement that runs on the
+ * {@link AsyncQueryExecutor}. It sets the query timeout on the statement and
+ * keeps the statement while it runs, so that the job can be cancelled with
+ * {@link Statement#cancel()}.
+ */
+public class AsyncQueryJob implements StatementListener {
+	public enum Status {
+		Queued, Running, Completed, Failed, Cancelled
+	}
+
+	private final String id;
+	private final int timeoutSeconds;
+	private final AtomicReference<Status> status = new AtomicReference<>(Status.Queued);
+	private volatile Statement statement;
+	private volatile Thread thread;
+	private volatile long finishedMillis;
+
+	AsyncQueryJob(final String id, final int timeoutSeconds) {
+		this.id = id;
+		this.timeoutSeconds = timeoutSeconds;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Status getStatus() {
+		return status.get();
+	}
+
+	@Override
+	public void prepared(final Statement statement) throws SQLException {
+		if (timeoutSeconds > 0) statement.setQueryTimeout(timeoutSeconds);
+		this.statement = statement;
+		// a cancel that came in while the statement was prepared did not see the statement
+		if (status.get() == Status.Cancelled) throw new SQLException("The query was cancelled.");
+	}
+
+	/**
+	 * Cancels the job: a queued job does not start and a running statement is
+	 * cancelled by the database.
+	 *
+	 * @return false if the job had already finished
+	 */
+	boolean cancel() throws SQLException {
+		final Status previous = status.getAndUpdate(s -> s == Status.Queued || s == Status.Running ? Status.Cancelled : s);
+		if (previous != Status.Queued && previous != Status.Running) return false;
+
+		final Statement runningStatement = statement;
+		if (runningStatement != null) runningStatement.cancel();
+		final Thread queuedThread = thread;
+		// only interrupt a job that is still waiting for its turn; the driver handles the running statement
+		if (previous == Status.Queued && queuedThread != null) queuedThread.interrupt();
+		return true;
+	}
+
+	boolean start() {
+		return status.compareAndSet(Status.Queued, Status.Running);
+	}
+
+	/**
+	 * @return false if the job was cancelled in the meantime
+	 */
+	boolean finish(final boolean succeeded) {
+		statement = null;
+		thread = null;
+		finishedMillis = System.currentTimeMillis();
+		return status.compareAndSet(Status.Running, succeeded ? Status.Completed : Status.Failed);
+	}
+
+	void setThread(final Thread thread) {
+		this.thread = thread;
+	}
+
+	long getFinishedMillis() {
+		return finishedMillis;
+	}
+}
@@ -0,0 +1,104 @@
+package databaseconnector.impl;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BatchStatementTemplate turns a statement with {Attribute} placeholders into a
+ * JDBC statement with ? parameters, and binds the attribute values of an object
+ * to those parameters. The attributes are resolved against the entity once.
+ */
+public class BatchStatementTemplate {
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\{([A-Za-z_][A-Za-z0-9_]*)\\}");
+	private static final EnumMap<PrimitiveType, Integer> SQL_TYPES = new EnumMap<>(PrimitiveType.class);
+
+	static {
+		SQL_TYPES.put(PrimitiveType.AutoNumber, Types.BIGINT);
+		SQL_TYPES.put(PrimitiveType.Long, Types.BIGINT);
+		SQL_TYPES.put(PrimitiveType.Integer, Types.INTEGER);
+		SQL_TYPES.put(PrimitiveType.String, Types.VARCHAR);
+		SQL_TYPES.put(PrimitiveType.Enum, Types.VARCHAR);
+		SQL_TYPES.put(PrimitiveType.Boolean, Types.BOOLEAN);
+		SQL_TYPES.put(PrimitiveType.Decimal, Types.DECIMAL);
+		SQL_TYPES.put(PrimitiveType.DateTime, Types.TIMESTAMP);
+	}
+
+	private final String sql;
+	private final String[] attributeNames;
+	private final PrimitiveType[] attributeTypes;
+
+	public BatchStatementTemplate(final String sqlTemplate, final IMetaObject metaObject) throws DatabaseConnectorException {
+		final List<String> names = new ArrayList<>();
+		final List<PrimitiveType> types = new ArrayList<>();
+		final Matcher matcher = PLACEHOLDER.matcher(sqlTemplate);
+		final StringBuilder sqlBuilder = new StringBuilder();
+		while (matcher.find()) {
+			final IMetaPrimitive primitive = metaObject.getMetaPrimitive(matcher.group(1));
+			if (primitive == null) {
+				throw new DatabaseConnectorException(String.format("The entity type '%s' does not contain the attribute '%s' used in the statement.",
+						metaObject.getName(), matcher.group(1)));
+			}
+			if (!SQL_TYPES.containsKey(primitive.getType())) {
+				throw new DatabaseConnectorException(String.format("Attribute type %s of attribute '%s' on entity '%s' is not supported as statement parameter.",
+						primitive.getType(), primitive.getName(), metaObject.getName()));
+			}
+			names.add(primitive.getName());
+			types.add(primitive.getType());
+			matcher.appendReplacement(sqlBuilder, "?");
+		}
+		matcher.appendTail(sqlBuilder);
+
+		this.sql = sqlBuilder.toString();
+		this.attributeNames = names.toArray(new String[0]);
+		this.attributeTypes = types.toArray(new PrimitiveType[0]);
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	public void bind(final PreparedStatement preparedStatement, final IContext context, final IMendixObject object) throws SQLException {
+		for (int i = 0; i < attributeNames.length; i++) {
+			final Object value = object.getValue(context, attributeNames[i]);
+			if (value == null) {
+				preparedStatement.setNull(i + 1, SQL_TYPES.get(attributeTypes[i]).intValue());
+				continue;
+			}
+			switch (attributeTypes[i]) {
+			case AutoNumber:
+			case Long:
+				preparedStatement.setLong(i + 1, (Long) value);
+				break;
+			case Integer:
+				preparedStatement.setInt(i + 1, (Integer) value);
+				break;
+			case Boolean:
+				preparedStatement.setBoolean(i + 1, (Boolean) value);
+				break;
+			case Decimal:
+				preparedStatement.setBigDecimal(i + 1, (BigDecimal) value);
+				break;
+			case DateTime:
+				preparedStatement.setTimestamp(i + 1, new Timestamp(((java.util.Date) value).getTime()));
+				break;
+			default:
+				preparedStatement.setString(i + 1, value.toString());
+				break;
+			}
+		}
+	}
+}
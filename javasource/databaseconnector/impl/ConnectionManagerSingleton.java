@@ -3,9 +3,16 @@ package databaseconnector.impl;
 import databaseconnector.interfaces.ConnectionManager;
 
 public final class ConnectionManagerSingleton {
-	private static ConnectionManager connectionManager;
+	private static JdbcConnectionManager connectionManager;
 
-	public static synchronized ConnectionManager getInstance() {
+	public static ConnectionManager getInstance() {
+		return getJdbcConnectionManager();
+	}
+
+	/**
+	 * Returns the connection manager with its pool management operations.
+	 */
+	public static synchronized JdbcConnectionManager getJdbcConnectionManager() {
 		if (connectionManager == null)
 			connectionManager = new JdbcConnectionManager();
 
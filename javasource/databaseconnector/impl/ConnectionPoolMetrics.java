@@ -0,0 +1,96 @@
+package databaseconnector.impl;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the metrics that HikariCP reports for a pool: the current number of
+ * active, idle and total connections and of threads waiting for a connection,
+ * and how long it takes to get a connection.
+ */
+public class ConnectionPoolMetrics implements IMetricsTracker {
+	private final String poolName;
+	private final PoolStats poolStats;
+	private final LongAdder acquiredCount = new LongAdder();
+	private final LongAdder acquiredNanos = new LongAdder();
+	private final AtomicLong maxAcquiredNanos = new AtomicLong();
+	private final LongAdder usageCount = new LongAdder();
+	private final LongAdder usageMillis = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	ConnectionPoolMetrics(final String poolName, final PoolStats poolStats) {
+		this.poolName = poolName;
+		this.poolStats = poolStats;
+	}
+
+	@Override
+	public void recordConnectionAcquiredNanos(final long elapsedAcquiredNanos) {
+		acquiredCount.increment();
+		acquiredNanos.add(elapsedAcquiredNanos);
+		maxAcquiredNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+	}
+
+	@Override
+	public void recordConnectionUsageMillis(final long elapsedBorrowedMillis) {
+		usageCount.increment();
+		usageMillis.add(elapsedBorrowedMillis);
+	}
+
+	@Override
+	public void recordConnectionTimeout() {
+		timeouts.increment();
+	}
+
+	public String getPoolName() {
+		return poolName;
+	}
+
+	public int getActiveConnections() {
+		return poolStats.getActiveConnections();
+	}
+
+	public int getIdleConnections() {
+		return poolStats.getIdleConnections();
+	}
+
+	public int getTotalConnections() {
+		return poolStats.getTotalConnections();
+	}
+
+	public int getPendingThreads() {
+		return poolStats.getPendingThreads();
+	}
+
+	public long getAcquiredCount() {
+		return acquiredCount.sum();
+	}
+
+	public double getAverageWaitMillis() {
+		final long count = acquiredCount.sum();
+		return count == 0 ? 0 : acquiredNanos.sum() / 1e6 / count;
+	}
+
+	public double getMaxWaitMillis() {
+		return maxAcquiredNanos.get() / 1e6;
+	}
+
+	public double getAverageUsageMillis() {
+		final long count = usageCount.sum();
+		return count == 0 ? 0 : (double) usageMillis.sum() / count;
+	}
+
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d active, %d idle, %d total (max %d), %d waiting; %d connections acquired "
+				+ "(wait avg %.2f ms, max %.2f ms, usage avg %.1f ms), %d timeouts", poolName, getActiveConnections(),
+				getIdleConnections(), getTotalConnections(), poolStats.getMaxConnections(), getPendingThreads(),
+				getAcquiredCount(), getAverageWaitMillis(), getMaxWaitMillis(), getAverageUsageMillis(), getTimeouts());
+	}
+}
@@ -0,0 +1,117 @@
+package databaseconnector.impl;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings for the connection pool of one database and user. Settings that are
+ * not set keep the default: at most 10 connections, no idle connections kept
+ * open, a connection timeout of 30 seconds, an idle timeout of 10 minutes, a
+ * maximum lifetime of 30 minutes and no leak detection. Timeouts are in
+ * milliseconds.
+ */
+public class ConnectionPoolSettings {
+	private Integer maximumPoolSize;
+	private Integer minimumIdle;
+	private Long connectionTimeout;
+	private Long idleTimeout;
+	private Long maxLifetime;
+	private Long leakDetectionThreshold;
+	private boolean statementCache;
+	private final Map<String, String> dataSourceProperties = new LinkedHashMap<>();
+
+	public ConnectionPoolSettings setMaximumPoolSize(final Integer maximumPoolSize) {
+		this.maximumPoolSize = maximumPoolSize;
+		return this;
+	}
+
+	public ConnectionPoolSettings setMinimumIdle(final Integer minimumIdle) {
+		this.minimumIdle = minimumIdle;
+		return this;
+	}
+
+	public ConnectionPoolSettings setConnectionTimeout(final Long connectionTimeout) {
+		this.connectionTimeout = connectionTimeout;
+		return this;
+	}
+
+	public ConnectionPoolSettings setIdleTimeout(final Long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	public ConnectionPoolSettings setMaxLifetime(final Long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+		return this;
+	}
+
+	/**
+	 * A connection that is not returned to the pool within this time is logged as
+	 * possible leak; 0 disables leak detection.
+	 */
+	public ConnectionPoolSettings setLeakDetectionThreshold(final Long leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+		return this;
+	}
+
+	/**
+	 * Turns on the statement cache of the JDBC driver with the properties of
+	 * {@link StatementCacheDefaults}. Off by default, because these properties
+	 * change how the driver prepares statements: on PostgreSQL, server-side
+	 * prepared statements fail behind PgBouncer in transaction mode, and on MySQL
+	 * server-side prepared statements behave differently from client-side ones.
+	 * Data source properties that are set explicitly take precedence.
+	 */
+	public ConnectionPoolSettings setStatementCache(final boolean statementCache) {
+		this.statementCache = statementCache;
+		return this;
+	}
+
+	public boolean isStatementCache() {
+		return statementCache;
+	}
+
+	/**
+	 * Properties passed to the JDBC driver, e.g. its statement cache settings.
+	 */
+	public ConnectionPoolSettings setDataSourceProperty(final String name, final String value) {
+		this.dataSourceProperties.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Parses properties of the form name=value, separated by semicolons.
+	 */
+	public ConnectionPoolSettings setDataSourceProperties(final String properties) throws DatabaseConnectorException {
+		if (properties == null || properties.isBlank()) return this;
+
+		for (String property : properties.split(";")) {
+			if (property.isBlank()) continue;
+			final int separator = property.indexOf('=');
+			if (separator <= 0)
+				throw new DatabaseConnectorException(String.format("Data source property '%s' is not of the form name=value.", property.trim()));
+			setDataSourceProperty(property.substring(0, separator).trim(), property.substring(separator + 1).trim());
+		}
+		return this;
+	}
+
+	public Map<String, String> getDataSourceProperties() {
+		return Collections.unmodifiableMap(dataSourceProperties);
+	}
+
+	/**
+	 * Applies the settings that HikariCP allows to change while the pool is running.
+	 */
+	void applyTo(final HikariConfigMXBean config) {
+		// the maximum first, because the minimum may not exceed it
+		if (maximumPoolSize != null) config.setMaximumPoolSize(maximumPoolSize);
+		if (minimumIdle != null) config.setMinimumIdle(minimumIdle);
+		if (connectionTimeout != null) config.setConnectionTimeout(connectionTimeout);
+		if (idleTimeout != null) config.setIdleTimeout(idleTimeout);
+		if (maxLifetime != null) config.setMaxLifetime(maxLifetime);
+		if (leakDetectionThreshold != null) config.setLeakDetectionThreshold(leakDetectionThreshold);
+	}
+}
@@ -10,25 +10,35 @@ import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.ServiceLoader;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
- * Simple connection manager backed by HikariCP. It does not support shutdown at
- * this moment that may lead to memory leak in case of hot deployment.
- * <p>
- * TODO: REMOVE TECHNICAL DEBT - extract connection manager into shared
- * component, so that : 1. the same connection manager may be used by actions,
- * data storage layer (ConnectionBus), etc 2. all connections may be properly
- * closed during application shutdown
+ * Connection manager backed by HikariCP, with one pool per JDBC URL and user
+ * name. Pools can be sized and tuned with {@link #configurePool}, report their
+ * metrics with {@link #getPoolMetrics} and are closed with {@link #closePools}.
+ * Call the latter when the application stops (e.g. in the before shutdown
+ * microflow), so that pools and their threads do not leak on hot deployment.
+ *
+ * A pool that is closed while another thread is about to get a connection from
+ * it is replaced by a new pool for that request.
  */
 public class JdbcConnectionManager implements ConnectionManager {
-	private final Map<Integer, HikariDataSource> connectionPool = new ConcurrentHashMap<>();
+	/** Attempts to get a connection when the pool is closed concurrently. */
+	private static final int MAX_ATTEMPTS = 3;
+
+	private final Map<PoolKey, HikariDataSource> connectionPool = new ConcurrentHashMap<>();
+	private final Map<PoolKey, ConnectionPoolSettings> poolSettings = new ConcurrentHashMap<>();
+	private final Map<PoolKey, ConnectionPoolMetrics> poolMetrics = new ConcurrentHashMap<>();
+	private final AtomicInteger poolCounter = new AtomicInteger();
 	private final ILogNode logNode;
 	private boolean hasDriversInitialized;
 
@@ -45,19 +55,88 @@ public class JdbcConnectionManager implements ConnectionManager {
 			throws SQLException {
 		initializeDrivers();
 
-		final Integer connPoolKey = toConnPoolKey(jdbcUrl, userName);
-		final HikariDataSource dataSource = connectionPool.computeIfAbsent(connPoolKey, k -> {
+		final PoolKey connPoolKey = new PoolKey(jdbcUrl, userName);
+		for (int attempt = 1; ; attempt++) {
+			final HikariDataSource dataSource = connectionPool.computeIfAbsent(connPoolKey, k -> {
+				if (logNode.isTraceEnabled()) {
+					logNode.trace(String.format("Creating data source in connection pool for [url=%s, user=%s]", jdbcUrl, userName));
+				}
+				return createHikariDataSource(jdbcUrl, userName, password, connPoolKey);
+			});
+
 			if (logNode.isTraceEnabled()) {
-				logNode.trace(String.format("Creating data source in connection pool for [url=%s, user=%s]", jdbcUrl, userName));
+				logNode.trace(String.format("Getting connection from data source in connection pool for [url=%s, user=%s]",
+					jdbcUrl, userName));
 			}
-			return createHikariDataSource(jdbcUrl, userName, password, connPoolKey);
-		});
+			try {
+				return dataSource.getConnection();
+			} catch (SQLException e) {
+				// closed by configurePool or closePools after it was looked up; the next lookup creates a new pool
+				if (!dataSource.isClosed() || attempt == MAX_ATTEMPTS) throw e;
+				connectionPool.remove(connPoolKey, dataSource);
+			}
+		}
+	}
+
+	/**
+	 * Sets the settings for the pool of the database and user, typically in the
+	 * after startup microflow before the first query. Settings that HikariCP can
+	 * change at runtime are applied to an existing pool right away; when the data
+	 * source properties change, the existing pool is closed and a new one is
+	 * created on the next request.
+	 */
+	public void configurePool(final String jdbcUrl, final String userName, final ConnectionPoolSettings settings) {
+		final PoolKey connPoolKey = new PoolKey(jdbcUrl, userName);
+		final ConnectionPoolSettings previousSettings = poolSettings.put(connPoolKey, settings);
+		final HikariDataSource dataSource = connectionPool.get(connPoolKey);
+		if (dataSource == null) return;
+
+		final boolean propertiesChanged = !settings.getDataSourceProperties().equals(previousSettings == null
+				? Map.of() : previousSettings.getDataSourceProperties())
+				|| settings.isStatementCache() != (previousSettings != null && previousSettings.isStatementCache());
+		if (propertiesChanged) {
+			logNode.info(String.format("Data source properties changed; closing connection pool %s", dataSource.getPoolName()));
+			closePool(connPoolKey);
+		} else {
+			settings.applyTo(dataSource.getHikariConfigMXBean());
+		}
+	}
+
+	/**
+	 * Returns the metrics of all open pools.
+	 */
+	public List<ConnectionPoolMetrics> getPoolMetrics() {
+		return new ArrayList<>(poolMetrics.values());
+	}
+
+	/**
+	 * Returns the metrics of all open pools and the estimated statement reuse, one
+	 * line each.
+	 */
+	public String getStatistics() {
+		return Stream.concat(getPoolMetrics().stream().map(ConnectionPoolMetrics::toString),
+				Stream.of(StatementCacheTracker.getInstance().toString())).collect(Collectors.joining("\n"));
+	}
+
+	/**
+	 * Closes all pools. Connections that are in use are closed when they are
+	 * returned; new requests create new pools.
+	 */
+	public void closePools() {
+		for (PoolKey connPoolKey : new ArrayList<>(connectionPool.keySet())) {
+			closePool(connPoolKey);
+		}
+	}
 
-		if (logNode.isTraceEnabled()) {
-			logNode.trace(String.format("Getting connection from data source in connection pool for [url=%s, user=%s]",
-				jdbcUrl, userName));
+	private void closePool(final PoolKey connPoolKey) {
+		final HikariDataSource dataSource = connectionPool.remove(connPoolKey);
+		if (dataSource != null) {
+			// a new pool for the same key may have registered its metrics already
+			poolMetrics.computeIfPresent(connPoolKey,
+					(key, metrics) -> metrics.getPoolName().equals(dataSource.getPoolName()) ? null : metrics);
+			logNode.info(String.format("Closing connection pool %s", dataSource.getPoolName()));
+			dataSource.close();
 		}
-		return dataSource.getConnection();
 	}
 
 	/**
@@ -89,19 +168,50 @@ public class JdbcConnectionManager implements ConnectionManager {
 		}
 	}
 
-	private Integer toConnPoolKey(final String jdbcUrl, final String userName) {
-		return (jdbcUrl + userName).hashCode();
-	}
-
 	private HikariDataSource createHikariDataSource(final String jdbcUrl, final String userName, final String password,
-			Integer connPoolKey) {
+			PoolKey connPoolKey) {
 		final HikariDataSource dataSource = new HikariDataSource();
-		dataSource.setPoolName(String.format("MxDbConnector-HikaryCP-%d", connPoolKey));
+		dataSource.setPoolName(String.format("MxDbConnector-HikaryCP-%d", poolCounter.incrementAndGet()));
 		dataSource.setJdbcUrl(jdbcUrl);
 		dataSource.setUsername(userName);
 		dataSource.setPassword(password);
 		dataSource.setMinimumIdle(0);
+		dataSource.setMetricsTrackerFactory((poolName, poolStats) -> {
+			ConnectionPoolMetrics metrics = new ConnectionPoolMetrics(poolName, poolStats);
+			poolMetrics.put(connPoolKey, metrics);
+			return metrics;
+		});
 
+		final ConnectionPoolSettings settings = poolSettings.get(connPoolKey);
+		if (settings != null) {
+			if (settings.isStatementCache()) {
+				StatementCacheDefaults.forUrl(jdbcUrl).forEach(dataSource::addDataSourceProperty);
+			}
+			settings.applyTo(dataSource);
+			settings.getDataSourceProperties().forEach(dataSource::addDataSourceProperty);
+		}
 		return dataSource;
 	}
-}
\ No newline at end of file
+
+	private static final class PoolKey {
+		private final String jdbcUrl;
+		private final String userName;
+
+		private PoolKey(final String jdbcUrl, final String userName) {
+			this.jdbcUrl = jdbcUrl;
+			this.userName = userName;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof PoolKey)) return false;
+			final PoolKey key = (PoolKey) other;
+			return Objects.equals(jdbcUrl, key.jdbcUrl) && Objects.equals(userName, key.userName);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(jdbcUrl, userName);
+		}
+	}
+}
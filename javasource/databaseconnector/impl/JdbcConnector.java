@@ -4,28 +4,24 @@ import com.mendix.logging.ILogNode;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
-import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
-import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
 import com.mendix.systemwideinterfaces.javaactions.parameters.IStringTemplate;
 
 import databaseconnector.impl.callablestatement.StatementWrapper;
 import databaseconnector.interfaces.CallableStatementCreator;
 import databaseconnector.interfaces.ConnectionManager;
+import databaseconnector.interfaces.ObjectBatchHandler;
 import databaseconnector.interfaces.ObjectInstantiator;
 import databaseconnector.interfaces.PreparedStatementCreator;
+import databaseconnector.interfaces.StatementListener;
 import databaseconnector.proxies.Statement;
 
-import java.io.ByteArrayInputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
-import java.util.function.Function;
-import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
@@ -56,99 +52,262 @@ public class JdbcConnector {
 
 	public List<IMendixObject> executeQuery(final String jdbcUrl, final String userName, final String password,
 			final IMetaObject metaObject, final String sql, final IContext context) throws SQLException, DatabaseConnectorException {
+		return executeQuery(jdbcUrl, userName, password, metaObject, sql, context, StatementListener.NONE);
+	}
+
+	public List<IMendixObject> executeQuery(final String jdbcUrl, final String userName, final String password,
+			final IMetaObject metaObject, final String sql, final IContext context, final StatementListener listener)
+			throws SQLException, DatabaseConnectorException {
 		if (logNode.isTraceEnabled()) logNode.trace(String.format("executeQuery: %s, %s, %s", jdbcUrl, userName, sql));
 
 		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password);
-				PreparedStatement preparedStatement = preparedStatementCreator.create(sql, connection);
-				ResultSet resultSet = preparedStatement.executeQuery()) {
-			ResultSetReader resultSetReader = new ResultSetReader(resultSet, metaObject);
-			return createMendixObjects(context, metaObject, resultSetReader.readAll());
+				PreparedStatement preparedStatement = preparedStatementCreator.create(sql, connection)) {
+			listener.prepared(preparedStatement);
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				return readAll(context, metaObject, resultSet);
+			}
 		}
 	}
 
 	public List<IMendixObject> executeQuery(final String jdbcUrl, final String userName, final String password,
 			final IMetaObject metaObject, final IStringTemplate sql, final IContext context) throws SQLException, DatabaseConnectorException {
+		return executeQuery(jdbcUrl, userName, password, metaObject, sql, context, StatementListener.NONE);
+	}
+
+	public List<IMendixObject> executeQuery(final String jdbcUrl, final String userName, final String password,
+			final IMetaObject metaObject, final IStringTemplate sql, final IContext context, final StatementListener listener)
+			throws SQLException, DatabaseConnectorException {
 		if (logNode.isTraceEnabled()) logNode.trace(String.format("executeQuery: %s, %s, %s", jdbcUrl, userName, sql));
 
 		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password);
-				PreparedStatement preparedStatement = preparedStatementCreator.create(sql, connection);
-				ResultSet resultSet = preparedStatement.executeQuery()) {
-			ResultSetReader resultSetReader = new ResultSetReader(resultSet, metaObject);
-			return createMendixObjects(context, metaObject, resultSetReader.readAll());
+				PreparedStatement preparedStatement = preparedStatementCreator.create(sql, connection)) {
+			listener.prepared(preparedStatement);
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				return readAll(context, metaObject, resultSet);
+			}
 		}
 	}
 
-	private Function<Object, Object> toSuitableValue(final PrimitiveType type) {
-		return v -> type == PrimitiveType.Binary ? new ByteArrayInputStream((byte[]) v) : v;
+	/**
+	 * Streams the result of the query: rows are fetched from the database fetchSize at a
+	 * time and passed to the handler batchSize objects at a time, so that the memory used
+	 * does not depend on the size of the result. Use {@link ObjectBatchHandlers} to commit
+	 * every batch or to pass it to a microflow, which can stop reading by returning false.
+	 *
+	 * Some drivers need additional settings to fetch rows in parts, e.g. useCursorFetch=true
+	 * in the JDBC URL for MySQL.
+	 *
+	 * @param fetchSize the number of rows fetched at a time, or 0 for the driver default
+	 * @return the number of rows read
+	 */
+	public long executeQueryInBatches(final String jdbcUrl, final String userName, final String password,
+			final IMetaObject metaObject, final String sql, final IContext context, final int fetchSize,
+			final int batchSize, final ObjectBatchHandler handler) throws SQLException, DatabaseConnectorException {
+		if (logNode.isTraceEnabled()) logNode.trace(String.format("executeQueryInBatches: %s, %s, %s", jdbcUrl, userName, sql));
+
+		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password)) {
+			return readInBatches(connection, () -> preparedStatementCreator.create(sql, connection), metaObject, context,
+					fetchSize, batchSize, (batch, rowMapper) -> handler.handle(batch));
+		}
 	}
 
-	private List<IMendixObject> createMendixObjects(final IContext context,
-			final IMetaObject metaObject, List<Map<String, Optional<Object>>> resultSet) throws DatabaseConnectorException {
-		List<IMendixObject> convertedResult = new ArrayList<IMendixObject>();
-		for (Map<String, Optional<Object>> result : resultSet) {
-			convertedResult.add(createMendixObject(context, metaObject, result));
+	public long executeQueryInBatches(final String jdbcUrl, final String userName, final String password,
+			final IMetaObject metaObject, final IStringTemplate sql, final IContext context, final int fetchSize,
+			final int batchSize, final ObjectBatchHandler handler) throws SQLException, DatabaseConnectorException {
+		if (logNode.isTraceEnabled()) logNode.trace(String.format("executeQueryInBatches: %s, %s, %s", jdbcUrl, userName, sql));
+
+		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password)) {
+			return readInBatches(connection, () -> preparedStatementCreator.create(sql, connection), metaObject, context,
+					fetchSize, batchSize, (batch, rowMapper) -> handler.handle(batch));
 		}
-		return convertedResult;
 	}
 
-	private IMendixObject createMendixObject(final IContext context,
-			final IMetaObject metaObject, Map<String, Optional<Object>> columns) throws DatabaseConnectorException {
-		IMendixObject obj = objectInstantiator.instantiate(context, metaObject.getName());
+	/**
+	 * Imports the result of the query into persistent objects, batchSize objects per
+	 * commit. When the importer has a key attribute, rows update the object with the
+	 * same key, if any. The column names of the query must match the attribute names
+	 * of the entity.
+	 *
+	 * @param fetchSize the number of rows fetched at a time, or 0 for the driver default
+	 * @return the importer, which holds the number of inserted and updated objects and
+	 *         reports the rows per second in its toString
+	 */
+	public QueryImporter importQuery(final String jdbcUrl, final String userName, final String password,
+			final IMetaObject metaObject, final String sql, final IContext context, final int fetchSize,
+			final int batchSize, final QueryImporter importer) throws SQLException, DatabaseConnectorException {
+		if (logNode.isTraceEnabled()) logNode.trace(String.format("importQuery: %s, %s, %s", jdbcUrl, userName, sql));
 
-		for (Map.Entry<String, Optional<Object>> column : columns.entrySet()) {
-			setMemberValue(context, metaObject, obj, column.getKey(), column.getValue());
+		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password)) {
+			readInBatches(connection, () -> preparedStatementCreator.create(sql, connection), metaObject, context,
+					fetchSize, batchSize, importer::importBatch);
+		} finally {
+			importer.stop();
 		}
-		if (logNode.isTraceEnabled()) logNode.trace("Instantiated object: " + obj);
-		return obj;
-	}
-	
-	private void setMemberValue(IContext context, IMetaObject metaObject, IMendixObject obj, String name, Optional<Object> value) throws DatabaseConnectorException {
-		IMetaPrimitive metaPrimitive = metaObject.getMetaPrimitive(name);
-		if (metaPrimitive == null) {
-			String errorMessage = String.format(
-					"Database attribute '%1$s' is not in the entity '%2$s'."
-							+ " Please check the entity '%2$s' attribute names with the database column names.",
-					name, metaObject.getName());
-			logNode.error(errorMessage);
-			throw new DatabaseConnectorException(errorMessage);
+		return importer;
+	}
+
+	public QueryImporter importQuery(final String jdbcUrl, final String userName, final String password,
+			final IMetaObject metaObject, final IStringTemplate sql, final IContext context, final int fetchSize,
+			final int batchSize, final QueryImporter importer) throws SQLException, DatabaseConnectorException {
+		if (logNode.isTraceEnabled()) logNode.trace(String.format("importQuery: %s, %s, %s", jdbcUrl, userName, sql));
+
+		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password)) {
+			readInBatches(connection, () -> preparedStatementCreator.create(sql, connection), metaObject, context,
+					fetchSize, batchSize, importer::importBatch);
+		} finally {
+			importer.stop();
 		}
-		PrimitiveType type = metaPrimitive.getType();
-		// convert to suitable value (different for Binary type)
-		Function<Object, Object> toSuitableValue = toSuitableValue(type);
-		// for Boolean type, convert null to false
-		Supplier<Object> defaultValue = () -> type == PrimitiveType.Boolean ? Boolean.FALSE : null;
-		// apply two functions declared above
-		Object convertedValue = value.map(toSuitableValue).orElseGet(defaultValue);
-		// update object with converted value
-		if (type == PrimitiveType.HashString)
-			throw new DatabaseConnectorException(String.format(
-					"Attribute type Hashed String for attribute '%1$s' on entity '%2$s' is not supported, "
-							+ "please use attribute type 'String' instead",
-					name, metaObject.getName()));
-		else
-			obj.setValue(context, name, convertedValue);
+		return importer;
+	}
+
+	private long readInBatches(final Connection connection, final StatementSupplier statementSupplier,
+			final IMetaObject metaObject, final IContext context, final int fetchSize, final int batchSize,
+			final MappedBatchHandler handler) throws SQLException, DatabaseConnectorException {
+		if (batchSize <= 0) throw new DatabaseConnectorException("Batch size must be larger than 0.");
+
+		// some drivers (e.g. PostgreSQL) only use a cursor for the fetch size within a transaction
+		final boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		long rowCount = 0;
+		try (PreparedStatement preparedStatement = statementSupplier.get()) {
+			if (fetchSize > 0) preparedStatement.setFetchSize(fetchSize);
+			try (ResultSet resultSet = preparedStatement.executeQuery()) {
+				RowMapper rowMapper = RowMapper.forResultSet(resultSet, metaObject);
+				Calendar calendar = RowMapper.createCalendar();
+				List<IMendixObject> batch;
+				while (!(batch = readBatch(context, metaObject, resultSet, rowMapper, calendar, batchSize)).isEmpty()) {
+					rowCount += batch.size();
+					if (!handler.handle(batch, rowMapper)) {
+						if (logNode.isTraceEnabled()) logNode.trace(String.format("Batch handler stopped reading after %d rows", rowCount));
+						break;
+					}
+				}
+			}
+		} finally {
+			// the query only reads, so there is nothing to commit
+			connection.rollback();
+			connection.setAutoCommit(autoCommit);
+		}
+		return rowCount;
+	}
+
+	@FunctionalInterface
+	private interface StatementSupplier {
+		PreparedStatement get() throws SQLException;
+	}
+
+	@FunctionalInterface
+	private interface MappedBatchHandler {
+		boolean handle(List<IMendixObject> batch, RowMapper rowMapper) throws DatabaseConnectorException;
+	}
+
+	private List<IMendixObject> readAll(final IContext context, final IMetaObject metaObject,
+			final ResultSet resultSet) throws SQLException, DatabaseConnectorException {
+		return readBatch(context, metaObject, resultSet, RowMapper.forResultSet(resultSet, metaObject),
+				RowMapper.createCalendar(), Integer.MAX_VALUE);
+	}
+
+	private List<IMendixObject> readBatch(final IContext context, final IMetaObject metaObject,
+			final ResultSet resultSet, final RowMapper rowMapper, final Calendar calendar, final int batchSize)
+			throws SQLException {
+		List<IMendixObject> convertedResult = new ArrayList<IMendixObject>();
+		while (convertedResult.size() < batchSize && resultSet.next()) {
+			IMendixObject obj = objectInstantiator.instantiate(context, metaObject.getName());
+			rowMapper.map(resultSet, calendar, context, obj);
+			if (logNode.isTraceEnabled()) logNode.trace("Instantiated object: " + obj);
+			convertedResult.add(obj);
+		}
+		return convertedResult;
 	}
 
 	public long executeStatement(final String jdbcUrl, final String userName, final String password, final String sql)
 			throws SQLException {
+		return executeStatement(jdbcUrl, userName, password, sql, StatementListener.NONE);
+	}
+
+	public long executeStatement(final String jdbcUrl, final String userName, final String password,
+			final String sql, final StatementListener listener) throws SQLException {
 		if (logNode.isTraceEnabled()) logNode.trace(String.format("executeStatement: %s, %s, %s", jdbcUrl, userName, sql));
 
 		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password);
 				PreparedStatement preparedStatement = preparedStatementCreator.create(sql, connection)) {
+			listener.prepared(preparedStatement);
 			return preparedStatement.executeUpdate();
 		}
 	}
 
 	public long executeStatement(final String jdbcUrl, final String userName, final String password,
 			final IStringTemplate sql) throws SQLException {
+		return executeStatement(jdbcUrl, userName, password, sql, StatementListener.NONE);
+	}
+
+	public long executeStatement(final String jdbcUrl, final String userName, final String password,
+			final IStringTemplate sql, final StatementListener listener) throws SQLException {
 		if (logNode.isTraceEnabled()) logNode.trace(String.format("executeStatement: %s, %s, %s", jdbcUrl, userName, sql));
 
 		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password);
 				PreparedStatement preparedStatement = preparedStatementCreator.create(sql, connection)) {
+			listener.prepared(preparedStatement);
 			return preparedStatement.executeUpdate();
 		}
 	}
 
+	/**
+	 * Executes the statement for every object, binding the attributes named by the
+	 * {Attribute} placeholders in the template. The statements are sent to the
+	 * database with JDBC batches of batchSize statements, on one connection and in
+	 * one transaction: either all objects are processed or none. Not meant for SELECT
+	 * queries.
+	 *
+	 * @param sqlTemplate the statement with {Attribute} placeholders, e.g.
+	 *                    INSERT INTO employee (id, name) VALUES ({EmployeeId}, {Name})
+	 * @return the number of affected rows per batch; statements for which the driver
+	 *         does not report a row count are not counted
+	 */
+	public long[] executeBatchStatement(final String jdbcUrl, final String userName, final String password,
+			final String sqlTemplate, final IMetaObject metaObject, final List<IMendixObject> objects,
+			final int batchSize, final IContext context) throws SQLException, DatabaseConnectorException {
+		if (logNode.isTraceEnabled()) logNode.trace(String.format("executeBatchStatement: %s, %s, %s", jdbcUrl, userName, sqlTemplate));
+		if (batchSize <= 0) throw new DatabaseConnectorException("Batch size must be larger than 0.");
+
+		final BatchStatementTemplate template = new BatchStatementTemplate(sqlTemplate, metaObject);
+		final long[] updateCounts = new long[(objects.size() + batchSize - 1) / batchSize];
+		try (Connection connection = connectionManager.getConnection(jdbcUrl, userName, password)) {
+			final boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try (PreparedStatement preparedStatement = preparedStatementCreator.create(template.getSql(), connection)) {
+				for (int start = 0; start < objects.size(); start += batchSize) {
+					final int end = Math.min(start + batchSize, objects.size());
+					for (IMendixObject object : objects.subList(start, end)) {
+						template.bind(preparedStatement, context, object);
+						preparedStatement.addBatch();
+					}
+					updateCounts[start / batchSize] = sum(preparedStatement.executeBatch());
+					if (logNode.isTraceEnabled()) logNode.trace(String.format("Batch %d: %d rows affected", start / batchSize + 1, updateCounts[start / batchSize]));
+				}
+				connection.commit();
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+		return updateCounts;
+	}
+
+	/**
+	 * Drivers may report {@link java.sql.Statement#SUCCESS_NO_INFO} instead of a
+	 * row count; those statements are not counted.
+	 */
+	private long sum(final int[] updateCounts) {
+		long sum = 0;
+		for (int updateCount : updateCounts) {
+			if (updateCount > 0) sum += updateCount;
+		}
+		return sum;
+	}
+
 	public void executeCallableStatement(final String jdbcUrl, final String userName, final String password,
 			final Statement stmt) throws SQLException, DatabaseConnectorException {
 		if (logNode.isTraceEnabled()) logNode.trace(String.format("executeCallableStatement: %s, %s, %s", jdbcUrl, userName, stmt.getContent()));
@@ -0,0 +1,54 @@
+package databaseconnector.impl;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
+
+import databaseconnector.interfaces.ObjectBatchHandler;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Creates the {@link ObjectBatchHandler}s for the streaming queries of {@link JdbcConnector}.
+ */
+public final class ObjectBatchHandlers {
+
+	private ObjectBatchHandlers() {
+	}
+
+	/**
+	 * Commits every batch of (persistable) objects.
+	 */
+	public static ObjectBatchHandler commit(final IContext context) {
+		return batch -> {
+			try {
+				Core.commit(context, batch);
+				return true;
+			} catch (CoreException e) {
+				throw new DatabaseConnectorException("Failed to commit a batch of query results: " + e.getMessage(), e);
+			}
+		};
+	}
+
+	/**
+	 * Passes every batch to the list parameter of the microflow. When the microflow returns
+	 * false, no further batches are read.
+	 */
+	public static ObjectBatchHandler microflow(final IContext context, final String microflow) throws DatabaseConnectorException {
+		final Map<String, IDataType> inputParameters = Core.getInputParameters(microflow);
+		if (inputParameters == null)
+			throw new DatabaseConnectorException(String.format("Microflow '%s' does not exist.", microflow));
+
+		final Optional<String> listParameter = inputParameters.entrySet().stream()
+				.filter(parameter -> parameter.getValue().isList()).map(Map.Entry::getKey).findFirst();
+		if (listParameter.isEmpty())
+			throw new DatabaseConnectorException(String.format("Microflow '%s' has no list parameter for the query results.", microflow));
+
+		return batch -> {
+			Object result = Core.microflowCall(microflow).withParam(listParameter.get(), batch).execute(context);
+			return !Boolean.FALSE.equals(result);
+		};
+	}
+}
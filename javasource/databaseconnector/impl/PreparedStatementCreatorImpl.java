@@ -13,8 +13,19 @@ import static com.mendix.systemwideinterfaces.javaactions.parameters.TemplatePar
 
 public class PreparedStatementCreatorImpl implements PreparedStatementCreator {
 
+	private static final EnumMap<TemplateParameterType, Integer> SQL_TYPE_MAP = new EnumMap<>(TemplateParameterType.class);
+
+	static {
+		SQL_TYPE_MAP.put(INTEGER, Types.BIGINT);
+		SQL_TYPE_MAP.put(STRING, Types.VARCHAR);
+		SQL_TYPE_MAP.put(BOOLEAN, Types.BOOLEAN);
+		SQL_TYPE_MAP.put(DECIMAL, Types.DECIMAL);
+		SQL_TYPE_MAP.put(DATETIME, Types.TIMESTAMP);
+	}
+
 	@Override
 	public PreparedStatement create(String query, Connection connection) throws SQLException {
+		StatementCacheTracker.getInstance().record(connection, query);
 		return connection.prepareStatement(query);
 	}
 
@@ -28,6 +39,7 @@ public class PreparedStatementCreatorImpl implements PreparedStatementCreator {
 			return "?";
 		});
 
+		StatementCacheTracker.getInstance().record(connection, queryTemplate);
 		PreparedStatement preparedStatement = connection.prepareStatement(queryTemplate);
 		addPreparedStatementParameters(queryParameters, preparedStatement);
 		return preparedStatement;
@@ -35,19 +47,12 @@ public class PreparedStatementCreatorImpl implements PreparedStatementCreator {
 
 	private void addPreparedStatementParameters(List<ITemplateParameter> queryParameters,
 			PreparedStatement preparedStatement) throws SQLException, IllegalArgumentException {
-		EnumMap<TemplateParameterType, Integer> sqlTypeMap = new EnumMap<>(TemplateParameterType.class);
-		sqlTypeMap.put(INTEGER, Types.BIGINT);
-		sqlTypeMap.put(STRING, Types.VARCHAR);
-		sqlTypeMap.put(BOOLEAN, Types.BOOLEAN);
-		sqlTypeMap.put(DECIMAL, Types.DECIMAL);
-		sqlTypeMap.put(DATETIME, Types.TIMESTAMP);
-
 		for (int i = 0; i < queryParameters.size(); i++) {
 			ITemplateParameter parameter = queryParameters.get(i);
 			Object parameterValue = parameter.getValue();
 
 			if(parameterValue == null){
-				preparedStatement.setNull(i + 1, sqlTypeMap.get(parameter.getParameterType()).intValue());
+				preparedStatement.setNull(i + 1, SQL_TYPE_MAP.get(parameter.getParameterType()).intValue());
 				continue;
 			}
 			addParameter(preparedStatement, i, parameter);
@@ -0,0 +1,170 @@
+package databaseconnector.impl;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * QueryImporter commits the objects read by a query, one commit per batch. When a
+ * key attribute is given, a row whose key matches an existing object updates that
+ * object with the values of the query columns instead of creating a new one; of
+ * rows with the same key in one batch, the last one wins.
+ */
+public class QueryImporter {
+	private static final Set<PrimitiveType> KEY_TYPES = EnumSet.of(PrimitiveType.String, PrimitiveType.Enum,
+			PrimitiveType.Integer, PrimitiveType.Long);
+	/** Number of keys per retrieve of existing objects, to keep the XPath short. */
+	private static final int KEYS_PER_RETRIEVE = 100;
+
+	private final IContext context;
+	private final IMetaObject metaObject;
+	private final String keyAttribute;
+	private final long startNanos = System.nanoTime();
+	private long stopNanos;
+	private long insertedCount;
+	private long updatedCount;
+
+	/**
+	 * @param keyAttribute optional name of a String, Enumeration, Integer or Long
+	 *                     attribute that identifies the objects; when empty, every row
+	 *                     creates a new object
+	 */
+	public QueryImporter(final IContext context, final IMetaObject metaObject, final String keyAttribute)
+			throws DatabaseConnectorException {
+		if (!metaObject.isPersistable())
+			throw new DatabaseConnectorException(String.format("The entity type '%s' is not persistable.", metaObject.getName()));
+
+		if (keyAttribute != null && !keyAttribute.isBlank()) {
+			final IMetaPrimitive primitive = metaObject.getMetaPrimitive(keyAttribute);
+			if (primitive == null)
+				throw new DatabaseConnectorException(String.format("The entity type '%s' does not contain the key attribute '%s'.",
+						metaObject.getName(), keyAttribute));
+			if (!KEY_TYPES.contains(primitive.getType()))
+				throw new DatabaseConnectorException(String.format("Attribute type %s of key attribute '%s' is not supported; "
+						+ "use a String, Enumeration, Integer or Long attribute.", primitive.getType(), keyAttribute));
+			this.keyAttribute = primitive.getName();
+		} else {
+			this.keyAttribute = null;
+		}
+		this.context = context;
+		this.metaObject = metaObject;
+	}
+
+	boolean importBatch(final List<IMendixObject> batch, final RowMapper rowMapper) throws DatabaseConnectorException {
+		try {
+			Core.commit(context, keyAttribute == null ? countInserted(batch) : merge(batch, rowMapper));
+			return true;
+		} catch (CoreException e) {
+			throw new DatabaseConnectorException("Failed to commit a batch of imported objects: " + e.getMessage(), e);
+		}
+	}
+
+	private List<IMendixObject> countInserted(final List<IMendixObject> batch) {
+		insertedCount += batch.size();
+		return batch;
+	}
+
+	/**
+	 * Replaces the rows whose key matches an existing object by that object, with
+	 * the values of the row.
+	 */
+	private List<IMendixObject> merge(final List<IMendixObject> batch, final RowMapper rowMapper)
+			throws DatabaseConnectorException, CoreException {
+		final List<String> attributeNames = rowMapper.getAttributeNames();
+		if (!attributeNames.contains(keyAttribute))
+			throw new DatabaseConnectorException(String.format("The query does not return the key attribute '%s'.", keyAttribute));
+
+		final Map<Object, IMendixObject> rowsByKey = new LinkedHashMap<>();
+		for (IMendixObject row : batch) {
+			final Object key = row.getValue(context, keyAttribute);
+			if (key == null)
+				throw new DatabaseConnectorException(String.format("The query returned a row without key attribute '%s'.", keyAttribute));
+			final IMendixObject previous = rowsByKey.putIfAbsent(key, row);
+			if (previous != null) copy(attributeNames, row, previous);
+		}
+
+		final Map<Object, IMendixObject> objectsByKey = new LinkedHashMap<>(rowsByKey);
+		final Set<Object> updatedKeys = new HashSet<>();
+		final List<Object> keys = new ArrayList<>(rowsByKey.keySet());
+		for (int start = 0; start < keys.size(); start += KEYS_PER_RETRIEVE) {
+			for (IMendixObject existing : retrieveByKeys(keys.subList(start, Math.min(start + KEYS_PER_RETRIEVE, keys.size())))) {
+				final Object key = existing.getValue(context, keyAttribute);
+				// the database may compare strings case-insensitively; only exact matches are updated
+				final IMendixObject row = rowsByKey.get(key);
+				if (row == null || !updatedKeys.add(key)) continue;
+				copy(attributeNames, row, existing);
+				objectsByKey.put(key, existing);
+			}
+		}
+
+		updatedCount += updatedKeys.size();
+		insertedCount += objectsByKey.size() - updatedKeys.size();
+		return new ArrayList<>(objectsByKey.values());
+	}
+
+	private List<IMendixObject> retrieveByKeys(final List<Object> keys) throws CoreException {
+		final String constraint = IntStream.range(0, keys.size())
+				.mapToObj(i -> String.format("%s = $key%d", keyAttribute, i)).collect(Collectors.joining(" or "));
+		final var query = Core.createXPathQuery(String.format("//%s[%s]", metaObject.getName(), constraint));
+		for (int i = 0; i < keys.size(); i++) {
+			final Object key = keys.get(i);
+			if (key instanceof String) {
+				query.setVariable("key" + i, (String) key);
+			} else {
+				query.setVariable("key" + i, ((Number) key).longValue());
+			}
+		}
+		return query.execute(context);
+	}
+
+	private void copy(final List<String> attributeNames, final IMendixObject source, final IMendixObject target) {
+		for (String attributeName : attributeNames) {
+			target.setValue(context, attributeName, source.getValue(context, attributeName));
+		}
+	}
+
+	void stop() {
+		stopNanos = System.nanoTime();
+	}
+
+	public long getInsertedCount() {
+		return insertedCount;
+	}
+
+	public long getUpdatedCount() {
+		return updatedCount;
+	}
+
+	public long getRowCount() {
+		return insertedCount + updatedCount;
+	}
+
+	public double getElapsedSeconds() {
+		return ((stopNanos == 0 ? System.nanoTime() : stopNanos) - startNanos) / 1e9;
+	}
+
+	public double getRowsPerSecond() {
+		final double elapsedSeconds = getElapsedSeconds();
+		return elapsedSeconds == 0 ? 0 : getRowCount() / elapsedSeconds;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Imported %d rows into %s (%d inserted, %d updated) in %.1f s: %.0f rows/s", getRowCount(),
+				metaObject.getName(), insertedCount, updatedCount, getElapsedSeconds(), getRowsPerSecond());
+	}
+}
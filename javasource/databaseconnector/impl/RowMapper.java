@@ -0,0 +1,161 @@
+package databaseconnector.impl;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
+
+import java.io.ByteArrayInputStream;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RowMapper copies the current row of a {@link ResultSet} into an
+ * {@link IMendixObject}. The attribute and the way to read the value are
+ * resolved once per column when the mapper is created, so mapping a row only
+ * reads the columns and sets the values. Mappers are cached per entity and
+ * list of column labels, so queries with the same shape share their mapper.
+ */
+public final class RowMapper {
+	private static final int MAX_CACHED_MAPPERS = 1000;
+	private static final Map<String, RowMapper> CACHE = new ConcurrentHashMap<>();
+
+	private final int[] columnIndexes;
+	private final String[] attributeNames;
+	private final ColumnReader[] columnReaders;
+	private final Object[] nullValues;
+
+	private RowMapper(final ColumnInfo[] columnInfos) {
+		final int columnCount = columnInfos.length;
+		this.columnIndexes = new int[columnCount];
+		this.attributeNames = new String[columnCount];
+		this.columnReaders = new ColumnReader[columnCount];
+		this.nullValues = new Object[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			columnIndexes[i] = columnInfos[i].getIndex();
+			attributeNames[i] = columnInfos[i].getName();
+			columnReaders[i] = getColumnReader(columnInfos[i].getType());
+			// for Boolean type, convert null to false
+			nullValues[i] = columnInfos[i].getType() == PrimitiveType.Boolean ? Boolean.FALSE : null;
+		}
+	}
+
+	/**
+	 * Returns the (cached) mapper for the columns of the result set and the
+	 * entity.
+	 */
+	public static RowMapper forResultSet(final ResultSet resultSet, final IMetaObject metaObject)
+			throws SQLException, DatabaseConnectorException {
+		final ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
+		final int columnCount = resultSetMetaData.getColumnCount();
+		final String[] columnLabels = new String[columnCount];
+		final StringBuilder key = new StringBuilder(metaObject.getName());
+		for (int i = 0; i < columnCount; i++) {
+			columnLabels[i] = resultSetMetaData.getColumnLabel(i + 1);
+			key.append('\u0000').append(columnLabels[i]);
+		}
+
+		RowMapper rowMapper = CACHE.get(key.toString());
+		if (rowMapper == null) {
+			rowMapper = compile(metaObject, columnLabels);
+			if (CACHE.size() >= MAX_CACHED_MAPPERS) CACHE.clear();
+			CACHE.put(key.toString(), rowMapper);
+		}
+		return rowMapper;
+	}
+
+	private static RowMapper compile(final IMetaObject metaObject, final String[] columnLabels) throws DatabaseConnectorException {
+		final Map<String, IMetaPrimitive> primitivesByName = new HashMap<>();
+		for (IMetaPrimitive primitive : metaObject.getMetaPrimitives()) {
+			primitivesByName.putIfAbsent(primitive.getName().toLowerCase(), primitive);
+		}
+
+		final ColumnInfo[] columnInfos = new ColumnInfo[columnLabels.length];
+		for (int i = 0; i < columnLabels.length; i++) {
+			final IMetaPrimitive primitive = primitivesByName.get(columnLabels[i].toLowerCase());
+			if (primitive == null) {
+				final String msg = "The entity type '%s' does not contain the primitive '%s' as specified in the query.";
+				throw new DatabaseConnectorException(String.format(msg, metaObject.getName(), columnLabels[i]));
+			}
+			if (primitive.getType() == PrimitiveType.HashString) {
+				throw new DatabaseConnectorException(String.format(
+						"Attribute type Hashed String for attribute '%1$s' on entity '%2$s' is not supported, "
+								+ "please use attribute type 'String' instead",
+						primitive.getName(), metaObject.getName()));
+			}
+			columnInfos[i] = new ColumnInfo(i + 1, primitive.getName(), primitive.getType());
+		}
+		return new RowMapper(columnInfos);
+	}
+
+	/**
+	 * Returns the names of the attributes that are set by {@link #map}.
+	 */
+	public List<String> getAttributeNames() {
+		return List.of(attributeNames);
+	}
+
+	/**
+	 * Returns the calendar to pass to {@link #map}. Calendars are not thread-safe,
+	 * so every query needs its own.
+	 */
+	public static Calendar createCalendar() {
+		return Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * Sets the values of the current row of the result set on the object.
+	 */
+	public void map(final ResultSet resultSet, final Calendar calendar, final IContext context, final IMendixObject object)
+			throws SQLException {
+		for (int i = 0; i < columnIndexes.length; i++) {
+			Object value = columnReaders[i].read(resultSet, columnIndexes[i], calendar);
+			object.setValue(context, attributeNames[i], value == null || resultSet.wasNull() ? nullValues[i] : value);
+		}
+	}
+
+	private static ColumnReader getColumnReader(final PrimitiveType type) {
+		switch (type) {
+		case Integer:
+			return (rs, index, calendar) -> rs.getInt(index);
+		case AutoNumber:
+		case Long:
+			return (rs, index, calendar) -> rs.getLong(index);
+		case DateTime:
+			return (rs, index, calendar) -> {
+				Timestamp timeStamp = rs.getTimestamp(index, calendar);
+				return (timeStamp != null) ? new Date(timeStamp.getTime()) : null;
+			};
+		case Boolean:
+			return (rs, index, calendar) -> rs.getBoolean(index);
+		case Decimal:
+			return (rs, index, calendar) -> rs.getBigDecimal(index);
+		case Binary:
+			// binary attributes are set with a stream
+			return (rs, index, calendar) -> {
+				byte[] bytes = rs.getBytes(index);
+				return (bytes != null) ? new ByteArrayInputStream(bytes) : null;
+			};
+		case Enum:
+		case String:
+			return (rs, index, calendar) -> rs.getString(index);
+		default:
+			return (rs, index, calendar) -> null;
+		}
+	}
+
+	@FunctionalInterface
+	private interface ColumnReader {
+		Object read(ResultSet resultSet, int index, Calendar calendar) throws SQLException;
+	}
+}
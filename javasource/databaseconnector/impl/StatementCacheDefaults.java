@@ -0,0 +1,46 @@
+package databaseconnector.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StatementCacheDefaults provides the data source properties that turn on the
+ * statement cache of the JDBC drivers that support one, based on the JDBC URL.
+ * They are only used for pools configured with
+ * {@link ConnectionPoolSettings#setStatementCache}; properties set with
+ * {@link ConnectionPoolSettings} take precedence.
+ */
+public final class StatementCacheDefaults {
+	/** Number of statements cached per connection. */
+	static final int CACHE_SIZE = 256;
+
+	private StatementCacheDefaults() {
+	}
+
+	public static Map<String, String> forUrl(final String jdbcUrl) {
+		final Map<String, String> properties = new LinkedHashMap<>();
+		if (jdbcUrl == null) return properties;
+
+		final String cacheSize = String.valueOf(CACHE_SIZE);
+		if (jdbcUrl.startsWith("jdbc:postgresql:")) {
+			// use a server-side prepared statement from the first execution instead of the fifth
+			properties.put("prepareThreshold", "1");
+			properties.put("preparedStatementCacheQueries", cacheSize);
+		} else if (jdbcUrl.startsWith("jdbc:oracle:")) {
+			properties.put("oracle.jdbc.implicitStatementCacheSize", cacheSize);
+		} else if (jdbcUrl.startsWith("jdbc:sqlserver:")) {
+			properties.put("disableStatementPooling", "false");
+			properties.put("statementPoolingCacheSize", cacheSize);
+		} else if (jdbcUrl.startsWith("jdbc:mysql:")) {
+			properties.put("useServerPrepStmts", "true");
+			properties.put("cachePrepStmts", "true");
+			properties.put("prepStmtCacheSize", cacheSize);
+			properties.put("prepStmtCacheSqlLimit", "4096");
+		} else if (jdbcUrl.startsWith("jdbc:mariadb:")) {
+			properties.put("useServerPrepStmts", "true");
+			properties.put("cachePrepStmts", "true");
+			properties.put("prepStmtCacheSize", cacheSize);
+		}
+		return properties;
+	}
+}
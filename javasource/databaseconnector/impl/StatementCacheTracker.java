@@ -0,0 +1,83 @@
+package databaseconnector.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StatementCacheTracker estimates how often prepared statements can be served
+ * from the statement cache of the JDBC driver. Drivers cache statements per
+ * physical connection by SQL text, so a statement counts as a hit when the same
+ * SQL was prepared on the same physical connection before and is still among
+ * the most recently used statements of that connection. This is a simulation:
+ * the drivers do not report their own cache hits, and statements are only
+ * cached by the driver when the statement cache is turned on with
+ * {@link ConnectionPoolSettings#setStatementCache}.
+ */
+public final class StatementCacheTracker {
+	private static final StatementCacheTracker INSTANCE = new StatementCacheTracker(StatementCacheDefaults.CACHE_SIZE);
+
+	private final int statementsPerConnection;
+	private final Map<Connection, Map<String, Boolean>> statementsByConnection = Collections.synchronizedMap(new WeakHashMap<>());
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	StatementCacheTracker(final int statementsPerConnection) {
+		this.statementsPerConnection = statementsPerConnection;
+	}
+
+	public static StatementCacheTracker getInstance() {
+		return INSTANCE;
+	}
+
+	public void record(final Connection connection, final String sql) {
+		final Map<String, Boolean> statements = statementsByConnection.computeIfAbsent(getPhysicalConnection(connection),
+				c -> new LinkedHashMap<>(16, 0.75f, true) {
+					@Override
+					protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+						return size() > statementsPerConnection;
+					}
+				});
+		final boolean hit;
+		synchronized (statements) {
+			hit = statements.put(sql, Boolean.TRUE) != null;
+		}
+		(hit ? hits : misses).increment();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public double getHitRate() {
+		final long total = hits.sum() + misses.sum();
+		return total == 0 ? 0 : (double) hits.sum() / total;
+	}
+
+	/**
+	 * Connection pools hand out wrappers; the driver caches statements on the
+	 * connection they wrap.
+	 */
+	private static Connection getPhysicalConnection(final Connection connection) {
+		try {
+			return connection.isWrapperFor(Connection.class) ? connection.unwrap(Connection.class) : connection;
+		} catch (SQLException e) {
+			return connection;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Prepared statements: %d, of which %d (%.1f%%) were prepared on the same connection before "
+				+ "(estimated statement cache hits, not reported by the driver)",
+				hits.sum() + misses.sum(), hits.sum(), getHitRate() * 100);
+	}
+}
@@ -0,0 +1,14 @@
+package databaseconnector.interfaces;
+
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+import databaseconnector.impl.DatabaseConnectorException;
+
+import java.util.List;
+
+public interface ObjectBatchHandler {
+	/**
+	 * @return false to stop reading further rows
+	 */
+	boolean handle(final List<IMendixObject> batch) throws DatabaseConnectorException;
+}
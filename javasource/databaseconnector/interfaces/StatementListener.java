@@ -0,0 +1,15 @@
+package databaseconnector.interfaces;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public interface StatementListener {
+	StatementListener NONE = statement -> {
+	};
+
+	/**
+	 * Called when the statement is prepared and before it is executed, e.g. to set a
+	 * query timeout or to keep the statement so that it can be cancelled.
+	 */
+	void prepared(final Statement statement) throws SQLException;
+}
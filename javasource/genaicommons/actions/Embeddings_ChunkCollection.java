@@ -10,16 +10,12 @@
 package genaicommons.actions;
 
 import static java.util.Objects.requireNonNull;
-import java.util.Map;
-import com.mendix.core.Core;
 import com.mendix.systemwideinterfaces.core.IContext;
-import com.mendix.systemwideinterfaces.core.IDataType;
 import genaicommons.impl.DeployedModelImpl;
 import genaicommons.impl.MxLogger;
 import genaicommons.proxies.ENUM_ModelModality;
 import genaicommons.proxies.EmbeddingsResponse;
 import genaicommons.proxies.Response;
-import genaicommons.proxies.microflows.Microflows;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
 
@@ -71,16 +67,9 @@ public class Embeddings_ChunkCollection extends UserAction<IMendixObject>
 		try {
 			validate();
 			
-			long startTime = System.currentTimeMillis();
+			EmbeddingsResponse embeddingsResponse = DeployedModelImpl.executeEmbeddings(getContext(), DeployedModel, ChunkCollection, EmbeddingsOptions);
 			
-			IMendixObject responseMendixObject = Core.microflowCall(DeployedModel.getMicroflow())
-					.withParams(mapInputParameters())
-					.execute(this.getContext());
-			
-			EmbeddingsResponse embeddingsResponse = genaicommons.proxies.EmbeddingsResponse.load(getContext(), responseMendixObject.getId());
-			responseStoreDurationAndUsage(embeddingsResponse, startTime);
-			
-			return responseMendixObject;
+			return embeddingsResponse.getMendixObject();
 
 		} catch (Exception e) {
 			LOGGER.error(e);
@@ -107,28 +96,5 @@ public class Embeddings_ChunkCollection extends UserAction<IMendixObject>
 		DeployedModelImpl.validate(DeployedModel, ENUM_ModelModality.Embeddings);
 	}
 	
-	private void responseStoreDurationAndUsage(EmbeddingsResponse embeddingsResponse, Long startTime) {
-		embeddingsResponse.setDurationMilliseconds((int) Math.ceil(System.currentTimeMillis() - startTime));
-		if (genaicommons.proxies.constants.Constants.getStoreUsageMetrics()) {
-			Microflows.usage_Create_Embeddings(getContext(), embeddingsResponse, DeployedModel);
-		}
-	}
-	
-	private Map<String, Object> mapInputParameters() {
-		Map<String, Object> inputParameters = new java.util.HashMap<>();
-		Map<String, IDataType> parametersAndTypes = Core.getInputParameters(DeployedModel.getMicroflow());
-		parametersAndTypes.forEach((t, u) -> {
-			if(Core.getMetaObject(u.getObjectType()).isSubClassOf(genaicommons.proxies.DeployedModel.getType())) {
-				inputParameters.put(t, DeployedModel.getMendixObject());
-			} else if(Core.getMetaObject(u.getObjectType()).isSubClassOf(genaicommons.proxies.ChunkCollection.getType())) {
-				inputParameters.put(t, ChunkCollection.getMendixObject());
-			} else if(EmbeddingsOptions != null && Core.getMetaObject(u.getObjectType()).isSubClassOf(genaicommons.proxies.EmbeddingsOptions.getType())) {
-				inputParameters.put(t, EmbeddingsOptions.getMendixObject());
-			}
-		}
-		);
-		return inputParameters;
-	}
-	
 	// END EXTRA CODE
 }
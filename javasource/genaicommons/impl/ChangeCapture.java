@@ -0,0 +1,405 @@
+package genaicommons.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.IMendixIdentifier;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+
+import communitycommons.ORM;
+import genaicommons.proxies.Chunk;
+import genaicommons.proxies.ChunkCollection;
+import genaicommons.proxies.DeployedKnowledgeBase;
+import genaicommons.proxies.DeployedModel;
+import genaicommons.proxies.ENUM_ModelModality;
+import genaicommons.proxies.KnowledgeBaseChunk;
+
+/**
+ * Keeps a knowledge base up to date with the source objects it was built from, so that it does not have to be rebuilt as a whole.
+ *
+ * A source is registered (typically in after-startup logic) with the entity and the attributes whose values are chunked and embedded.
+ * Before commit and before delete event handlers of the entity report changes with {@link #trackChange}: only objects of which one of
+ * these attributes changed (see {@link ORM#memberHasChanged}) or that are deleted are queued in the {@link ReembeddingQueue}, together
+ * with the state they are expected to have: a hash of their new text, or deleted.
+ *
+ * The queue is written outside of the transaction that changed the object, so the background worker compares the current state of
+ * every queued object with the expected state. Objects that do not have it yet belong to a transaction that has not committed, and
+ * are postponed; after {@link #PENDING_TIMEOUT_MILLIS} the transaction is assumed to be rolled back and the current state is applied.
+ * Objects that still exist are re-chunked, re-embedded and passed to the replace microflow of the source, which replaces the chunks
+ * with the same MxObjectID. For objects that no longer exist, or no longer have text, the chunks are removed with the delete
+ * microflow. Failing entries are retried a limited number of times.
+ *
+ * Registrations are kept in memory and have to be made again after a restart, e.g. in after-startup logic; the queue is durable. On
+ * a cluster, the worker should be started on one node only.
+ */
+public class ChangeCapture {
+
+	private static final MxLogger LOGGER = new MxLogger(ChangeCapture.class);
+	private static final int MAX_ATTEMPTS = 5;
+	/** Time after which a queued change whose transaction never committed is given up, and the current state is applied instead. */
+	public static final long PENDING_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+	private static final String TEXT_SEPARATOR = "\n\n";
+
+	private static final Map<String, Source> SOURCES = new ConcurrentHashMap<>();
+	private static final ReembeddingQueue QUEUE = new ReembeddingQueue();
+
+	private static ScheduledExecutorService worker;
+	private static volatile int batchSize = 50;
+	private static volatile long settleTimeMillis = 10_000;
+
+	/**
+	 * Registers (or replaces) a source of the knowledge base. The DeployedKnowledgeBase and DeployedModel are retrieved again by the
+	 * worker, so they need to be persistable.
+	 * @param sourceEntity the persistable entity whose objects are chunked
+	 * @param attributes the attributes whose values are chunked and embedded; only changes of these attributes cause a re-embedding
+	 * @param replaceMicroflow receives the ChunkCollection with the new chunks, e.g. PgVectorKnowledgeBase.ChunkCollection_Replace
+	 * @param deleteMicroflow receives the chunks to delete (only MxObjectID and MxEntity are set), as ChunkCollection or as list of
+	 * KnowledgeBaseChunks, e.g. PgVectorKnowledgeBase.KnowledgeBaseChunkList_Delete_FromKnowledgeBase
+	 * @return the key of the source
+	 */
+	public static String registerSource(IContext context, String sourceEntity, List<String> attributes, DeployedKnowledgeBase deployedKnowledgeBase,
+			DeployedModel deployedModel, String replaceMicroflow, String deleteMicroflow, TextSplitter textSplitter) {
+		IMetaObject metaObject = sourceEntity == null ? null : Core.getMetaObject(sourceEntity);
+		if (metaObject == null || !metaObject.isPersistable()) {
+			throw new IllegalArgumentException("SourceEntity " + sourceEntity + " does not exist or is not persistable.");
+		}
+		if (attributes == null || attributes.isEmpty()) {
+			throw new IllegalArgumentException("At least one attribute is required.");
+		}
+		for (String attribute : attributes) {
+			if (!metaObject.hasMetaPrimitive(attribute)) {
+				throw new IllegalArgumentException("Entity " + sourceEntity + " has no attribute " + attribute + ".");
+			}
+		}
+		requireNonNull(deployedKnowledgeBase, "DeployedKnowledgeBase is required.");
+		DeployedModelImpl.validate(deployedModel, ENUM_ModelModality.Embeddings);
+		validatePersistable(deployedKnowledgeBase.getMendixObject(), "DeployedKnowledgeBase");
+		validatePersistable(deployedModel.getMendixObject(), "DeployedModel");
+		if (replaceMicroflow == null || replaceMicroflow.isBlank()) {
+			throw new IllegalArgumentException("Replace microflow is required.");
+		}
+		IngestionPipeline.validateUpsertMicroflow(replaceMicroflow);
+		validateDeleteMicroflow(deleteMicroflow);
+
+		Source source = new Source(getSourceKey(context, sourceEntity, deployedKnowledgeBase), sourceEntity, List.copyOf(attributes),
+				deployedKnowledgeBase.getMendixObject().getId(), deployedModel.getMendixObject().getId(), replaceMicroflow, deleteMicroflow,
+				requireNonNull(textSplitter, "TextSplitter is required."));
+		SOURCES.put(source.key, source);
+		LOGGER.info("Change capture registered for " + sourceEntity + " " + attributes + " into knowledge base " + deployedKnowledgeBase.getName(context) + ".");
+		return source.key;
+	}
+
+	public static boolean unregisterSource(IContext context, String sourceEntity, DeployedKnowledgeBase deployedKnowledgeBase) {
+		requireNonNull(deployedKnowledgeBase, "DeployedKnowledgeBase is required.");
+		return SOURCES.remove(getSourceKey(context, sourceEntity, deployedKnowledgeBase)) != null;
+	}
+
+	/**
+	 * Queues the object for every registered source of its entity (or one of its generalizations) if it is deleted or if one of the
+	 * attributes of the source changed. Meant to be called from before commit (deleted false) and before delete (deleted true) event
+	 * handlers, because the changes of an object are no longer known after it is committed.
+	 * @return the number of sources for which the object was queued
+	 */
+	public static int trackChange(IContext context, IMendixObject object, boolean deleted) {
+		requireNonNull(object, "Object is required.");
+		int queued = 0;
+		for (Source source : SOURCES.values()) {
+			if (object.getMetaObject().isSubClassOf(source.entity) && (deleted || hasChanged(context, object, source))) {
+				QUEUE.enqueue(source.key, object.getId().toLong(), deleted ? ReembeddingQueue.DELETED : getState(getText(context, source, object)));
+				queued++;
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Starts the background worker, or restarts it with the new settings.
+	 * @param intervalMillis time between two runs of the worker
+	 * @param batchSize maximum number of objects that are re-embedded with one embeddings call
+	 * @param settleTimeMillis minimum age of a queue entry before it is processed, so that most transactions have committed by then
+	 */
+	public static synchronized void startWorker(long intervalMillis, int batchSize, long settleTimeMillis) {
+		if (intervalMillis <= 0) {
+			throw new IllegalArgumentException("Interval must be larger than 0.");
+		}
+		stopWorker();
+		if (batchSize > 0) {
+			ChangeCapture.batchSize = batchSize;
+		}
+		if (settleTimeMillis >= 0) {
+			ChangeCapture.settleTimeMillis = settleTimeMillis;
+		}
+		worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = defaultFactory.newThread(runnable);
+				thread.setName("genaicommons-reembedding");
+				// does not keep the runtime from stopping when stopWorker is not called
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		worker.scheduleWithFixedDelay(ChangeCapture::processQueues, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		LOGGER.info("Re-embedding worker started with an interval of " + intervalMillis + " ms.");
+	}
+
+	/**
+	 * Stops the background worker. Objects that are still queued remain in the database and are processed when the worker is started
+	 * again. Call this in before-shutdown logic.
+	 */
+	public static synchronized void stopWorker() {
+		if (worker != null) {
+			worker.shutdown();
+			worker = null;
+			LOGGER.info("Re-embedding worker stopped.");
+		}
+	}
+
+	/**
+	 * Processes the queues of all sources until they are empty; a source is skipped for the rest of the run when a batch fails.
+	 */
+	static void processQueues() {
+		// an exception would cancel all further runs of the scheduled worker
+		try {
+			for (Source source : SOURCES.values()) {
+				long dueBefore = System.currentTimeMillis() - settleTimeMillis;
+				List<ReembeddingQueue.Entry> entries;
+				// postponed entries are due after this run
+				while (!Thread.currentThread().isInterrupted()
+						&& !(entries = QUEUE.next(source.key, dueBefore, MAX_ATTEMPTS, batchSize)).isEmpty()) {
+					if (!processBatch(source, entries)) {
+						break;
+					}
+				}
+			}
+		} catch (Throwable e) {
+			LOGGER.error(e, "Re-embedding worker run failed.");
+		}
+	}
+
+	private static boolean processBatch(Source source, List<ReembeddingQueue.Entry> queuedEntries) {
+		long start = System.currentTimeMillis();
+		IContext context = Core.createSystemContext();
+		List<ReembeddingQueue.Entry> entries = new ArrayList<>(queuedEntries.size());
+		try {
+			IMendixObject knowledgeBaseObject = Core.retrieveId(context, source.knowledgeBaseID);
+			IMendixObject modelObject = Core.retrieveId(context, source.modelID);
+			if (knowledgeBaseObject == null || modelObject == null) {
+				throw new IllegalStateException("DeployedKnowledgeBase or DeployedModel of source " + source.key + " no longer exists.");
+			}
+			DeployedKnowledgeBase deployedKnowledgeBase = DeployedKnowledgeBase.initialize(context, knowledgeBaseObject);
+			DeployedModel deployedModel = DeployedModel.initialize(context, modelObject);
+
+			List<IMendixIdentifier> ids = new ArrayList<>(queuedEntries.size());
+			for (ReembeddingQueue.Entry entry : queuedEntries) {
+				ids.add(Core.createMendixIdentifier(entry.getMxObjectID()));
+			}
+			Map<Long, IMendixObject> objects = new HashMap<>();
+			for (IMendixObject object : Core.retrieveIdList(context, ids)) {
+				objects.put(object.getId().toLong(), object);
+			}
+
+			List<ReembeddingQueue.Entry> pendingEntries = new ArrayList<>();
+			Set<Long> removedIDs = new HashSet<>();
+			List<Chunk> chunks = new ArrayList<>();
+			for (ReembeddingQueue.Entry entry : queuedEntries) {
+				IMendixObject object = objects.get(entry.getMxObjectID());
+				String text = object == null ? null : getText(context, source, object);
+				if (!entry.getExpectedState().equals(text == null ? ReembeddingQueue.DELETED : getState(text))) {
+					if (start - entry.getEnqueuedAt() < PENDING_TIMEOUT_MILLIS) {
+						pendingEntries.add(entry);
+						continue;
+					}
+					LOGGER.warn("Object " + entry.getMxObjectID() + " of source " + source.key + " did not reach its queued state within "
+							+ PENDING_TIMEOUT_MILLIS + " ms; its current state is applied.");
+				}
+				entries.add(entry);
+				if (text == null || addChunks(context, object, text, source, chunks) == 0) {
+					removedIDs.add(entry.getMxObjectID());
+				}
+			}
+			QUEUE.postpone(source.key, pendingEntries, start);
+			if (entries.isEmpty()) {
+				return true;
+			}
+
+			if (!removedIDs.isEmpty()) {
+				deleteChunks(context, source, deployedKnowledgeBase, removedIDs);
+			}
+			if (!chunks.isEmpty()) {
+				ChunkCollection chunkCollection = new ChunkCollection(context);
+				chunkCollection.setChunkCollection_Chunk(context, chunks);
+				DeployedModelImpl.executeEmbeddings(context, deployedModel, chunkCollection, null);
+				executeMicroflow(context, source.replaceMicroflow, chunkCollection, chunks, deployedKnowledgeBase);
+				NearDuplicateDetector.replaceInIndex(context, deployedKnowledgeBase, chunks);
+			}
+			RetrievalCache.invalidate(context, deployedKnowledgeBase);
+			QUEUE.remove(source.key, entries);
+			LOGGER.info("Re-embedded " + (entries.size() - removedIDs.size()) + " and removed " + removedIDs.size() + " objects of source "
+					+ source.key + " (" + chunks.size() + " chunks) in " + (System.currentTimeMillis() - start) + " ms; " + pendingEntries.size()
+					+ " objects are postponed until their transaction commits.");
+			return true;
+		} catch (Exception e) {
+			List<ReembeddingQueue.Entry> failedEntries = entries.isEmpty() ? queuedEntries : entries;
+			QUEUE.markFailed(source.key, failedEntries);
+			LOGGER.error(e, "Re-embedding of " + failedEntries.size() + " objects of source " + source.key + " failed; they are retried up to "
+					+ MAX_ATTEMPTS + " times.");
+			return false;
+		}
+	}
+
+	private static int addChunks(IContext context, IMendixObject object, String text, Source source, List<Chunk> chunks) throws Exception {
+		if (text.isEmpty()) {
+			return 0;
+		}
+		long id = object.getId().toLong();
+		int[] chunkIndex = { 0 };
+		source.textSplitter.split(new StringReader(text), chunk -> {
+			// deterministic, so that the same chunk of an object always gets the same ID
+			String chunkID = UUID.nameUUIDFromBytes((id + ":" + chunkIndex[0]).getBytes(StandardCharsets.UTF_8)).toString();
+			chunks.add(ChunkCollectionImpl.createKnowledgeBaseChunk(context, chunkID, object.getType() + " " + id + " #" + (++chunkIndex[0]),
+					chunk, object, null));
+		});
+		return chunkIndex[0];
+	}
+
+	private static String getText(IContext context, Source source, IMendixObject object) {
+		StringBuilder text = new StringBuilder();
+		for (String attribute : source.attributes) {
+			Object value = object.getValue(context, attribute);
+			if (value != null && !value.toString().isBlank()) {
+				if (text.length() > 0) {
+					text.append(TEXT_SEPARATOR);
+				}
+				text.append(value.toString().strip());
+			}
+		}
+		return text.toString();
+	}
+
+	private static String getState(String text) {
+		return RetrievalCache.sha256(text);
+	}
+
+	private static void deleteChunks(IContext context, Source source, DeployedKnowledgeBase deployedKnowledgeBase, Set<Long> mxObjectIDs) throws CoreException {
+		List<Chunk> chunks = new ArrayList<>(mxObjectIDs.size());
+		for (Long mxObjectID : mxObjectIDs) {
+			KnowledgeBaseChunk chunk = new KnowledgeBaseChunk(context);
+			chunk.setMxObjectID(context, String.valueOf(mxObjectID));
+			chunk.setMxEntity(context, source.entity);
+			chunks.add(chunk);
+		}
+		ChunkCollection chunkCollection = new ChunkCollection(context);
+		chunkCollection.setChunkCollection_Chunk(context, chunks);
+		executeMicroflow(context, source.deleteMicroflow, chunkCollection, chunks, deployedKnowledgeBase);
+		NearDuplicateDetector.removeFromIndex(context, deployedKnowledgeBase, mxObjectIDs.stream().map(String::valueOf).collect(Collectors.toList()));
+	}
+
+	static void executeMicroflow(IContext context, String microflow, ChunkCollection chunkCollection, List<Chunk> chunks,
+			DeployedKnowledgeBase deployedKnowledgeBase) {
+		Map<String, Object> inputParameters = new HashMap<>();
+		Core.getInputParameters(microflow).forEach((name, type) -> {
+			if (isChunkList(type)) {
+				List<IMendixObject> chunkObjects = new ArrayList<>(chunks.size());
+				chunks.forEach(chunk -> chunkObjects.add(chunk.getMendixObject()));
+				inputParameters.put(name, chunkObjects);
+			} else if (type.isMendixObject() && Core.getMetaObject(type.getObjectType()).isSubClassOf(ChunkCollection.getType())) {
+				inputParameters.put(name, chunkCollection.getMendixObject());
+			} else if (type.isMendixObject() && Core.getMetaObject(type.getObjectType()).isSubClassOf(DeployedKnowledgeBase.getType())) {
+				inputParameters.put(name, deployedKnowledgeBase.getMendixObject());
+			}
+		});
+		Object result = Core.microflowCall(microflow).withParams(inputParameters).execute(context);
+		if (Boolean.FALSE.equals(result)) {
+			throw new IllegalStateException("Microflow " + microflow + " did not succeed.");
+		}
+	}
+
+	static void validateDeleteMicroflow(String microflow) {
+		if (microflow == null || microflow.isBlank()) {
+			throw new IllegalArgumentException("Delete microflow is required.");
+		}
+		Map<String, IDataType> inputParameters = Core.getInputParameters(microflow);
+		boolean chunksFound = false;
+		if (inputParameters != null) {
+			for (IDataType type : inputParameters.values()) {
+				if (isChunkList(type) || type.isMendixObject() && Core.getMetaObject(type.getObjectType()).isSubClassOf(ChunkCollection.getType())) {
+					chunksFound = true;
+				}
+			}
+		}
+		if (!chunksFound) {
+			throw new IllegalArgumentException("Microflow " + microflow + " does not exist or has no input parameter of type " + ChunkCollection.getType()
+					+ " or list of " + KnowledgeBaseChunk.getType() + ".");
+		}
+	}
+
+	private static boolean isChunkList(IDataType type) {
+		return type.isList() && KnowledgeBaseChunk.getType().equals(type.getObjectType());
+	}
+
+	private static void validatePersistable(IMendixObject object, String name) {
+		if (!object.getMetaObject().isPersistable()) {
+			throw new IllegalArgumentException(name + " must be persistable, so that the re-embedding worker can retrieve it.");
+		}
+	}
+
+	private static boolean hasChanged(IContext context, IMendixObject object, Source source) {
+		for (String attribute : source.attributes) {
+			if (ORM.memberHasChanged(context, object, attribute)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String getSourceKey(IContext context, String sourceEntity, DeployedKnowledgeBase deployedKnowledgeBase) {
+		return sourceEntity + "|" + RetrievalCache.getKnowledgeBaseKey(context, deployedKnowledgeBase);
+	}
+
+	private static final class Source {
+		private final String key;
+		private final String entity;
+		private final List<String> attributes;
+		private final IMendixIdentifier knowledgeBaseID;
+		private final IMendixIdentifier modelID;
+		private final String replaceMicroflow;
+		private final String deleteMicroflow;
+		private final TextSplitter textSplitter;
+
+		private Source(String key, String entity, List<String> attributes, IMendixIdentifier knowledgeBaseID, IMendixIdentifier modelID,
+				String replaceMicroflow, String deleteMicroflow, TextSplitter textSplitter) {
+			this.key = key;
+			this.entity = entity;
+			this.attributes = attributes;
+			this.knowledgeBaseID = knowledgeBaseID;
+			this.modelID = modelID;
+			this.replaceMicroflow = replaceMicroflow;
+			this.deleteMicroflow = deleteMicroflow;
+			this.textSplitter = textSplitter;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package genaicommons.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+import communitycommons.StringUtils;
+import genaicommons.proxies.Chunk;
+import genaicommons.proxies.ChunkCollection;
+import genaicommons.proxies.KnowledgeBaseChunk;
+import genaicommons.proxies.MetadataCollection;
+import system.proxies.FileDocument;
+
+public class ChunkCollectionImpl {
+
+	/**
+	 * Splits a text, or the plain text contents (UTF-8) of a FileDocument, and adds a KnowledgeBaseChunk per chunk to the ChunkCollection.
+	 * Use this instead of splitting texts in a microflow and calling ChunkCollection_AddKnowledgeBaseChunk per chunk. The contents of
+	 * the FileDocument are read as a stream, so large documents are never loaded as a whole.
+	 * @param inputText the text to split; not needed if a FileDocument is passed
+	 * @param fileDocument optional; split instead of the input text
+	 * @param textSplitter see {@link TextSplitters#create}
+	 * @param humanReadableID optional; the chunks get this ID followed by their sequence number, e.g. "CV John Doe #3"
+	 * @return the number of chunks added
+	 */
+	public static int addTextChunks(IContext context, ChunkCollection chunkCollection, String inputText, FileDocument fileDocument,
+			TextSplitter textSplitter, String humanReadableID, IMendixObject mxObject, MetadataCollection metadataCollection) throws Exception {
+		if (fileDocument == null) {
+			requireNonNull(inputText, "InputText or FileDocument is required.");
+		}
+		try (Reader reader = fileDocument != null
+				? new BufferedReader(new InputStreamReader(Core.getFileDocumentContent(context, fileDocument.getMendixObject()), StandardCharsets.UTF_8))
+				: new StringReader(inputText)) {
+			return addKnowledgeBaseChunks(context, chunkCollection, textSplitter, reader, humanReadableID, mxObject, metadataCollection);
+		}
+	}
+
+	/**
+	 * Splits the text and adds a KnowledgeBaseChunk per chunk to the ChunkCollection. The association is set once for all new
+	 * chunks instead of once per chunk.
+	 * @param humanReadableID optional; the chunks get this ID followed by their sequence number
+	 * @return the number of chunks added
+	 */
+	public static int addKnowledgeBaseChunks(IContext context, ChunkCollection chunkCollection, TextSplitter textSplitter, Reader reader,
+			String humanReadableID, IMendixObject mxObject, MetadataCollection metadataCollection) throws Exception {
+		requireNonNull(chunkCollection, "ChunkCollection is required.");
+		List<Chunk> chunks = new ArrayList<>(chunkCollection.getChunkCollection_Chunk(context));
+		int existing = chunks.size();
+		textSplitter.split(reader, text -> {
+			int sequenceNumber = chunks.size() - existing + 1;
+			chunks.add(createKnowledgeBaseChunk(context, StringUtils.randomHash(),
+					humanReadableID == null ? null : humanReadableID + " #" + sequenceNumber, text, mxObject, metadataCollection));
+		});
+		chunkCollection.setChunkCollection_Chunk(context, chunks);
+		return chunks.size() - existing;
+	}
+
+	public static KnowledgeBaseChunk createKnowledgeBaseChunk(IContext context, String chunkID, String humanReadableID, String inputText,
+			IMendixObject mxObject, MetadataCollection metadataCollection) {
+		KnowledgeBaseChunk kbChunk = new KnowledgeBaseChunk(context);
+		kbChunk.setChunkID(context, chunkID);
+		kbChunk.setHumanReadableID(context, humanReadableID);
+		kbChunk.setInputText(context, inputText);
+		kbChunk.setMxObjectID(context, mxObject == null ? null : String.valueOf(mxObject.getId().toLong()));
+		kbChunk.setMxEntity(context, mxObject == null ? null : mxObject.getType());
+		kbChunk.setKnowledgeBaseChunk_MetadataCollection(context, metadataCollection);
+		return kbChunk;
+	}
+}
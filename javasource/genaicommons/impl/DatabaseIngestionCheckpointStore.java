@@ -0,0 +1,58 @@
+package genaicommons.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import communitycommons.RawTable;
+
+/**
+ * Stores ingestion checkpoints in the application database, so that they survive a restart of the runtime and are shared
+ * between cluster nodes. The table is not part of the domain model; it is created on first use with plain SQL that all
+ * supported database vendors understand.
+ */
+public class DatabaseIngestionCheckpointStore implements IngestionCheckpointStore {
+
+	private static final String TABLE_NAME = "genaicommons_ingestioncheckpoint";
+	private static final SqlUpsert UPSERT = new SqlUpsert(TABLE_NAME, List.of("jobid", "documentkey"), List.of());
+	private static final RawTable TABLE = new RawTable(TABLE_NAME, "ingestion checkpoints",
+			"CREATE TABLE " + TABLE_NAME
+				+ " (jobid VARCHAR(200) NOT NULL, documentkey VARCHAR(200) NOT NULL, PRIMARY KEY (jobid, documentkey))");
+
+	@Override
+	public Set<String> getCompletedDocuments(String jobID) {
+		return TABLE.execute(connection -> {
+			Set<String> documentKeys = new HashSet<>();
+			try (PreparedStatement statement = connection.prepareStatement("SELECT documentkey FROM " + TABLE_NAME + " WHERE jobid = ?")) {
+				statement.setString(1, jobID);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						documentKeys.add(resultSet.getString(1));
+					}
+				}
+			}
+			return documentKeys;
+		});
+	}
+
+	@Override
+	public void markCompleted(String jobID, String documentKey) {
+		TABLE.execute(connection -> {
+			UPSERT.execute(connection, jobID, documentKey);
+			return null;
+		});
+	}
+
+	@Override
+	public void clear(String jobID) {
+		TABLE.execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE jobid = ?")) {
+				statement.setString(1, jobID);
+				statement.executeUpdate();
+			}
+			return null;
+		});
+	}
+}
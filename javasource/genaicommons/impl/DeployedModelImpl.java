@@ -2,10 +2,14 @@ package genaicommons.impl;
 
 import static java.util.Objects.requireNonNull;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
 
 import genaicommons.proxies.ChunkCollection;
 import genaicommons.proxies.DeployedModel;
@@ -15,6 +19,7 @@ import genaicommons.proxies.EmbeddingsResponse;
 import genaicommons.proxies.ImageOptions;
 import genaicommons.proxies.Request;
 import genaicommons.proxies.Response;
+import genaicommons.proxies.microflows.Microflows;
 
 public class DeployedModelImpl {
 	
@@ -43,6 +48,43 @@ public class DeployedModelImpl {
 		}
 	}
 	
+	/**
+	 * Executes the embeddings microflow of the DeployedModel for the ChunkCollection, stores the duration on the response and,
+	 * if enabled, the usage metrics. The DeployedModel is expected to be validated already.
+	 */
+	public static EmbeddingsResponse executeEmbeddings(IContext context, DeployedModel deployedModel, ChunkCollection chunkCollection,
+			EmbeddingsOptions embeddingsOptions) throws CoreException {
+		long startTime = System.currentTimeMillis();
+		
+		IMendixObject responseMendixObject = Core.microflowCall(deployedModel.getMicroflow())
+				.withParams(mapEmbeddingsInputParameters(deployedModel, chunkCollection, embeddingsOptions))
+				.execute(context);
+		
+		EmbeddingsResponse embeddingsResponse = EmbeddingsResponse.load(context, responseMendixObject.getId());
+		embeddingsResponse.setDurationMilliseconds(context, (int) Math.ceil(System.currentTimeMillis() - startTime));
+		if (genaicommons.proxies.constants.Constants.getStoreUsageMetrics()) {
+			Microflows.usage_Create_Embeddings(context, embeddingsResponse, deployedModel);
+		}
+		return embeddingsResponse;
+	}
+	
+	private static Map<String, Object> mapEmbeddingsInputParameters(DeployedModel deployedModel, ChunkCollection chunkCollection,
+			EmbeddingsOptions embeddingsOptions) {
+		Map<String, Object> inputParameters = new HashMap<>();
+		Map<String, IDataType> parametersAndTypes = Core.getInputParameters(deployedModel.getMicroflow());
+		parametersAndTypes.forEach((t, u) -> {
+			if(Core.getMetaObject(u.getObjectType()).isSubClassOf(DeployedModel.getType())) {
+				inputParameters.put(t, deployedModel.getMendixObject());
+			} else if(Core.getMetaObject(u.getObjectType()).isSubClassOf(ChunkCollection.getType())) {
+				inputParameters.put(t, chunkCollection.getMendixObject());
+			} else if(embeddingsOptions != null && Core.getMetaObject(u.getObjectType()).isSubClassOf(EmbeddingsOptions.getType())) {
+				inputParameters.put(t, embeddingsOptions.getMendixObject());
+			}
+		}
+		);
+		return inputParameters;
+	}
+	
 	private static void validateChatCompletionsMicroflow(String chatCompletionsMicroflow) {
 		if (chatCompletionsMicroflow == null || chatCompletionsMicroflow.isBlank()) {
 			throw new IllegalArgumentException("Chat Completions Microflow is required.");
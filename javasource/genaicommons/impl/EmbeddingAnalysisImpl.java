@@ -0,0 +1,131 @@
+package genaicommons.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mendix.core.Core;
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive;
+import com.mendix.systemwideinterfaces.core.meta.IMetaPrimitive.PrimitiveType;
+
+/**
+ * Clustering and 2-D projection of the embedding vectors stored in a string attribute of a list of objects. Vectors are decoded
+ * once into {@link PackedVectors}; results are written back to the objects afterwards and persistable objects are committed
+ * in one call.
+ */
+public class EmbeddingAnalysisImpl {
+
+	private static final MxLogger LOGGER = new MxLogger(EmbeddingAnalysisImpl.class);
+	private static final long SEED = 42;
+
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	public static final int DEFAULT_ITERATIONS = 100;
+	public static final int DEFAULT_NEIGHBORS = 15;
+	public static final int DEFAULT_EPOCHS = 200;
+
+	/**
+	 * Clusters objects on their embedding vectors with mini-batch k-means (k-means++ initialization, multithreaded) and stores the
+	 * cluster number (0 to numberOfClusters - 1) on every object. Vectors are compared on cosine similarity. Persistable objects are committed.
+	 * @param vectorAttribute name of the String attribute that contains the embedding vector, e.g. EmbeddingVector
+	 * @param clusterAttribute name of the Integer, Long, Decimal or String attribute the cluster number is stored in
+	 * @param batchSize number of random vectors per iteration, e.g. {@link #DEFAULT_BATCH_SIZE}
+	 * @param iterations number of mini-batch iterations, e.g. {@link #DEFAULT_ITERATIONS}
+	 * @return the inertia of the clustering
+	 */
+	public static double cluster(IContext context, List<IMendixObject> objects, String vectorAttribute, String clusterAttribute,
+			int numberOfClusters, int batchSize, int iterations) throws CoreException {
+		PrimitiveType clusterType = requireAttribute(objects, clusterAttribute);
+		PackedVectors vectors = readVectors(context, objects, vectorAttribute);
+		long start = System.currentTimeMillis();
+		MiniBatchKMeans kMeans = new MiniBatchKMeans(numberOfClusters, batchSize, iterations, SEED).fit(vectors);
+		int[] labels = kMeans.getLabels();
+		for (int i = 0; i < objects.size(); i++) {
+			objects.get(i).setValue(context, clusterAttribute, toValue(clusterType, labels[i]));
+		}
+		commit(context, objects);
+		LOGGER.info("Clustered " + vectors.size() + " vectors into " + numberOfClusters + " clusters in " + (System.currentTimeMillis() - start)
+				+ " ms, inertia " + kMeans.getInertia() + ".");
+		return kMeans.getInertia();
+	}
+
+	/**
+	 * Projects the embedding vectors of objects to two dimensions for visualization, e.g. in a scatter chart, and stores the
+	 * coordinates on every object. Objects with similar vectors end up close to each other. The projection follows UMAP: a neighbor
+	 * graph (approximate for large lists) is laid out with multithreaded stochastic gradient descent. Persistable objects are committed.
+	 * @param xAttribute name of the Decimal (or String) attribute the x coordinate is stored in
+	 * @param yAttribute name of the Decimal (or String) attribute the y coordinate is stored in
+	 * @param neighbors size of the neighborhood that is preserved, e.g. {@link #DEFAULT_NEIGHBORS}; larger values favor the global
+	 *                  structure
+	 * @param epochs number of optimization rounds, e.g. {@link #DEFAULT_EPOCHS}
+	 */
+	public static void project(IContext context, List<IMendixObject> objects, String vectorAttribute, String xAttribute, String yAttribute,
+			int neighbors, int epochs) throws CoreException {
+		PrimitiveType xType = requireAttribute(objects, xAttribute);
+		PrimitiveType yType = requireAttribute(objects, yAttribute);
+		PackedVectors vectors = readVectors(context, objects, vectorAttribute);
+		long start = System.currentTimeMillis();
+		float[] layout = new EmbeddingProjection(neighbors, epochs, SEED).project(vectors);
+		for (int i = 0; i < objects.size(); i++) {
+			objects.get(i).setValue(context, xAttribute, toValue(xType, layout[2 * i]));
+			objects.get(i).setValue(context, yAttribute, toValue(yType, layout[2 * i + 1]));
+		}
+		commit(context, objects);
+		LOGGER.info("Projected " + vectors.size() + " vectors to 2 dimensions in " + (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	private static PackedVectors readVectors(IContext context, List<IMendixObject> objects, String vectorAttribute) {
+		requireAttribute(objects, vectorAttribute);
+		List<String> vectors = new ArrayList<>(objects.size());
+		for (IMendixObject object : objects) {
+			String vector = object.getValue(context, vectorAttribute);
+			requireNonNull(vector, "Object " + object.getId().toLong() + " has no value for " + vectorAttribute + ".");
+			vectors.add(vector);
+		}
+		return PackedVectors.fromStrings(vectors);
+	}
+
+	private static PrimitiveType requireAttribute(List<IMendixObject> objects, String attribute) {
+		requireNonNull(objects, "ObjectList is required.");
+		if (attribute == null || attribute.isBlank()) {
+			throw new IllegalArgumentException("Attribute name is required.");
+		}
+		if (!objects.isEmpty()) {
+			IMetaPrimitive metaPrimitive = objects.get(0).getMetaObject().getMetaPrimitive(attribute);
+			if (metaPrimitive == null) {
+				throw new IllegalArgumentException("Entity " + objects.get(0).getType() + " has no attribute " + attribute + ".");
+			}
+			return metaPrimitive.getType();
+		}
+		return null;
+	}
+
+	// converts the result to the type of the attribute it is written to
+	private static Object toValue(PrimitiveType type, Number value) {
+		if (type == null) {
+			return value;
+		}
+		switch (type) {
+		case Integer:
+			return value.intValue();
+		case Long:
+			return value.longValue();
+		case Decimal:
+			return new BigDecimal(value.toString());
+		case String:
+			return value.toString();
+		default:
+			throw new IllegalArgumentException("Attributes of type " + type + " cannot hold the result; use an Integer, Long, Decimal or String attribute.");
+		}
+	}
+
+	private static void commit(IContext context, List<IMendixObject> objects) throws CoreException {
+		if (!objects.isEmpty() && objects.get(0).getMetaObject().isPersistable()) {
+			Core.commit(context, objects);
+		}
+	}
+}
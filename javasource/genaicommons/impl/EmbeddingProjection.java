@@ -0,0 +1,228 @@
+package genaicommons.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Projects packed vectors to two dimensions for visualization, following the approach of UMAP:
+ * 1. the k nearest neighbors of every vector are determined, exactly for small sets and otherwise approximately by only
+ *    searching the vectors in the nearest k-means cells (an inverted file index built with {@link MiniBatchKMeans});
+ * 2. neighbor distances are turned into edge weights exp(-(d - rho) / sigma), where rho is the distance to the nearest neighbor
+ *    and sigma is chosen so that the weights of a vector sum up to log2(k);
+ * 3. a layout, initialized with a random projection of the vectors, is optimized with stochastic gradient descent that pulls
+ *    neighbors together along the edges and pushes randomly sampled (negative) vectors apart. Epochs are processed in parallel
+ *    without locking, like the reference implementation.
+ * Unlike UMAP, the neighbor graph is not symmetrized, which saves memory and makes no visible difference for embeddings.
+ */
+public class EmbeddingProjection {
+
+	private static final int EXACT_NEIGHBORS_LIMIT = 5000;
+	private static final int PROBED_CELLS = 4;
+	private static final int NEGATIVE_SAMPLES = 5;
+	// curve parameters for a minimum distance of 0.1 between points in the layout
+	private static final float A = 1.577f;
+	private static final float B = 0.895f;
+	private static final float GRADIENT_CLIP = 4f;
+	private static final float INITIAL_SPREAD = 10f;
+
+	private final int neighbors;
+	private final int epochs;
+	private final long seed;
+
+	public EmbeddingProjection(int neighbors, int epochs, long seed) {
+		this.neighbors = Math.max(2, neighbors);
+		this.epochs = Math.max(1, epochs);
+		this.seed = seed;
+	}
+
+	/**
+	 * @return x and y per vector: [x0, y0, x1, y1, ...]
+	 */
+	public float[] project(PackedVectors vectors) {
+		int n = vectors.size();
+		float[] layout = initialize(vectors);
+		if (n <= neighbors) {
+			return layout;
+		}
+		int[][] neighborIndices = new int[n][];
+		float[][] neighborDistances = new float[n][];
+		findNeighbors(vectors, neighborIndices, neighborDistances);
+		float[][] weights = computeWeights(neighborDistances);
+		optimize(layout, neighborIndices, weights);
+		return layout;
+	}
+
+	private void findNeighbors(PackedVectors vectors, int[][] neighborIndices, float[][] neighborDistances) {
+		int n = vectors.size();
+		if (n <= EXACT_NEIGHBORS_LIMIT) {
+			int[] all = IntStream.range(0, n).toArray();
+			IntStream.range(0, n).parallel().forEach(i -> searchNeighbors(vectors, i, List.of(all), neighborIndices, neighborDistances));
+			return;
+		}
+		int cells = (int) Math.ceil(Math.sqrt(n));
+		MiniBatchKMeans kMeans = new MiniBatchKMeans(cells, Math.min(n, 10 * cells), 50, seed).fit(vectors);
+		List<List<Integer>> members = new ArrayList<>(cells);
+		for (int c = 0; c < cells; c++) {
+			members.add(new ArrayList<>());
+		}
+		int[] labels = kMeans.getLabels();
+		for (int i = 0; i < n; i++) {
+			members.get(labels[i]).add(i);
+		}
+		int[][] cellMembers = members.stream().map(m -> m.stream().mapToInt(Integer::intValue).toArray()).toArray(int[][]::new);
+		IntStream.range(0, n).parallel().forEach(i -> {
+			List<int[]> candidates = new ArrayList<>(PROBED_CELLS);
+			for (int cell : kMeans.nearestCenters(vectors, i, PROBED_CELLS)) {
+				candidates.add(cellMembers[cell]);
+			}
+			searchNeighbors(vectors, i, candidates, neighborIndices, neighborDistances);
+		});
+	}
+
+	private void searchNeighbors(PackedVectors vectors, int i, List<int[]> candidates, int[][] neighborIndices, float[][] neighborDistances) {
+		// bounded max-heap on distance
+		PriorityQueue<float[]> heap = new PriorityQueue<>(neighbors + 1, (a, b) -> Float.compare(b[1], a[1]));
+		for (int[] cell : candidates) {
+			for (int j : cell) {
+				if (j == i) {
+					continue;
+				}
+				float distance = (float) Math.sqrt(Math.max(0f, vectors.distanceSquared(i, j)));
+				if (heap.size() < neighbors) {
+					heap.add(new float[] { j, distance });
+				} else if (distance < heap.peek()[1]) {
+					heap.poll();
+					heap.add(new float[] { j, distance });
+				}
+			}
+		}
+		int count = heap.size();
+		neighborIndices[i] = new int[count];
+		neighborDistances[i] = new float[count];
+		for (int r = count - 1; r >= 0; r--) {
+			float[] neighbor = heap.poll();
+			neighborIndices[i][r] = (int) neighbor[0];
+			neighborDistances[i][r] = neighbor[1];
+		}
+	}
+
+	private float[][] computeWeights(float[][] neighborDistances) {
+		double target = Math.log(neighbors) / Math.log(2);
+		float[][] weights = new float[neighborDistances.length][];
+		IntStream.range(0, neighborDistances.length).parallel().forEach(i -> {
+			float[] distances = neighborDistances[i];
+			float rho = distances.length == 0 ? 0 : distances[0];
+			// binary search for sigma
+			double low = 0;
+			double high = Double.MAX_VALUE;
+			double sigma = 1;
+			for (int step = 0; step < 64; step++) {
+				double sum = 0;
+				for (float distance : distances) {
+					sum += Math.exp(-Math.max(0, distance - rho) / sigma);
+				}
+				if (Math.abs(sum - target) < 1e-5) {
+					break;
+				}
+				if (sum > target) {
+					high = sigma;
+					sigma = (low + high) / 2;
+				} else {
+					low = sigma;
+					sigma = high == Double.MAX_VALUE ? sigma * 2 : (low + high) / 2;
+				}
+			}
+			weights[i] = new float[distances.length];
+			for (int r = 0; r < distances.length; r++) {
+				weights[i][r] = (float) Math.exp(-Math.max(0, distances[r] - rho) / sigma);
+			}
+		});
+		return weights;
+	}
+
+	private void optimize(float[] layout, int[][] neighborIndices, float[][] weights) {
+		int n = neighborIndices.length;
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			float learningRate = 1f - (float) epoch / epochs;
+			long epochSeed = seed + epoch;
+			IntStream.range(0, n).parallel().forEach(i -> {
+				SplittableRandom random = new SplittableRandom(epochSeed * 31 + i);
+				for (int r = 0; r < neighborIndices[i].length; r++) {
+					// edges are sampled proportional to their weight
+					if (random.nextFloat() > weights[i][r]) {
+						continue;
+					}
+					int j = neighborIndices[i][r];
+					applyGradient(layout, i, j, true, learningRate);
+					for (int s = 0; s < NEGATIVE_SAMPLES; s++) {
+						int negative = random.nextInt(n);
+						if (negative != i) {
+							applyGradient(layout, i, negative, false, learningRate);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	private static void applyGradient(float[] layout, int i, int j, boolean attractive, float learningRate) {
+		float dx = layout[2 * i] - layout[2 * j];
+		float dy = layout[2 * i + 1] - layout[2 * j + 1];
+		float distanceSquared = dx * dx + dy * dy;
+		float coefficient;
+		if (attractive) {
+			if (distanceSquared <= 0) {
+				return;
+			}
+			coefficient = (float) (-2 * A * B * Math.pow(distanceSquared, B - 1) / (1 + A * Math.pow(distanceSquared, B)));
+		} else {
+			coefficient = (float) (2 * B / ((0.001 + distanceSquared) * (1 + A * Math.pow(distanceSquared, B))));
+		}
+		float gx = clip(coefficient * dx) * learningRate;
+		float gy = clip(coefficient * dy) * learningRate;
+		layout[2 * i] += gx;
+		layout[2 * i + 1] += gy;
+		if (attractive) {
+			layout[2 * j] -= gx;
+			layout[2 * j + 1] -= gy;
+		}
+	}
+
+	private static float clip(float value) {
+		return Math.max(-GRADIENT_CLIP, Math.min(GRADIENT_CLIP, value));
+	}
+
+	// random projection on two gaussian directions, scaled to [-INITIAL_SPREAD, INITIAL_SPREAD]
+	private float[] initialize(PackedVectors vectors) {
+		int n = vectors.size();
+		int dimensions = vectors.getDimensions();
+		SplittableRandom random = new SplittableRandom(seed);
+		float[] directions = new float[2 * dimensions];
+		for (int d = 0; d < directions.length; d++) {
+			directions[d] = (float) gaussian(random);
+		}
+		float[] layout = new float[2 * n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			layout[2 * i] = vectors.dot(i, directions, 0);
+			layout[2 * i + 1] = vectors.dot(i, directions, dimensions);
+		});
+		float max = 0;
+		for (float value : layout) {
+			max = Math.max(max, Math.abs(value));
+		}
+		if (max > 0) {
+			for (int v = 0; v < layout.length; v++) {
+				layout[v] = layout[v] / max * INITIAL_SPREAD;
+			}
+		}
+		return layout;
+	}
+
+	private static double gaussian(SplittableRandom random) {
+		// Box-Muller
+		return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+	}
+}
@@ -0,0 +1,78 @@
+package genaicommons.impl;
+
+import java.io.Reader;
+
+/**
+ * Splits text into chunks of at most ChunkSize characters. A chunk ends at the last whitespace in its second half if there is one,
+ * so that words are not cut. Consecutive chunks share up to ChunkOverlap characters, starting at a word.
+ */
+public class FixedSizeTextSplitter implements TextSplitter {
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final int chunkSize;
+	private final int chunkOverlap;
+
+	public FixedSizeTextSplitter(int chunkSize, int chunkOverlap) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("ChunkSize must be larger than 0.");
+		}
+		if (chunkOverlap < 0 || chunkOverlap >= chunkSize) {
+			throw new IllegalArgumentException("ChunkOverlap must be at least 0 and smaller than ChunkSize.");
+		}
+		this.chunkSize = chunkSize;
+		this.chunkOverlap = chunkOverlap;
+	}
+
+	@Override
+	public void split(Reader reader, ChunkConsumer consumer) throws Exception {
+		StringBuilder buffer = new StringBuilder(chunkSize * 2);
+		char[] readBuffer = new char[READ_BUFFER_SIZE];
+		// number of characters at the start of the buffer that were already part of the previous chunk
+		int carried = 0;
+		int read;
+		while ((read = reader.read(readBuffer)) != -1) {
+			buffer.append(readBuffer, 0, read);
+			while (buffer.length() >= chunkSize) {
+				int end = findEnd(buffer);
+				emit(buffer.substring(0, end), consumer);
+				int next = findNextStart(buffer, end);
+				buffer.delete(0, next);
+				carried = end - next;
+			}
+		}
+		if (buffer.length() > carried) {
+			emit(buffer.toString(), consumer);
+		}
+	}
+
+	private int findEnd(StringBuilder buffer) {
+		for (int i = chunkSize; i > chunkSize / 2; i--) {
+			if (Character.isWhitespace(buffer.charAt(i - 1))) {
+				return i;
+			}
+		}
+		return chunkSize;
+	}
+
+	private int findNextStart(StringBuilder buffer, int end) {
+		if (chunkOverlap == 0) {
+			return end;
+		}
+		// the overlap starts at a word, and every chunk must advance at least one character; without a word start there is no overlap
+		int start = Math.max(1, end - chunkOverlap);
+		for (int i = start; i < end; i++) {
+			if (Character.isWhitespace(buffer.charAt(i - 1)) && !Character.isWhitespace(buffer.charAt(i))) {
+				return i;
+			}
+		}
+		return end;
+	}
+
+	private static void emit(String chunk, ChunkConsumer consumer) throws Exception {
+		String trimmed = chunk.strip();
+		if (!trimmed.isEmpty()) {
+			consumer.accept(trimmed);
+		}
+	}
+}
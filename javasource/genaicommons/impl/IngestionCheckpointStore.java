@@ -0,0 +1,19 @@
+package genaicommons.impl;
+
+import java.util.Set;
+
+/**
+ * Keeps track of the documents that an ingestion job has completely written to the knowledge base,
+ * so that an interrupted job can be resumed without processing those documents again.
+ */
+public interface IngestionCheckpointStore {
+
+	Set<String> getCompletedDocuments(String jobID) throws Exception;
+
+	void markCompleted(String jobID, String documentKey) throws Exception;
+
+	/**
+	 * Removes all checkpoints of the job; called when the job finished successfully.
+	 */
+	void clear(String jobID) throws Exception;
+}
@@ -0,0 +1,561 @@
+package genaicommons.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IDataType;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+
+import genaicommons.proxies.Chunk;
+import genaicommons.proxies.ChunkCollection;
+import genaicommons.proxies.DeployedKnowledgeBase;
+import genaicommons.proxies.DeployedModel;
+import genaicommons.proxies.ENUM_ModelModality;
+import genaicommons.proxies.KnowledgeBaseChunk;
+import genaicommons.proxies.MetadataCollection;
+import system.proxies.FileDocument;
+
+/**
+ * Streams FileDocuments into a knowledge base in three stages that run concurrently:
+ * - chunking: reads the document contents (UTF-8 text) and splits them with a {@link TextSplitter};
+ * - embedding: groups the chunks of a document into batches and calls the embeddings microflow of the DeployedModel once per batch;
+ * - upsert: passes every batch to the insert microflow of the knowledge base connector (for example PgVectorKnowledgeBase.ChunkCollection_Insert).
+ * The stages are connected by bounded queues, so a slow stage makes the previous stages wait instead of buffering whole documents in memory.
+ *
+ * With a near duplicate threshold, chunks are checked against the chunks of the knowledge base and the chunks kept earlier in the run,
+ * and are added to the near duplicate index of the knowledge base once they are written. With a replace microflow, the chunks of
+ * the earlier ingestion of the same document are not considered, since they are replaced.
+ *
+ * Chunks are added with the FileDocument as MxObject. If a replace microflow is set (for example PgVectorKnowledgeBase.ChunkCollection_Replace),
+ * it is used for the first batch of every document, so that chunks of an earlier ingestion of the same document are removed. A document
+ * that no longer yields any chunks has no first batch; its earlier chunks are removed with the delete microflow instead.
+ *
+ * With a job ID, every document that has been completely written to the knowledge base is checkpointed; running the job again after an
+ * interruption skips those documents. A document that was interrupted halfway is processed again from the start, which is why a replace
+ * microflow should be configured for resumable jobs. Checkpoints of a job are removed once it completes.
+ *
+ * When a stage fails, the other stages stop; the exception of the failing stage is thrown, with the exceptions of the stopped stages
+ * added as suppressed exceptions.
+ */
+public class IngestionPipeline {
+
+	private static final MxLogger LOGGER = new MxLogger(IngestionPipeline.class);
+	private static final int DEFAULT_EMBEDDING_BATCH_SIZE = 16;
+	private static final int DEFAULT_QUEUE_CAPACITY = 64;
+	private static final long POLL_INTERVAL_MILLIS = 500;
+
+	private final DeployedModel deployedModel;
+	private final DeployedKnowledgeBase deployedKnowledgeBase;
+	private final String insertMicroflow;
+	private final TextSplitter textSplitter;
+	private String replaceMicroflow;
+	private String deleteMicroflow;
+	private MetadataCollection metadataCollection;
+	private int embeddingBatchSize = DEFAULT_EMBEDDING_BATCH_SIZE;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private IngestionCheckpointStore checkpointStore;
+	private BigDecimal nearDuplicateThreshold;
+
+	private volatile boolean aborted = false;
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	public IngestionPipeline(DeployedModel deployedModel, DeployedKnowledgeBase deployedKnowledgeBase, String insertMicroflow, TextSplitter textSplitter) {
+		DeployedModelImpl.validate(deployedModel, ENUM_ModelModality.Embeddings);
+		this.deployedModel = deployedModel;
+		this.deployedKnowledgeBase = requireNonNull(deployedKnowledgeBase, "DeployedKnowledgeBase is required.");
+		this.insertMicroflow = validateUpsertMicroflow(insertMicroflow);
+		this.textSplitter = requireNonNull(textSplitter, "TextSplitter is required.");
+	}
+
+	/**
+	 * @param replaceMicroflow used instead of the insert microflow for the first batch of every document
+	 * @param deleteMicroflow receives the chunks of documents that no longer yield any chunks (only MxObjectID and MxEntity are set), as
+	 *            ChunkCollection or as list of KnowledgeBaseChunks; required with a replace microflow
+	 */
+	public IngestionPipeline setReplaceMicroflow(String replaceMicroflow, String deleteMicroflow) {
+		if (replaceMicroflow == null || replaceMicroflow.isBlank()) {
+			this.replaceMicroflow = null;
+			this.deleteMicroflow = null;
+		} else {
+			ChangeCapture.validateDeleteMicroflow(deleteMicroflow);
+			this.replaceMicroflow = validateUpsertMicroflow(replaceMicroflow);
+			this.deleteMicroflow = deleteMicroflow;
+		}
+		return this;
+	}
+
+	/**
+	 * Metadata that is added to every chunk.
+	 */
+	public IngestionPipeline setMetadataCollection(MetadataCollection metadataCollection) {
+		this.metadataCollection = metadataCollection;
+		return this;
+	}
+
+	public IngestionPipeline setEmbeddingBatchSize(int embeddingBatchSize) {
+		if (embeddingBatchSize > 0) {
+			this.embeddingBatchSize = embeddingBatchSize;
+		}
+		return this;
+	}
+
+	/**
+	 * Maximum number of items waiting between two stages.
+	 */
+	public IngestionPipeline setQueueCapacity(int queueCapacity) {
+		if (queueCapacity > 0) {
+			this.queueCapacity = queueCapacity;
+		}
+		return this;
+	}
+
+	/**
+	 * Chunks with at least this estimated similarity to an earlier chunk or to a chunk in the knowledge base are dropped before
+	 * they are embedded, see {@link NearDuplicateDetector}. Null (the default) keeps all chunks.
+	 */
+	public IngestionPipeline setNearDuplicateThreshold(BigDecimal nearDuplicateThreshold) {
+		this.nearDuplicateThreshold = nearDuplicateThreshold == null || nearDuplicateThreshold.signum() == 0 ? null : nearDuplicateThreshold;
+		return this;
+	}
+
+	public IngestionPipeline setCheckpointStore(IngestionCheckpointStore checkpointStore) {
+		this.checkpointStore = checkpointStore;
+		return this;
+	}
+
+	/**
+	 * Runs the pipeline for the documents and returns the statistics per stage. The upsert stage runs in the calling thread,
+	 * chunking and embedding run in their own threads with a clone of the context.
+	 * @param jobID identifies the job for checkpointing; without job ID (or checkpoint store) nothing is checkpointed
+	 */
+	public IngestionReport run(IContext context, String jobID, List<FileDocument> fileDocuments) throws Exception {
+		requireNonNull(fileDocuments, "FileDocumentList is required.");
+		boolean checkpointing = jobID != null && !jobID.isBlank() && checkpointStore != null;
+		Set<String> completedDocuments = checkpointing ? checkpointStore.getCompletedDocuments(jobID) : Collections.emptySet();
+
+		List<FileDocument> documents = new ArrayList<>(fileDocuments.size());
+		for (FileDocument fileDocument : fileDocuments) {
+			if (!completedDocuments.contains(getDocumentKey(fileDocument))) {
+				documents.add(fileDocument);
+			}
+		}
+		IngestionReport report = new IngestionReport(fileDocuments.size() - documents.size());
+		if (report.skippedDocuments > 0) {
+			LOGGER.info("Ingestion job " + jobID + " resumed; " + report.skippedDocuments + " documents were already completed.");
+		}
+
+		aborted = false;
+		failure.set(null);
+		BlockingQueue<Item> chunkQueue = new ArrayBlockingQueue<>(queueCapacity);
+		BlockingQueue<Item> batchQueue = new ArrayBlockingQueue<>(queueCapacity);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> chunking = executor.submit(() -> {
+				runStage(report.chunking, () -> chunk(context.createClone(), documents, chunkQueue, report.chunking));
+				return null;
+			});
+			Future<?> embedding = executor.submit(() -> {
+				runStage(report.embedding, () -> embed(context.createClone(), documents, chunkQueue, batchQueue, report));
+				return null;
+			});
+			List<Exception> exceptions = new ArrayList<>();
+			try {
+				runStage(report.upsert, () -> upsert(context, jobID, checkpointing, documents, batchQueue, report));
+			} catch (Exception e) {
+				exceptions.add(e);
+			} finally {
+				if (report.upsert.items.get() > 0 || report.deletedDocuments.get() > 0) {
+					RetrievalCache.invalidate(context, deployedKnowledgeBase);
+				}
+			}
+			for (Future<?> stage : List.of(chunking, embedding)) {
+				try {
+					stage.get();
+				} catch (ExecutionException e) {
+					exceptions.add(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+				}
+			}
+			if (!exceptions.isEmpty()) {
+				throw getFailure(exceptions);
+			}
+		} catch (Exception e) {
+			aborted = true;
+			throw e;
+		} finally {
+			executor.shutdownNow();
+			report.finish();
+		}
+
+		if (checkpointing) {
+			checkpointStore.clear(jobID);
+		}
+		LOGGER.info(report.toString());
+		return report;
+	}
+
+	private void chunk(IContext context, List<FileDocument> documents, BlockingQueue<Item> output, StageStatistics statistics) throws Exception {
+		for (int documentIndex = 0; documentIndex < documents.size(); documentIndex++) {
+			FileDocument fileDocument = documents.get(documentIndex);
+			if (Boolean.TRUE.equals(fileDocument.getHasContents(context))) {
+				int index = documentIndex;
+				int[] chunkIndex = { 0 };
+				// time spent waiting for the embedding stage is not counted as busy time
+				long[] busySince = { System.nanoTime() };
+				try (Reader reader = new BufferedReader(new InputStreamReader(
+						Core.getFileDocumentContent(context, fileDocument.getMendixObject()), StandardCharsets.UTF_8))) {
+					textSplitter.split(reader, chunk -> {
+						statistics.addBusyTime(System.nanoTime() - busySince[0]);
+						statistics.items.incrementAndGet();
+						put(output, Item.chunk(index, chunkIndex[0]++, chunk));
+						busySince[0] = System.nanoTime();
+					});
+				}
+				statistics.addBusyTime(System.nanoTime() - busySince[0]);
+			}
+			put(output, Item.documentEnd(documentIndex));
+		}
+		put(output, Item.END);
+	}
+
+	private void embed(IContext context, List<FileDocument> documents, BlockingQueue<Item> input, BlockingQueue<Item> output, IngestionReport report) throws Exception {
+		StageStatistics statistics = report.embedding;
+		List<Item> batch = new ArrayList<>(embeddingBatchSize);
+		int lastBatchDocumentIndex = -1;
+		// the chunks kept in this run, which are not in the index of the knowledge base until they are written
+		MinHashLshIndex batchIndex = new MinHashLshIndex();
+		Item item;
+		while ((item = take(input)) != Item.END) {
+			if (item.text != null) {
+				batch.add(item);
+				if (batch.size() < embeddingBatchSize) {
+					continue;
+				}
+			}
+			if (!batch.isEmpty()) {
+				long start = System.nanoTime();
+				ChunkCollection chunkCollection = createChunkCollection(context, documents, batch);
+				int size = batch.size();
+				if (nearDuplicateThreshold != null) {
+					int duplicates = NearDuplicateDetector.removeNearDuplicates(context, chunkCollection, deployedKnowledgeBase, nearDuplicateThreshold,
+							false, batchIndex, replaceMicroflow != null);
+					report.duplicates.addAndGet(duplicates);
+					size -= duplicates;
+				}
+				if (size > 0) {
+					DeployedModelImpl.executeEmbeddings(context, deployedModel, chunkCollection, null);
+				}
+				statistics.addBusyTime(System.nanoTime() - start);
+				statistics.items.addAndGet(batch.size());
+				int documentIndex = batch.get(0).documentIndex;
+				if (size > 0) {
+					put(output, Item.batch(documentIndex, documentIndex != lastBatchDocumentIndex, chunkCollection, size));
+					lastBatchDocumentIndex = documentIndex;
+				}
+				batch = new ArrayList<>(embeddingBatchSize);
+			}
+			if (item.text == null) {
+				// batches never span documents, so that a document is only checkpointed after all of its chunks are written
+				put(output, item);
+			}
+		}
+		put(output, Item.END);
+	}
+
+	private void upsert(IContext context, String jobID, boolean checkpointing, List<FileDocument> documents, BlockingQueue<Item> input,
+			IngestionReport report) throws Exception {
+		int lastBatchDocumentIndex = -1;
+		Item item;
+		while ((item = take(input)) != Item.END) {
+			long start = System.nanoTime();
+			if (item.chunkCollection != null) {
+				lastBatchDocumentIndex = item.documentIndex;
+				String microflow = item.firstBatch && replaceMicroflow != null ? replaceMicroflow : insertMicroflow;
+				Object result = Core.microflowCall(microflow).withParams(mapUpsertParameters(microflow, item.chunkCollection)).execute(context);
+				if (Boolean.FALSE.equals(result)) {
+					throw new IllegalStateException("Microflow " + microflow + " did not succeed for document " + documents.get(item.documentIndex).getName(context) + ".");
+				}
+				if (nearDuplicateThreshold != null) {
+					List<Chunk> chunks = item.chunkCollection.getChunkCollection_Chunk(context);
+					if (microflow.equals(replaceMicroflow)) {
+						NearDuplicateDetector.replaceInIndex(context, deployedKnowledgeBase, chunks);
+					} else {
+						NearDuplicateDetector.addToIndex(context, deployedKnowledgeBase, chunks);
+					}
+				}
+				report.upsert.items.addAndGet(item.size);
+			} else {
+				if (replaceMicroflow != null && item.documentIndex != lastBatchDocumentIndex) {
+					deleteChunks(context, documents.get(item.documentIndex));
+					NearDuplicateDetector.removeFromIndex(context, deployedKnowledgeBase, List.of(getDocumentKey(documents.get(item.documentIndex))));
+					report.deletedDocuments.incrementAndGet();
+				}
+				if (checkpointing) {
+					checkpointStore.markCompleted(jobID, getDocumentKey(documents.get(item.documentIndex)));
+				}
+				report.completedDocuments.incrementAndGet();
+			}
+			report.upsert.addBusyTime(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Removes the chunks of an earlier ingestion of a document that yields no chunks now, so that none of them are left behind.
+	 */
+	private void deleteChunks(IContext context, FileDocument fileDocument) {
+		KnowledgeBaseChunk chunk = new KnowledgeBaseChunk(context);
+		chunk.setMxObjectID(context, getDocumentKey(fileDocument));
+		chunk.setMxEntity(context, fileDocument.getMendixObject().getType());
+		ChunkCollection chunkCollection = new ChunkCollection(context);
+		chunkCollection.setChunkCollection_Chunk(context, List.of(chunk));
+		ChangeCapture.executeMicroflow(context, deleteMicroflow, chunkCollection, List.of(chunk), deployedKnowledgeBase);
+	}
+
+	private ChunkCollection createChunkCollection(IContext context, List<FileDocument> documents, List<Item> batch) {
+		ChunkCollection chunkCollection = new ChunkCollection(context);
+		List<Chunk> chunks = new ArrayList<>(batch.size());
+		for (Item item : batch) {
+			IMendixObject document = documents.get(item.documentIndex).getMendixObject();
+			// deterministic, so that the same chunk of a document always gets the same ID
+			String chunkID = UUID.nameUUIDFromBytes((document.getId().toLong() + ":" + item.chunkIndex).getBytes(StandardCharsets.UTF_8)).toString();
+			String humanReadableID = document.getValue(context, FileDocument.MemberNames.Name.toString()) + " #" + (item.chunkIndex + 1);
+			KnowledgeBaseChunk chunk = ChunkCollectionImpl.createKnowledgeBaseChunk(context, chunkID, humanReadableID, item.text, document, metadataCollection);
+			chunks.add(chunk);
+		}
+		chunkCollection.setChunkCollection_Chunk(context, chunks);
+		return chunkCollection;
+	}
+
+	private Map<String, Object> mapUpsertParameters(String microflow, ChunkCollection chunkCollection) {
+		Map<String, Object> inputParameters = new HashMap<>();
+		Core.getInputParameters(microflow).forEach((name, type) -> {
+			if (!type.isMendixObject()) {
+				return;
+			}
+			if (Core.getMetaObject(type.getObjectType()).isSubClassOf(ChunkCollection.getType())) {
+				inputParameters.put(name, chunkCollection.getMendixObject());
+			} else if (Core.getMetaObject(type.getObjectType()).isSubClassOf(DeployedKnowledgeBase.getType())) {
+				inputParameters.put(name, deployedKnowledgeBase.getMendixObject());
+			}
+		});
+		return inputParameters;
+	}
+
+	static String validateUpsertMicroflow(String microflow) {
+		if (microflow == null || microflow.isBlank()) {
+			throw new IllegalArgumentException("Insert microflow is required.");
+		}
+		Map<String, IDataType> inputParameters = Core.getInputParameters(microflow);
+		boolean chunkCollectionFound = false;
+		if (inputParameters != null) {
+			for (IDataType value : inputParameters.values()) {
+				if (value.isMendixObject() && Core.getMetaObject(value.getObjectType()).isSubClassOf(ChunkCollection.getType())) {
+					chunkCollectionFound = true;
+				}
+			}
+		}
+		if (!chunkCollectionFound) {
+			throw new IllegalArgumentException("Microflow " + microflow + " does not exist or has no input parameter of type " + ChunkCollection.getType() + ".");
+		}
+		return microflow;
+	}
+
+	private static String getDocumentKey(FileDocument fileDocument) {
+		return String.valueOf(fileDocument.getMendixObject().getId().toLong());
+	}
+
+	private void runStage(StageStatistics statistics, Stage stage) throws Exception {
+		try {
+			stage.run();
+		} catch (Exception e) {
+			// only the first failure is the cause; the other stages fail because they are stopped
+			if (failure.compareAndSet(null, e)) {
+				LOGGER.error(e, "Ingestion stage " + statistics.name + " failed.");
+			}
+			// stops the other stages, which would otherwise wait on their queues
+			aborted = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the exception of the stage that failed first, with the exceptions of the other stages as suppressed exceptions
+	 */
+	private Exception getFailure(List<Exception> exceptions) {
+		Exception first = failure.get() != null && exceptions.contains(failure.get()) ? failure.get() : exceptions.get(0);
+		for (Exception exception : exceptions) {
+			if (exception != first) {
+				first.addSuppressed(exception);
+			}
+		}
+		return first;
+	}
+
+	private void put(BlockingQueue<Item> queue, Item item) throws InterruptedException {
+		while (!queue.offer(item, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+			checkAborted();
+		}
+	}
+
+	private Item take(BlockingQueue<Item> queue) throws InterruptedException {
+		Item item;
+		while ((item = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+			checkAborted();
+		}
+		return item;
+	}
+
+	private void checkAborted() {
+		if (aborted) {
+			throw new IllegalStateException("Ingestion was aborted because another stage failed.");
+		}
+	}
+
+	@FunctionalInterface
+	private interface Stage {
+		void run() throws Exception;
+	}
+
+	/**
+	 * A chunk (text set), a batch of embedded chunks (chunkCollection set) or the end of a document (neither set).
+	 */
+	private static final class Item {
+		private static final Item END = new Item(-1, -1, null, false, null, 0);
+
+		private final int documentIndex;
+		private final int chunkIndex;
+		private final String text;
+		private final boolean firstBatch;
+		private final ChunkCollection chunkCollection;
+		private final int size;
+
+		private Item(int documentIndex, int chunkIndex, String text, boolean firstBatch, ChunkCollection chunkCollection, int size) {
+			this.documentIndex = documentIndex;
+			this.chunkIndex = chunkIndex;
+			this.text = text;
+			this.firstBatch = firstBatch;
+			this.chunkCollection = chunkCollection;
+			this.size = size;
+		}
+
+		private static Item chunk(int documentIndex, int chunkIndex, String text) {
+			return new Item(documentIndex, chunkIndex, text, false, null, 1);
+		}
+
+		private static Item batch(int documentIndex, boolean firstBatch, ChunkCollection chunkCollection, int size) {
+			return new Item(documentIndex, -1, null, firstBatch, chunkCollection, size);
+		}
+
+		private static Item documentEnd(int documentIndex) {
+			return new Item(documentIndex, -1, null, false, null, 0);
+		}
+	}
+
+	public static final class StageStatistics {
+		private final String name;
+		private final String unit;
+		private final AtomicLong items = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+
+		private StageStatistics(String name, String unit) {
+			this.name = name;
+			this.unit = unit;
+		}
+
+		private void addBusyTime(long nanos) {
+			busyNanos.addAndGet(nanos);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getItems() {
+			return items.get();
+		}
+
+		/**
+		 * Items per second of busy time, i.e. the throughput of the stage if it never had to wait for the other stages.
+		 */
+		public double getThroughput() {
+			long nanos = busyNanos.get();
+			return nanos == 0 ? 0 : items.get() * 1e9 / nanos;
+		}
+
+		private String format(long elapsedNanos) {
+			return String.format("%s %d %s (%.1f/s busy, %.0f%% of the time busy)", name, items.get(), unit, getThroughput(),
+					elapsedNanos == 0 ? 0.0 : busyNanos.get() * 100.0 / elapsedNanos);
+		}
+	}
+
+	public static final class IngestionReport {
+		private final long startNanos = System.nanoTime();
+		private long elapsedNanos;
+		private final int skippedDocuments;
+		private final AtomicLong completedDocuments = new AtomicLong();
+		private final AtomicLong duplicates = new AtomicLong();
+		private final AtomicLong deletedDocuments = new AtomicLong();
+		private final StageStatistics chunking = new StageStatistics("chunking", "chunks");
+		private final StageStatistics embedding = new StageStatistics("embedding", "chunks");
+		private final StageStatistics upsert = new StageStatistics("upsert", "chunks");
+
+		private IngestionReport(int skippedDocuments) {
+			this.skippedDocuments = skippedDocuments;
+		}
+
+		private void finish() {
+			elapsedNanos = System.nanoTime() - startNanos;
+		}
+
+		public long getCompletedDocuments() {
+			return completedDocuments.get();
+		}
+
+		public long getDuplicates() {
+			return duplicates.get();
+		}
+
+		/**
+		 * @return the number of documents that no longer yielded any chunks, of which the earlier chunks were deleted
+		 */
+		public long getDeletedDocuments() {
+			return deletedDocuments.get();
+		}
+
+		public int getSkippedDocuments() {
+			return skippedDocuments;
+		}
+
+		public List<StageStatistics> getStages() {
+			return List.of(chunking, embedding, upsert);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Ingestion of %d documents (%d skipped, %d without chunks) in %.1f s: %s; %s; %s; %d near duplicate chunks dropped.",
+					completedDocuments.get(), skippedDocuments, deletedDocuments.get(), elapsedNanos / 1e9, chunking.format(elapsedNanos), embedding.format(elapsedNanos), upsert.format(elapsedNanos), duplicates.get());
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package genaicommons.impl;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * MinHash signatures of texts: a text is reduced to the set of its word shingles (3 consecutive words, after lowercasing and
+ * removing punctuation), and the signature holds the minimum of each of {@link #SIGNATURE_LENGTH} hash functions over that set.
+ * The fraction of equal positions in two signatures estimates the Jaccard similarity of the shingle sets.
+ */
+public class MinHash {
+
+	public static final int SIGNATURE_LENGTH = 64;
+	private static final int SHINGLE_SIZE = 3;
+	private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+	private static final long[] SEEDS = new long[SIGNATURE_LENGTH];
+
+	static {
+		long seed = 0x2545F4914F6CDD1DL;
+		for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+			seed = mix(seed + i);
+			SEEDS[i] = seed;
+		}
+	}
+
+	/**
+	 * @return the signature, or null if the text has no words (empty or only punctuation), since such texts cannot be compared
+	 */
+	public static int[] signature(String text) {
+		String[] words = Arrays.stream(NON_WORD.split(text == null ? "" : text.toLowerCase(Locale.ROOT)))
+				.filter(word -> !word.isEmpty()).toArray(String[]::new);
+		if (words.length == 0) {
+			return null;
+		}
+		int[] signature = new int[SIGNATURE_LENGTH];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		// short texts are compared on their words instead of on shingles
+		int shingleSize = Math.min(SHINGLE_SIZE, words.length);
+		for (int i = 0; i + shingleSize <= words.length; i++) {
+			long shingle = 0;
+			for (int j = i; j < i + shingleSize; j++) {
+				shingle = shingle * 31 + words[j].hashCode();
+			}
+			for (int h = 0; h < SIGNATURE_LENGTH; h++) {
+				// only the lower 31 bits are kept, so that signatures fit in an int and compare as positive values
+				int value = (int) (mix(shingle ^ SEEDS[h]) & Integer.MAX_VALUE);
+				if (value < signature[h]) {
+					signature[h] = value;
+				}
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * Estimated Jaccard similarity (0-1) of the shingle sets of two signatures.
+	 */
+	public static double similarity(int[] first, int[] second) {
+		int equal = 0;
+		for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+			if (first[i] == second[i]) {
+				equal++;
+			}
+		}
+		return (double) equal / SIGNATURE_LENGTH;
+	}
+
+	// finalizer of SplitMix64
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+}
@@ -0,0 +1,146 @@
+package genaicommons.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Locality sensitive hashing index over MinHash signatures. A signature is divided into {@link #BANDS} bands of
+ * {@link #ROWS} values; two signatures become candidates if at least one band is equal. With 16 bands of 4 rows, pairs with a
+ * similarity of 0.5 are found with a probability of about 64%, pairs of 0.7 or more with more than 98%, while dissimilar texts
+ * rarely share a bucket. Lookups therefore only compare against a few candidates instead of all indexed texts.
+ *
+ * Entries are kept by chunk ID together with the MxObjectID of the chunk, so that the entries of replaced or deleted chunks
+ * can be removed.
+ */
+public class MinHashLshIndex {
+
+	public static final int BANDS = 16;
+	public static final int ROWS = MinHash.SIGNATURE_LENGTH / BANDS;
+
+	private final Map<String, Entry> entries = new HashMap<>();
+	private final Map<Long, Set<String>> buckets = new HashMap<>();
+	private final Map<String, Set<String>> idsByObject = new HashMap<>();
+
+	/**
+	 * Adds the signature of a chunk, replacing an earlier entry with the same ID.
+	 * @param mxObjectID optional; the object the chunk was created for
+	 */
+	public synchronized void add(String id, String mxObjectID, int[] signature) {
+		remove(id);
+		entries.put(id, new Entry(mxObjectID, signature));
+		for (int band = 0; band < BANDS; band++) {
+			buckets.computeIfAbsent(getBucketKey(signature, band), k -> new HashSet<>(2)).add(id);
+		}
+		if (mxObjectID != null) {
+			idsByObject.computeIfAbsent(mxObjectID, k -> new HashSet<>()).add(id);
+		}
+	}
+
+	public synchronized void remove(String id) {
+		Entry entry = entries.remove(id);
+		if (entry == null) {
+			return;
+		}
+		for (int band = 0; band < BANDS; band++) {
+			long key = getBucketKey(entry.signature, band);
+			Set<String> bucket = buckets.get(key);
+			if (bucket != null && bucket.remove(id) && bucket.isEmpty()) {
+				buckets.remove(key);
+			}
+		}
+		if (entry.mxObjectID != null) {
+			Set<String> ids = idsByObject.get(entry.mxObjectID);
+			if (ids != null && ids.remove(id) && ids.isEmpty()) {
+				idsByObject.remove(entry.mxObjectID);
+			}
+		}
+	}
+
+	/**
+	 * Removes the entries of all chunks of the objects.
+	 */
+	public synchronized void removeObjects(Collection<String> mxObjectIDs) {
+		for (String mxObjectID : mxObjectIDs) {
+			Set<String> ids = idsByObject.get(mxObjectID);
+			if (ids != null) {
+				new ArrayList<>(ids).forEach(this::remove);
+			}
+		}
+	}
+
+	/**
+	 * Returns the most similar indexed text with an estimated similarity of at least the threshold, or null if there is none.
+	 */
+	public Match findMostSimilar(int[] signature, double threshold) {
+		return findMostSimilar(signature, threshold, null);
+	}
+
+	/**
+	 * @param ignoredMxObjectID optional; chunks of this object are not considered, e.g. because they are about to be replaced
+	 */
+	public synchronized Match findMostSimilar(int[] signature, double threshold, String ignoredMxObjectID) {
+		Set<String> candidates = new HashSet<>();
+		for (int band = 0; band < BANDS; band++) {
+			Set<String> bucket = buckets.get(getBucketKey(signature, band));
+			if (bucket != null) {
+				candidates.addAll(bucket);
+			}
+		}
+		Match best = null;
+		for (String candidate : candidates) {
+			Entry entry = entries.get(candidate);
+			if (ignoredMxObjectID != null && ignoredMxObjectID.equals(entry.mxObjectID)) {
+				continue;
+			}
+			double similarity = MinHash.similarity(signature, entry.signature);
+			if (similarity >= threshold && (best == null || similarity > best.similarity)) {
+				best = new Match(candidate, similarity);
+			}
+		}
+		return best;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private static long getBucketKey(int[] signature, int band) {
+		int hash = 1;
+		for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+			hash = 31 * hash + signature[i];
+		}
+		return ((long) band << 32) | (hash & 0xFFFFFFFFL);
+	}
+
+	private static final class Entry {
+		private final String mxObjectID;
+		private final int[] signature;
+
+		private Entry(String mxObjectID, int[] signature) {
+			this.mxObjectID = mxObjectID;
+			this.signature = signature;
+		}
+	}
+
+	public static final class Match {
+		private final String id;
+		private final double similarity;
+
+		private Match(String id, double similarity) {
+			this.id = id;
+			this.similarity = similarity;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public double getSimilarity() {
+			return similarity;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package genaicommons.impl;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Mini-batch k-means (Sculley, 2010) on packed, normalized vectors. Centers are initialized with k-means++ on a sample, after
+ * which every iteration assigns a random batch to the nearest centers (in parallel) and moves each center towards its assigned
+ * points with a per-center learning rate of 1 / number of points assigned so far. The final assignment of all points runs in
+ * parallel as well. Costs grow with iterations * batch size instead of with the number of points per iteration.
+ */
+public class MiniBatchKMeans {
+
+	private static final int MAX_INITIALIZATION_SAMPLE = 20000;
+
+	private final int k;
+	private final int batchSize;
+	private final int iterations;
+	private final long seed;
+
+	private float[] centers;
+	private int[] labels;
+	private double inertia;
+
+	public MiniBatchKMeans(int k, int batchSize, int iterations, long seed) {
+		if (k < 1) {
+			throw new IllegalArgumentException("NumberOfClusters must be at least 1.");
+		}
+		this.k = k;
+		this.batchSize = Math.max(k, batchSize);
+		this.iterations = Math.max(1, iterations);
+		this.seed = seed;
+	}
+
+	public MiniBatchKMeans fit(PackedVectors vectors) {
+		int n = vectors.size();
+		int dimensions = vectors.getDimensions();
+		if (n < k) {
+			throw new IllegalArgumentException("NumberOfClusters (" + k + ") cannot be larger than the number of vectors (" + n + ").");
+		}
+		SplittableRandom random = new SplittableRandom(seed);
+		centers = initialize(vectors, random);
+		long[] counts = new long[k];
+		int[] batch = new int[Math.min(batchSize, n)];
+		int[] assignments = new int[batch.length];
+
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			for (int b = 0; b < batch.length; b++) {
+				batch[b] = random.nextInt(n);
+			}
+			IntStream.range(0, batch.length).parallel().forEach(b -> assignments[b] = nearest(vectors, batch[b]));
+			for (int b = 0; b < batch.length; b++) {
+				int center = assignments[b];
+				counts[center]++;
+				vectors.moveTowards(batch[b], centers, center * dimensions, 1f / counts[center]);
+			}
+		}
+
+		labels = new int[n];
+		double[] distances = new double[n];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			labels[i] = nearest(vectors, i);
+			distances[i] = vectors.distanceSquared(i, centers, labels[i] * dimensions);
+		});
+		inertia = 0;
+		for (double distance : distances) {
+			inertia += distance;
+		}
+		return this;
+	}
+
+	/**
+	 * Cluster index (0 to k - 1) per vector, in the order of the packed vectors.
+	 */
+	public int[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Sum of squared distances of the vectors to their center; lower is better when comparing runs with the same k.
+	 */
+	public double getInertia() {
+		return inertia;
+	}
+
+	public float[] getCenters() {
+		return centers;
+	}
+
+	/**
+	 * Indices of the nearest centers of a vector, nearest first.
+	 */
+	public int[] nearestCenters(PackedVectors vectors, int i, int count) {
+		int dimensions = vectors.getDimensions();
+		float[] distances = new float[k];
+		Integer[] order = new Integer[k];
+		for (int c = 0; c < k; c++) {
+			distances[c] = vectors.distanceSquared(i, centers, c * dimensions);
+			order[c] = c;
+		}
+		Arrays.sort(order, (a, b) -> Float.compare(distances[a], distances[b]));
+		int[] result = new int[Math.min(count, k)];
+		for (int r = 0; r < result.length; r++) {
+			result[r] = order[r];
+		}
+		return result;
+	}
+
+	private int nearest(PackedVectors vectors, int i) {
+		int dimensions = vectors.getDimensions();
+		int best = 0;
+		float bestDistance = Float.MAX_VALUE;
+		for (int c = 0; c < k; c++) {
+			float distance = vectors.distanceSquared(i, centers, c * dimensions);
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	// k-means++: every next center is drawn with a probability proportional to the squared distance to the nearest chosen center
+	private float[] initialize(PackedVectors vectors, SplittableRandom random) {
+		int dimensions = vectors.getDimensions();
+		int n = vectors.size();
+		int[] sample = new int[Math.min(n, Math.max(MAX_INITIALIZATION_SAMPLE, k))];
+		for (int s = 0; s < sample.length; s++) {
+			sample[s] = sample.length == n ? s : random.nextInt(n);
+		}
+		float[] initialCenters = new float[k * dimensions];
+		float[] minDistances = new float[sample.length];
+		Arrays.fill(minDistances, Float.MAX_VALUE);
+		vectors.copyRow(sample[random.nextInt(sample.length)], initialCenters, 0);
+		for (int c = 1; c < k; c++) {
+			int previous = (c - 1) * dimensions;
+			IntStream.range(0, sample.length).parallel().forEach(s ->
+					minDistances[s] = Math.min(minDistances[s], vectors.distanceSquared(sample[s], initialCenters, previous)));
+			double total = 0;
+			for (float distance : minDistances) {
+				total += distance;
+			}
+			double target = random.nextDouble() * total;
+			int chosen = sample.length - 1;
+			for (int s = 0; s < sample.length; s++) {
+				target -= minDistances[s];
+				if (target <= 0) {
+					chosen = s;
+					break;
+				}
+			}
+			vectors.copyRow(sample[chosen], initialCenters, c * dimensions);
+		}
+		return initialCenters;
+	}
+}
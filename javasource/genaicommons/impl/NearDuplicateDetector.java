@@ -0,0 +1,193 @@
+package genaicommons.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+
+import genaicommons.impl.MinHashLshIndex.Match;
+import genaicommons.proxies.Chunk;
+import genaicommons.proxies.ChunkCollection;
+import genaicommons.proxies.DeployedKnowledgeBase;
+import genaicommons.proxies.KnowledgeBaseChunk;
+import genaicommons.proxies.Metadata;
+import genaicommons.proxies.MetadataCollection;
+
+/**
+ * Finds chunks whose text is nearly identical (estimated Jaccard similarity of word shingles, see {@link MinHash}) to another
+ * chunk earlier in the same ChunkCollection or to a chunk already in the knowledge base, so that repeated boilerplate is not
+ * embedded and stored again. Use it before Embeddings_ChunkCollection, e.g. for repeated disclaimers or company descriptions.
+ * Texts without words (empty or only punctuation) have no signature; they are never duplicates and are not indexed.
+ *
+ * The texts of a knowledge base are kept as MinHash signatures in an in-memory {@link MinHashLshIndex} per knowledge base.
+ * Checking chunks does not change that index: chunks are only added once they were written to the knowledge base, with
+ * {@link #addToIndex} after an insert and {@link #replaceInIndex} after a replace, and removed with {@link #removeFromIndex} after
+ * a delete. The ingestion pipeline, the re-embedding worker and the delete operations of the PgVector connector do this
+ * themselves. After a restart, or after chunks were changed by other logic, the index should be rebuilt from the stored chunks
+ * (see {@link #setIndex}); until then only duplicates of chunks written since the last rebuild are detected.
+ */
+public class NearDuplicateDetector {
+
+	private static final MxLogger LOGGER = new MxLogger(NearDuplicateDetector.class);
+	private static final Map<String, MinHashLshIndex> INDEXES = new ConcurrentHashMap<>();
+	public static final String DUPLICATE_OF = "duplicate_of";
+
+	/**
+	 * Checks all chunks of the collection in order; the first of a group of near duplicates is kept. Duplicates are removed from
+	 * the collection, or, when flagOnly is true, kept with the metadata duplicate_of set to the ID of the chunk they duplicate.
+	 * @param deployedKnowledgeBase optional; without knowledge base only duplicates within the collection are found
+	 * @param similarityThreshold minimum estimated similarity (0-1, e.g. 0.85) for a chunk to be a duplicate
+	 * @return the number of duplicates found
+	 */
+	public static int removeNearDuplicates(IContext context, ChunkCollection chunkCollection, DeployedKnowledgeBase deployedKnowledgeBase,
+			BigDecimal similarityThreshold, boolean flagOnly) throws Exception {
+		return removeNearDuplicates(context, chunkCollection, deployedKnowledgeBase, similarityThreshold, flagOnly, new MinHashLshIndex(), false);
+	}
+
+	/**
+	 * @param batchIndex the chunks checked before, which the kept chunks are added to; may be shared by the batches of one run
+	 * @param replacing the chunks replace the chunks of their MxObject, so those are not considered as originals
+	 */
+	static int removeNearDuplicates(IContext context, ChunkCollection chunkCollection, DeployedKnowledgeBase deployedKnowledgeBase,
+			BigDecimal similarityThreshold, boolean flagOnly, MinHashLshIndex batchIndex, boolean replacing) throws Exception {
+		requireNonNull(chunkCollection, "ChunkCollection is required.");
+		requireNonNull(similarityThreshold, "SimilarityThreshold is required.");
+		double threshold = similarityThreshold.doubleValue();
+		if (threshold <= 0 || threshold > 1) {
+			throw new IllegalArgumentException("SimilarityThreshold must be larger than 0 and at most 1.");
+		}
+
+		MinHashLshIndex knowledgeBaseIndex = deployedKnowledgeBase == null ? null : getIndex(context, deployedKnowledgeBase);
+		List<Chunk> chunks = chunkCollection.getChunkCollection_Chunk(context);
+		List<Chunk> kept = new ArrayList<>(chunks.size());
+		int duplicates = 0;
+
+		for (int i = 0; i < chunks.size(); i++) {
+			Chunk chunk = chunks.get(i);
+			int[] signature = MinHash.signature(chunk.getInputText(context));
+			if (signature == null) {
+				kept.add(chunk);
+				continue;
+			}
+			KnowledgeBaseChunk kbChunk = chunk.getMendixObject().getMetaObject().isSubClassOf(KnowledgeBaseChunk.getType())
+					? KnowledgeBaseChunk.initialize(context, chunk.getMendixObject()) : null;
+			String id = kbChunk != null && kbChunk.getChunkID(context) != null ? kbChunk.getChunkID(context) : String.valueOf(i);
+			String mxObjectID = kbChunk == null ? null : kbChunk.getMxObjectID(context);
+
+			Match match = batchIndex.findMostSimilar(signature, threshold);
+			if (match == null && knowledgeBaseIndex != null) {
+				match = knowledgeBaseIndex.findMostSimilar(signature, threshold, replacing ? mxObjectID : null);
+			}
+			if (match == null) {
+				batchIndex.add(id, mxObjectID, signature);
+				kept.add(chunk);
+				continue;
+			}
+
+			duplicates++;
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Chunk " + id + " is a near duplicate of " + match.getId() + " (similarity " + match.getSimilarity() + ").");
+			}
+			if (flagOnly) {
+				// plain chunks have no metadata to flag them with, they are only counted
+				if (kbChunk != null) {
+					flagDuplicate(context, kbChunk, match.getId());
+				}
+				kept.add(chunk);
+			}
+		}
+
+		if (kept.size() != chunks.size()) {
+			chunkCollection.setChunkCollection_Chunk(context, kept);
+		}
+		return duplicates;
+	}
+
+	/**
+	 * Adds the chunks of the collection to the index of the knowledge base, after they were inserted into the knowledge base.
+	 * Does nothing if no index was used for the knowledge base yet.
+	 */
+	public static void addToIndex(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, List<? extends Chunk> chunks) {
+		MinHashLshIndex index = INDEXES.get(RetrievalCache.getKnowledgeBaseKey(context, deployedKnowledgeBase));
+		if (index == null) {
+			return;
+		}
+		for (Chunk chunk : chunks) {
+			if (!chunk.getMendixObject().getMetaObject().isSubClassOf(KnowledgeBaseChunk.getType())) {
+				continue;
+			}
+			KnowledgeBaseChunk kbChunk = KnowledgeBaseChunk.initialize(context, chunk.getMendixObject());
+			int[] signature = MinHash.signature(kbChunk.getInputText(context));
+			if (signature != null && kbChunk.getChunkID(context) != null) {
+				index.add(kbChunk.getChunkID(context), kbChunk.getMxObjectID(context), signature);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the entries of the MxObjects of the chunks with the chunks, after the chunks of these objects were replaced in the
+	 * knowledge base. Does nothing if no index was used for the knowledge base yet.
+	 */
+	public static void replaceInIndex(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, List<? extends Chunk> chunks) {
+		Set<String> mxObjectIDs = new HashSet<>();
+		for (Chunk chunk : chunks) {
+			if (chunk.getMendixObject().getMetaObject().isSubClassOf(KnowledgeBaseChunk.getType())) {
+				String mxObjectID = KnowledgeBaseChunk.initialize(context, chunk.getMendixObject()).getMxObjectID(context);
+				if (mxObjectID != null) {
+					mxObjectIDs.add(mxObjectID);
+				}
+			}
+		}
+		removeFromIndex(context, deployedKnowledgeBase, mxObjectIDs);
+		addToIndex(context, deployedKnowledgeBase, chunks);
+	}
+
+	/**
+	 * Removes the entries of all chunks of the MxObjects, after their chunks were deleted from the knowledge base.
+	 */
+	public static void removeFromIndex(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, Collection<String> mxObjectIDs) {
+		MinHashLshIndex index = deployedKnowledgeBase == null ? null
+				: INDEXES.get(RetrievalCache.getKnowledgeBaseKey(context, deployedKnowledgeBase));
+		if (index != null) {
+			index.removeObjects(mxObjectIDs);
+		}
+	}
+
+	/**
+	 * Returns the index of the knowledge base, creating an empty one if it does not exist yet.
+	 */
+	public static MinHashLshIndex getIndex(IContext context, DeployedKnowledgeBase deployedKnowledgeBase) {
+		return INDEXES.computeIfAbsent(RetrievalCache.getKnowledgeBaseKey(context, deployedKnowledgeBase), k -> new MinHashLshIndex());
+	}
+
+	/**
+	 * Replaces the index of the knowledge base, e.g. with an index that was rebuilt from the stored chunks.
+	 */
+	public static void setIndex(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, MinHashLshIndex index) {
+		INDEXES.put(RetrievalCache.getKnowledgeBaseKey(context, deployedKnowledgeBase), requireNonNull(index, "Index is required."));
+	}
+
+	private static void flagDuplicate(IContext context, KnowledgeBaseChunk kbChunk, String duplicateOf) throws Exception {
+		// a new collection, because the original one may be shared with other chunks
+		List<Metadata> metadataList = new ArrayList<>();
+		MetadataCollection original = kbChunk.getKnowledgeBaseChunk_MetadataCollection(context);
+		if (original != null) {
+			metadataList.addAll(original.getMetadataCollection_Metadata(context));
+		}
+		Metadata metadata = new Metadata(context);
+		metadata.setKey(context, DUPLICATE_OF);
+		metadata.setValue(context, duplicateOf);
+		metadataList.add(metadata);
+		MetadataCollection metadataCollection = new MetadataCollection(context);
+		metadataCollection.setMetadataCollection_Metadata(context, metadataList);
+		kbChunk.setKnowledgeBaseChunk_MetadataCollection(context, metadataCollection);
+	}
+}
@@ -0,0 +1,92 @@
+package genaicommons.impl;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A set of vectors of equal dimension stored row by row in one float array, so that distance calculations over large sets
+ * run over contiguous memory without objects per vector. Vectors are L2-normalized when they are packed, so the squared
+ * euclidean distance of two rows is 2 - 2 * cosine similarity.
+ */
+public class PackedVectors {
+
+	private final float[] data;
+	private final int size;
+	private final int dimensions;
+
+	private PackedVectors(float[] data, int size, int dimensions) {
+		this.data = data;
+		this.size = size;
+		this.dimensions = dimensions;
+	}
+
+	/**
+	 * Parses (in parallel) and normalizes the vectors from their string representation, see {@link VectorUtils#parse}.
+	 */
+	public static PackedVectors fromStrings(List<String> vectors) {
+		if (vectors.isEmpty()) {
+			return new PackedVectors(new float[0], 0, 0);
+		}
+		int dimensions = VectorUtils.parse(vectors.get(0)).length;
+		float[] data = new float[vectors.size() * dimensions];
+		IntStream.range(0, vectors.size()).parallel().forEach(i -> {
+			float[] vector = VectorUtils.parse(vectors.get(i));
+			if (vector.length != dimensions) {
+				throw new IllegalArgumentException("Vector " + (i + 1) + " has " + vector.length + " dimensions instead of " + dimensions + ".");
+			}
+			System.arraycopy(VectorUtils.normalize(vector), 0, data, i * dimensions, dimensions);
+		});
+		return new PackedVectors(data, vectors.size(), dimensions);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * Squared euclidean distance between row i and a vector stored in other at the given offset.
+	 */
+	public float distanceSquared(int i, float[] other, int otherOffset) {
+		int offset = i * dimensions;
+		float sum = 0;
+		for (int d = 0; d < dimensions; d++) {
+			float difference = data[offset + d] - other[otherOffset + d];
+			sum += difference * difference;
+		}
+		return sum;
+	}
+
+	public float distanceSquared(int i, int j) {
+		return distanceSquared(i, data, j * dimensions);
+	}
+
+	/**
+	 * Copies row i into target at the given offset.
+	 */
+	public void copyRow(int i, float[] target, int targetOffset) {
+		System.arraycopy(data, i * dimensions, target, targetOffset, dimensions);
+	}
+
+	/**
+	 * Adds the weighted difference between row i and the vector at the given offset to that vector (moving it towards row i).
+	 */
+	public void moveTowards(int i, float[] target, int targetOffset, float weight) {
+		int offset = i * dimensions;
+		for (int d = 0; d < dimensions; d++) {
+			target[targetOffset + d] += weight * (data[offset + d] - target[targetOffset + d]);
+		}
+	}
+
+	public float dot(int i, float[] other, int otherOffset) {
+		int offset = i * dimensions;
+		float sum = 0;
+		for (int d = 0; d < dimensions; d++) {
+			sum += data[offset + d] * other[otherOffset + d];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,180 @@
+package genaicommons.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import genaicommons.impl.VectorQuantizer.QuantizationType;
+import genaicommons.impl.VectorQuantizer.ScalarCode;
+
+/**
+ * In-memory two-stage nearest neighbor index. The first stage scans the quantized codes to select
+ * MaxNumberOfResults * RescoreFactor candidates, the second stage rescores those candidates with the
+ * exact cosine similarity on the full precision vectors.
+ * Besides searching, the index reports the memory that the quantized codes save compared to full precision
+ * vectors and can measure the recall@k of the two-stage search compared to an exact search, so that the
+ * quantization type and rescore factor can be tuned before they are applied to a knowledge base.
+ */
+public class QuantizedVectorIndex {
+
+	private final QuantizationType quantizationType;
+	private final int dimensions;
+	private final List<String> ids = new ArrayList<>();
+	private final List<float[]> vectors = new ArrayList<>();
+	private final List<ScalarCode> scalarCodes = new ArrayList<>();
+	private final List<long[]> binaryCodes = new ArrayList<>();
+
+	public QuantizedVectorIndex(QuantizationType quantizationType, int dimensions) {
+		this.quantizationType = requireNonNull(quantizationType, "Quantization type is required.");
+		this.dimensions = dimensions;
+	}
+
+	public void add(String id, float[] vector) {
+		if (vector.length != dimensions) {
+			throw new IllegalArgumentException("Vector for " + id + " has " + vector.length + " dimensions instead of " + dimensions + ".");
+		}
+		float[] normalized = VectorUtils.normalize(vector);
+		ids.add(id);
+		vectors.add(normalized);
+		switch (quantizationType) {
+		case SCALAR:
+			scalarCodes.add(VectorQuantizer.quantizeScalar(normalized));
+			break;
+		case BINARY:
+			binaryCodes.add(VectorQuantizer.quantizeBinary(normalized));
+			break;
+		default:
+			break;
+		}
+	}
+
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Two-stage search: quantized candidate selection followed by exact rescoring.
+	 * @param query
+	 * @param k number of results to return
+	 * @param rescoreFactor number of candidates per result that are rescored on full precision
+	 * @return results ordered by descending similarity
+	 */
+	public List<SearchResult> search(float[] query, int k, int rescoreFactor) {
+		float[] normalizedQuery = VectorUtils.normalize(query);
+		if (quantizationType == QuantizationType.NONE) {
+			return exactSearch(normalizedQuery, k);
+		}
+		int candidateCount = Math.min(size(), Math.max(k, k * Math.max(1, rescoreFactor)));
+		int[] candidates = quantizedCandidates(normalizedQuery, candidateCount);
+		return topK(normalizedQuery, candidates, k);
+	}
+
+	/**
+	 * Exact brute force search on the full precision vectors.
+	 */
+	public List<SearchResult> exactSearch(float[] query, int k) {
+		int[] all = new int[size()];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = i;
+		}
+		return topK(VectorUtils.normalize(query), all, k);
+	}
+
+	/**
+	 * Average fraction of the exact top k results that are also returned by the two-stage search.
+	 * @param queries sample query vectors
+	 */
+	public double recallAtK(List<float[]> queries, int k, int rescoreFactor) {
+		if (queries.isEmpty() || size() == 0) {
+			return 1.0;
+		}
+		double total = 0;
+		for (float[] query : queries) {
+			Set<String> expected = new HashSet<>();
+			exactSearch(query, k).forEach(r -> expected.add(r.getId()));
+			long found = search(query, k, rescoreFactor).stream().filter(r -> expected.contains(r.getId())).count();
+			total += expected.isEmpty() ? 1.0 : (double) found / expected.size();
+		}
+		return total / queries.size();
+	}
+
+	/**
+	 * Bytes needed for the candidate stage with full precision vectors.
+	 */
+	public long getFullPrecisionBytes() {
+		return size() * VectorQuantizer.getBytesPerVector(QuantizationType.NONE, dimensions);
+	}
+
+	/**
+	 * Bytes needed for the candidate stage with the quantized codes.
+	 */
+	public long getQuantizedBytes() {
+		return size() * VectorQuantizer.getBytesPerVector(quantizationType, dimensions);
+	}
+
+	/**
+	 * Fraction (0-1) of memory saved by the quantized codes compared to full precision vectors.
+	 */
+	public double getMemorySavings() {
+		long full = getFullPrecisionBytes();
+		return full == 0 ? 0 : 1.0 - (double) getQuantizedBytes() / full;
+	}
+
+	private int[] quantizedCandidates(float[] query, int candidateCount) {
+		// lower approximate distance is better
+		float[] distances = new float[size()];
+		if (quantizationType == QuantizationType.SCALAR) {
+			ScalarCode queryCode = VectorQuantizer.quantizeScalar(query);
+			for (int i = 0; i < distances.length; i++) {
+				distances[i] = -VectorQuantizer.scalarDot(queryCode, scalarCodes.get(i));
+			}
+		} else {
+			long[] queryCode = VectorQuantizer.quantizeBinary(query);
+			for (int i = 0; i < distances.length; i++) {
+				distances[i] = VectorQuantizer.hammingDistance(queryCode, binaryCodes.get(i));
+			}
+		}
+		// bounded max-heap on the approximate distance, so only candidateCount indices are kept at any time
+		PriorityQueue<Integer> heap = new PriorityQueue<>(candidateCount + 1, (a, b) -> Float.compare(distances[b], distances[a]));
+		for (int i = 0; i < distances.length; i++) {
+			if (heap.size() < candidateCount) {
+				heap.add(i);
+			} else if (distances[i] < distances[heap.peek()]) {
+				heap.poll();
+				heap.add(i);
+			}
+		}
+		return heap.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private List<SearchResult> topK(float[] normalizedQuery, int[] candidates, int k) {
+		List<SearchResult> results = new ArrayList<>(candidates.length);
+		for (int candidate : candidates) {
+			results.add(new SearchResult(ids.get(candidate), VectorUtils.dot(normalizedQuery, vectors.get(candidate))));
+		}
+		results.sort((a, b) -> Float.compare(b.getSimilarity(), a.getSimilarity()));
+		return results.size() > k ? new ArrayList<>(results.subList(0, k)) : results;
+	}
+
+	public static final class SearchResult {
+		private final String id;
+		private final float similarity;
+
+		public SearchResult(String id, float similarity) {
+			this.id = id;
+			this.similarity = similarity;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public float getSimilarity() {
+			return similarity;
+		}
+	}
+}
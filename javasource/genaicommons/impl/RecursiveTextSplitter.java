@@ -0,0 +1,43 @@
+package genaicommons.impl;
+
+import java.util.List;
+
+/**
+ * Splits on the largest structural unit that keeps segments within ChunkSize characters: paragraphs first, then lines,
+ * sentences, words and finally single characters. Segments are then merged into chunks of up to ChunkSize characters.
+ */
+public class RecursiveTextSplitter extends SegmentingTextSplitter {
+
+	private static final String[] SEPARATORS = { "\n\n", "\n", ". ", " " };
+
+	public RecursiveTextSplitter(int chunkSize, int chunkOverlap) {
+		super(chunkSize, chunkOverlap);
+	}
+
+	@Override
+	protected void segment(String text, List<String> segments) {
+		segment(text, 0, segments);
+	}
+
+	private void segment(String text, int separatorIndex, List<String> segments) {
+		if (measure(text) <= chunkSize) {
+			segments.add(text);
+			return;
+		}
+		if (separatorIndex == SEPARATORS.length) {
+			splitOversized(text, segments);
+			return;
+		}
+		String separator = SEPARATORS[separatorIndex];
+		int start = 0;
+		int index;
+		// the separator stays at the end of the preceding part, so no text is lost
+		while ((index = text.indexOf(separator, start)) != -1) {
+			segment(text.substring(start, index + separator.length()), separatorIndex + 1, segments);
+			start = index + separator.length();
+		}
+		if (start < text.length()) {
+			segment(text.substring(start), separatorIndex + 1, segments);
+		}
+	}
+}
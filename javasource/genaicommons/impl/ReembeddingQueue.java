@@ -0,0 +1,149 @@
+package genaicommons.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import communitycommons.RawTable;
+
+/**
+ * Durable work table with the source objects whose chunks need to be re-embedded, see {@link ChangeCapture}. Every source object is
+ * queued at most once per source; queuing it again replaces the entry and moves it to the end of the queue. Like
+ * {@link DatabaseIngestionCheckpointStore}, the table lives in the application database outside of the domain model and is created on
+ * first use.
+ *
+ * The table is written on a connection of its own, so an entry can be visible before the transaction that changed the object has
+ * committed, and it stays when that transaction rolls back. Every entry therefore records the state the object is expected to have
+ * (see {@link ChangeCapture}) and a token that is new for every enqueue, so that the worker only removes the entry it processed and
+ * not one that was queued again in the meantime.
+ */
+public class ReembeddingQueue {
+
+	/** The expected state of an object that is deleted. */
+	public static final String DELETED = "deleted";
+
+	private static final String TABLE_NAME = "genaicommons_reembeddingqueue";
+	private static final SqlUpsert UPSERT = new SqlUpsert(TABLE_NAME, List.of("sourcekey", "mxobjectid"),
+			List.of("expectedstate", "token", "enqueuedat", "notbefore", "attempts"));
+	private static final RawTable TABLE = new RawTable(TABLE_NAME, "the re-embedding queue",
+			"CREATE TABLE " + TABLE_NAME + " (sourcekey VARCHAR(400) NOT NULL, mxobjectid BIGINT NOT NULL, "
+				+ "expectedstate VARCHAR(64) NOT NULL, token VARCHAR(36) NOT NULL, enqueuedat BIGINT NOT NULL, notbefore BIGINT NOT NULL, "
+				+ "attempts INTEGER NOT NULL, PRIMARY KEY (sourcekey, mxobjectid))",
+			"CREATE INDEX " + TABLE_NAME + "_notbefore ON " + TABLE_NAME + " (sourcekey, notbefore)");
+
+	/**
+	 * @param expectedState the state the object has once the transaction that changed it commits, or {@link #DELETED}
+	 */
+	public void enqueue(String sourceKey, long mxObjectID, String expectedState) {
+		long enqueuedAt = System.currentTimeMillis();
+		TABLE.execute(connection -> {
+			UPSERT.execute(connection, sourceKey, mxObjectID, expectedState, UUID.randomUUID().toString(), enqueuedAt, enqueuedAt, 0);
+			return null;
+		});
+	}
+
+	/**
+	 * Returns the oldest entries of the source that are due before the given time and did not fail too often yet.
+	 */
+	public List<Entry> next(String sourceKey, long dueBefore, int maxAttempts, int limit) {
+		return TABLE.execute(connection -> {
+			List<Entry> entries = new ArrayList<>(limit);
+			try (PreparedStatement statement = connection.prepareStatement("SELECT mxobjectid, expectedstate, token, enqueuedat FROM " + TABLE_NAME
+					+ " WHERE sourcekey = ? AND notbefore < ? AND attempts < ? ORDER BY notbefore")) {
+				statement.setString(1, sourceKey);
+				statement.setLong(2, dueBefore);
+				statement.setInt(3, maxAttempts);
+				statement.setMaxRows(limit);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						entries.add(new Entry(resultSet.getLong(1), resultSet.getString(2), resultSet.getString(3), resultSet.getLong(4)));
+					}
+				}
+			}
+			return entries;
+		});
+	}
+
+	/**
+	 * Removes the processed entries. Entries that were queued again in the meantime are kept, because the object changed after it was read.
+	 */
+	public void remove(String sourceKey, Collection<Entry> entries) {
+		update("DELETE FROM " + TABLE_NAME + " WHERE sourcekey = ? AND mxobjectid = ? AND token = ?", sourceKey, entries);
+	}
+
+	public void markFailed(String sourceKey, Collection<Entry> entries) {
+		update("UPDATE " + TABLE_NAME + " SET attempts = attempts + 1 WHERE sourcekey = ? AND mxobjectid = ? AND token = ?", sourceKey, entries);
+	}
+
+	/**
+	 * Postpones entries whose object does not have the expected state yet, so that they are only picked up again by a later run.
+	 */
+	public void postpone(String sourceKey, Collection<Entry> entries, long notBefore) {
+		update("UPDATE " + TABLE_NAME + " SET notbefore = ? WHERE sourcekey = ? AND mxobjectid = ? AND token = ?", sourceKey, entries, notBefore);
+	}
+
+	public long size(String sourceKey) {
+		return TABLE.execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + TABLE_NAME + " WHERE sourcekey = ?")) {
+				statement.setString(1, sourceKey);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					return resultSet.next() ? resultSet.getLong(1) : 0L;
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param values the values of the parameters before the key of the entry
+	 */
+	private static void update(String sql, String sourceKey, Collection<Entry> entries, Object... values) {
+		if (entries.isEmpty()) {
+			return;
+		}
+		TABLE.execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				for (Entry entry : entries) {
+					int index = 1;
+					for (Object value : values) {
+						statement.setObject(index++, value);
+					}
+					statement.setString(index++, sourceKey);
+					statement.setLong(index++, entry.getMxObjectID());
+					statement.setString(index, entry.token);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+			}
+			return null;
+		});
+	}
+
+	public static final class Entry {
+		private final long mxObjectID;
+		private final String expectedState;
+		private final String token;
+		private final long enqueuedAt;
+
+		private Entry(long mxObjectID, String expectedState, String token, long enqueuedAt) {
+			this.mxObjectID = mxObjectID;
+			this.expectedState = expectedState;
+			this.token = token;
+			this.enqueuedAt = enqueuedAt;
+		}
+
+		public long getMxObjectID() {
+			return mxObjectID;
+		}
+
+		public String getExpectedState() {
+			return expectedState;
+		}
+
+		public long getEnqueuedAt() {
+			return enqueuedAt;
+		}
+	}
+}
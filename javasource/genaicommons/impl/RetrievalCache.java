@@ -0,0 +1,271 @@
+package genaicommons.impl;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mendix.core.CoreException;
+import com.mendix.systemwideinterfaces.core.IContext;
+
+import genaicommons.proxies.DeployedKnowledgeBase;
+import genaicommons.proxies.KnowledgeBaseChunk;
+import genaicommons.proxies.Metadata;
+import genaicommons.proxies.MetadataCollection;
+
+/**
+ * Cache for nearest neighbor retrieval results, keyed by knowledge base, a hash of the normalized query content (or vector),
+ * the metadata filter, the maximum number of results and the minimum similarity.
+ *
+ * Entries are bounded in number (least recently used entries are evicted first) and in time. Cached chunks are stored as
+ * immutable snapshots and are instantiated again in the context of the caller on every hit.
+ * Every knowledge base has a generation counter that is increased on {@link #invalidate}; entries of an older generation
+ * are never returned. Operations that insert or delete chunks must call {@link #invalidate} for the knowledge base.
+ *
+ * The cache is disabled until it is configured with a maximum number of entries, e.g. from a Java action in after-startup logic.
+ * The cache is kept per runtime node. The Delete operations of the connectors invalidate it; logic that inserts or replaces
+ * chunks with microflows should call {@link #invalidate} afterwards or rely on the time to live.
+ */
+public class RetrievalCache {
+
+	private static final MxLogger LOGGER = new MxLogger(RetrievalCache.class);
+	private static final Map<String, AtomicLong> GENERATIONS = new ConcurrentHashMap<>();
+	private static final AtomicLong HITS = new AtomicLong();
+	private static final AtomicLong MISSES = new AtomicLong();
+
+	private static int maxEntries = 0;
+	private static long timeToLiveMillis = 0;
+	private static final LinkedHashMap<String, CacheEntry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * @param maxEntries maximum number of cached retrievals; 0 disables the cache and clears all entries
+	 * @param timeToLiveSeconds maximum age of a cached retrieval; 0 means entries only expire on invalidation or eviction
+	 */
+	public static synchronized void configure(int maxEntries, long timeToLiveSeconds) {
+		if (maxEntries < 0 || timeToLiveSeconds < 0) {
+			throw new IllegalArgumentException("MaxEntries and TimeToLiveSeconds cannot be negative.");
+		}
+		RetrievalCache.maxEntries = maxEntries;
+		RetrievalCache.timeToLiveMillis = timeToLiveSeconds * 1000;
+		evict();
+		LOGGER.info("Retrieval cache configured with " + maxEntries + " entries and a time to live of " + timeToLiveSeconds + " seconds.");
+	}
+
+	public static synchronized boolean isEnabled() {
+		return maxEntries > 0;
+	}
+
+	/**
+	 * Creates the key for a retrieval. Content is normalized (trimmed, whitespace collapsed) before it is hashed.
+	 */
+	public static String createKey(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, String content,
+			MetadataCollection metadataCollection, Long maxNumberOfResults, BigDecimal minimumSimilarity) throws CoreException {
+		return createKey(context, deployedKnowledgeBase, content, metadataCollection, maxNumberOfResults, minimumSimilarity, null);
+	}
+
+	/**
+	 * Creates the key for a retrieval whose result also depends on other settings, such as the quantization of the knowledge base.
+	 * Retrievals with a different variant never share an entry.
+	 */
+	public static String createKey(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, String content,
+			MetadataCollection metadataCollection, Long maxNumberOfResults, BigDecimal minimumSimilarity, String variant) throws CoreException {
+		StringBuilder key = new StringBuilder(getKnowledgeBaseKey(context, deployedKnowledgeBase)).append('|')
+				.append(sha256(content == null ? "" : content.trim().replaceAll("\\s+", " "))).append('|');
+		if (metadataCollection != null) {
+			// sorted, so that the order in which metadata was added does not matter
+			Map<String, List<String>> metadata = new TreeMap<>();
+			for (Metadata m : metadataCollection.getMetadataCollection_Metadata(context)) {
+				metadata.computeIfAbsent(String.valueOf(m.getKey(context)), k -> new ArrayList<>()).add(String.valueOf(m.getValue(context)));
+			}
+			metadata.values().forEach(Collections::sort);
+			key.append(sha256(metadata.toString()));
+		}
+		key.append('|').append(maxNumberOfResults).append('|')
+				.append(minimumSimilarity == null ? "" : minimumSimilarity.stripTrailingZeros().toPlainString());
+		if (variant != null && !variant.isEmpty()) {
+			key.append('|').append(variant);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the cached chunks instantiated in the given context, or null if there is no valid entry for the key.
+	 */
+	public static List<KnowledgeBaseChunk> get(IContext context, String key) {
+		CacheEntry entry;
+		synchronized (RetrievalCache.class) {
+			if (maxEntries <= 0) {
+				return null;
+			}
+			entry = ENTRIES.get(key);
+			if (entry != null && (isExpired(entry) || entry.generation != getGeneration(entry.knowledgeBaseKey).get())) {
+				ENTRIES.remove(key);
+				entry = null;
+			}
+		}
+		if (entry == null) {
+			MISSES.incrementAndGet();
+			return null;
+		}
+		HITS.incrementAndGet();
+		List<KnowledgeBaseChunk> chunks = new ArrayList<>(entry.chunks.size());
+		entry.chunks.forEach(snapshot -> chunks.add(snapshot.instantiate(context)));
+		return chunks;
+	}
+
+	/**
+	 * Returns the current generation of the knowledge base. It must be read before the retrieval is executed and passed to
+	 * {@link #put}, so that results of a retrieval that ran concurrently with an invalidation are not cached.
+	 */
+	public static long getGeneration(IContext context, DeployedKnowledgeBase deployedKnowledgeBase) {
+		return getGeneration(getKnowledgeBaseKey(context, deployedKnowledgeBase)).get();
+	}
+
+	public static void put(IContext context, String key, DeployedKnowledgeBase deployedKnowledgeBase, long generation,
+			List<KnowledgeBaseChunk> chunks) throws CoreException {
+		if (!isEnabled() || chunks == null) {
+			return;
+		}
+		List<ChunkSnapshot> snapshots = new ArrayList<>(chunks.size());
+		for (KnowledgeBaseChunk chunk : chunks) {
+			snapshots.add(new ChunkSnapshot(context, chunk));
+		}
+		String knowledgeBaseKey = getKnowledgeBaseKey(context, deployedKnowledgeBase);
+		synchronized (RetrievalCache.class) {
+			if (generation != getGeneration(knowledgeBaseKey).get()) {
+				return;
+			}
+			ENTRIES.put(key, new CacheEntry(knowledgeBaseKey, generation, Collections.unmodifiableList(snapshots)));
+			evict();
+		}
+	}
+
+	/**
+	 * Invalidates all cached retrievals of the knowledge base. To be called whenever chunks are inserted, replaced or deleted.
+	 */
+	public static void invalidate(IContext context, DeployedKnowledgeBase deployedKnowledgeBase) {
+		if (deployedKnowledgeBase == null) {
+			return;
+		}
+		String knowledgeBaseKey = getKnowledgeBaseKey(context, deployedKnowledgeBase);
+		synchronized (RetrievalCache.class) {
+			getGeneration(knowledgeBaseKey).incrementAndGet();
+			ENTRIES.values().removeIf(entry -> entry.knowledgeBaseKey.equals(knowledgeBaseKey));
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Retrieval cache invalidated for knowledge base " + knowledgeBaseKey + ".");
+		}
+	}
+
+	public static synchronized String getStatistics() {
+		long hits = HITS.get();
+		long misses = MISSES.get();
+		return String.format("Retrieval cache: %d entries (max %d), %d hits, %d misses, hit rate %.1f%%.", ENTRIES.size(), maxEntries,
+				hits, misses, hits + misses == 0 ? 0.0 : hits * 100.0 / (hits + misses));
+	}
+
+	static String getKnowledgeBaseKey(IContext context, DeployedKnowledgeBase deployedKnowledgeBase) {
+		return deployedKnowledgeBase.getMendixObject().getType() + ":" + deployedKnowledgeBase.getName(context);
+	}
+
+	private static AtomicLong getGeneration(String knowledgeBaseKey) {
+		return GENERATIONS.computeIfAbsent(knowledgeBaseKey, k -> new AtomicLong());
+	}
+
+	private static boolean isExpired(CacheEntry entry) {
+		return timeToLiveMillis > 0 && System.currentTimeMillis() - entry.created > timeToLiveMillis;
+	}
+
+	private static void evict() {
+		Iterator<CacheEntry> iterator = ENTRIES.values().iterator();
+		while (iterator.hasNext()) {
+			CacheEntry entry = iterator.next();
+			if (ENTRIES.size() > maxEntries || isExpired(entry)) {
+				iterator.remove();
+			}
+		}
+	}
+
+	static String sha256(String value) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class CacheEntry {
+		private final String knowledgeBaseKey;
+		private final long generation;
+		private final long created = System.currentTimeMillis();
+		private final List<ChunkSnapshot> chunks;
+
+		private CacheEntry(String knowledgeBaseKey, long generation, List<ChunkSnapshot> chunks) {
+			this.knowledgeBaseKey = knowledgeBaseKey;
+			this.generation = generation;
+			this.chunks = chunks;
+		}
+	}
+
+	private static final class ChunkSnapshot {
+		private final String chunkID;
+		private final String humanReadableID;
+		private final String inputText;
+		private final String embeddingVector;
+		private final String mxObjectID;
+		private final String mxEntity;
+		private final BigDecimal similarity;
+		private final List<String[]> metadata = new ArrayList<>();
+
+		private ChunkSnapshot(IContext context, KnowledgeBaseChunk chunk) throws CoreException {
+			this.chunkID = chunk.getChunkID(context);
+			this.humanReadableID = chunk.getHumanReadableID(context);
+			this.inputText = chunk.getInputText(context);
+			this.embeddingVector = chunk.getEmbeddingVector(context);
+			this.mxObjectID = chunk.getMxObjectID(context);
+			this.mxEntity = chunk.getMxEntity(context);
+			this.similarity = chunk.getSimilarity(context);
+			MetadataCollection metadataCollection = chunk.getKnowledgeBaseChunk_MetadataCollection(context);
+			if (metadataCollection != null) {
+				for (Metadata m : metadataCollection.getMetadataCollection_Metadata(context)) {
+					metadata.add(new String[] { m.getKey(context), m.getValue(context) });
+				}
+			}
+		}
+
+		private KnowledgeBaseChunk instantiate(IContext context) {
+			KnowledgeBaseChunk chunk = new KnowledgeBaseChunk(context);
+			chunk.setChunkID(context, chunkID);
+			chunk.setHumanReadableID(context, humanReadableID);
+			chunk.setInputText(context, inputText);
+			chunk.setEmbeddingVector(context, embeddingVector);
+			chunk.setMxObjectID(context, mxObjectID);
+			chunk.setMxEntity(context, mxEntity);
+			chunk.setSimilarity(context, similarity);
+			if (!metadata.isEmpty()) {
+				List<Metadata> metadataList = new ArrayList<>(metadata.size());
+				for (String[] keyValue : metadata) {
+					Metadata m = new Metadata(context);
+					m.setKey(context, keyValue[0]);
+					m.setValue(context, keyValue[1]);
+					metadataList.add(m);
+				}
+				MetadataCollection metadataCollection = new MetadataCollection(context);
+				metadataCollection.setMetadataCollection_Metadata(context, metadataList);
+				chunk.setKnowledgeBaseChunk_MetadataCollection(context, metadataCollection);
+			}
+			return chunk;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package genaicommons.impl;
+
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Base class for splitters that cut text into small segments (paragraphs, sentences, words, tokens) and merge consecutive
+ * segments into chunks of at most ChunkSize, where consecutive chunks share up to ChunkOverlap of the tail of the previous chunk.
+ * The overlap consists of whole trailing segments and, if there is room left, the end of the segment before them, starting at a word.
+ * Sizes are measured with {@link #measure(String)}, which counts characters unless a subclass counts something else.
+ *
+ * The input is read in blocks that end at a paragraph, line, sentence or word boundary, so only one block and the segments of
+ * the current chunk are kept in memory. Segments must cover the text completely: their concatenation is the original text.
+ */
+public abstract class SegmentingTextSplitter implements TextSplitter {
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+	private static final String[] BLOCK_BOUNDARIES = { "\n\n", "\n", ". ", " " };
+
+	protected final int chunkSize;
+	protected final int chunkOverlap;
+
+	protected SegmentingTextSplitter(int chunkSize, int chunkOverlap) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("ChunkSize must be larger than 0.");
+		}
+		if (chunkOverlap < 0 || chunkOverlap >= chunkSize) {
+			throw new IllegalArgumentException("ChunkOverlap must be at least 0 and smaller than ChunkSize.");
+		}
+		this.chunkSize = chunkSize;
+		this.chunkOverlap = chunkOverlap;
+	}
+
+	/**
+	 * Adds the segments of the text to the list. Every segment should measure at most ChunkSize; larger segments become a chunk on their own.
+	 */
+	protected abstract void segment(String text, List<String> segments);
+
+	protected int measure(String segment) {
+		return segment.length();
+	}
+
+	@Override
+	public void split(Reader reader, ChunkConsumer consumer) throws Exception {
+		Merger merger = new Merger(consumer);
+		StringBuilder buffer = new StringBuilder(BLOCK_SIZE * 2);
+		char[] readBuffer = new char[8192];
+		int read;
+		while ((read = reader.read(readBuffer)) != -1) {
+			buffer.append(readBuffer, 0, read);
+			if (buffer.length() >= BLOCK_SIZE) {
+				int end = findBlockEnd(buffer);
+				merger.addAll(buffer.substring(0, end));
+				buffer.delete(0, end);
+			}
+		}
+		if (buffer.length() > 0) {
+			merger.addAll(buffer.toString());
+		}
+		merger.flush();
+	}
+
+	/**
+	 * Splits a segment that is too large on spaces and, for words that are still too large, on characters.
+	 */
+	protected void splitOversized(String text, List<String> segments) {
+		if (measure(text) <= chunkSize) {
+			segments.add(text);
+			return;
+		}
+		int start = 0;
+		while (start < text.length()) {
+			int space = text.indexOf(' ', start);
+			int end = space == -1 ? text.length() : space + 1;
+			String word = text.substring(start, end);
+			if (measure(word) <= chunkSize) {
+				segments.add(word);
+			} else {
+				for (int i = 0; i < word.length(); i += chunkSize) {
+					segments.add(word.substring(i, Math.min(word.length(), i + chunkSize)));
+				}
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * @return the longest end of the segment that starts at a word and measures at most maxSize, or an empty string
+	 */
+	protected String tail(String segment, int maxSize) {
+		for (int i = Math.max(1, segment.length() - maxSize); i < segment.length(); i++) {
+			if (Character.isWhitespace(segment.charAt(i - 1)) && !Character.isWhitespace(segment.charAt(i))) {
+				String tail = segment.substring(i);
+				if (measure(tail) <= maxSize) {
+					return tail;
+				}
+			}
+		}
+		return "";
+	}
+
+	private static int findBlockEnd(StringBuilder buffer) {
+		// only the second half of the block is searched, so that every block has a reasonable size
+		int from = buffer.length() / 2;
+		for (String boundary : BLOCK_BOUNDARIES) {
+			int index = buffer.lastIndexOf(boundary);
+			if (index >= from) {
+				return index + boundary.length();
+			}
+		}
+		return buffer.length();
+	}
+
+	private final class Merger {
+		private final ChunkConsumer consumer;
+		private final Deque<String> window = new ArrayDeque<>();
+		private final Deque<Integer> sizes = new ArrayDeque<>();
+		private final List<String> segments = new ArrayList<>();
+		private int windowSize = 0;
+		private int pending = 0;
+
+		private Merger(ChunkConsumer consumer) {
+			this.consumer = consumer;
+		}
+
+		private void addAll(String text) throws Exception {
+			segments.clear();
+			segment(text, segments);
+			for (String segment : segments) {
+				add(segment, measure(segment));
+			}
+		}
+
+		private void add(String segment, int size) throws Exception {
+			if (windowSize + size > chunkSize && !window.isEmpty()) {
+				emit();
+				keepOverlap(Math.min(chunkOverlap, chunkSize - size));
+			}
+			window.addLast(segment);
+			sizes.addLast(size);
+			windowSize += size;
+			pending++;
+		}
+
+		/**
+		 * Keeps the tail of the emitted chunk, up to the given size, as the start of the next chunk.
+		 */
+		private void keepOverlap(int maxSize) {
+			Deque<String> overlap = new ArrayDeque<>();
+			Deque<Integer> overlapSizes = new ArrayDeque<>();
+			int overlapSize = 0;
+			while (!window.isEmpty() && maxSize > overlapSize) {
+				String segment = window.removeLast();
+				int size = sizes.removeLast();
+				if (overlapSize + size > maxSize) {
+					segment = tail(segment, maxSize - overlapSize);
+					size = measure(segment);
+					window.clear();
+					sizes.clear();
+				}
+				if (!segment.isEmpty()) {
+					overlap.addFirst(segment);
+					overlapSizes.addFirst(size);
+					overlapSize += size;
+				}
+			}
+			window.clear();
+			sizes.clear();
+			window.addAll(overlap);
+			sizes.addAll(overlapSizes);
+			windowSize = overlapSize;
+		}
+
+		private void flush() throws Exception {
+			if (pending > 0) {
+				emit();
+			}
+		}
+
+		private void emit() throws Exception {
+			pending = 0;
+			StringBuilder chunk = new StringBuilder();
+			window.forEach(chunk::append);
+			String text = chunk.toString().strip();
+			if (!text.isEmpty()) {
+				consumer.accept(text);
+			}
+		}
+	}
+}
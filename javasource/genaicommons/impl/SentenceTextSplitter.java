@@ -0,0 +1,33 @@
+package genaicommons.impl;
+
+import java.text.BreakIterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits on sentence boundaries (using the sentence rules of the locale) and merges whole sentences into chunks of up to
+ * ChunkSize characters, so that no chunk starts or ends in the middle of a sentence. Sentences longer than ChunkSize are split on words.
+ */
+public class SentenceTextSplitter extends SegmentingTextSplitter {
+
+	private final Locale locale;
+
+	public SentenceTextSplitter(int chunkSize, int chunkOverlap) {
+		this(chunkSize, chunkOverlap, Locale.ENGLISH);
+	}
+
+	public SentenceTextSplitter(int chunkSize, int chunkOverlap, Locale locale) {
+		super(chunkSize, chunkOverlap);
+		this.locale = locale;
+	}
+
+	@Override
+	protected void segment(String text, List<String> segments) {
+		BreakIterator sentences = BreakIterator.getSentenceInstance(locale);
+		sentences.setText(text);
+		int start = sentences.first();
+		for (int end = sentences.next(); end != BreakIterator.DONE; start = end, end = sentences.next()) {
+			splitOversized(text.substring(start, end), segments);
+		}
+	}
+}
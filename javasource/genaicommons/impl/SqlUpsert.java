@@ -0,0 +1,136 @@
+package genaicommons.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Inserts rows into a table or, when a row with the same key already exists, updates its other columns, for the tables that are kept
+ * outside of the domain model. PostgreSQL and MySQL get a single atomic statement (INSERT ... ON CONFLICT and INSERT ... ON DUPLICATE
+ * KEY UPDATE). Other databases first update and insert when no row was updated; an insert that loses a race with a concurrent insert
+ * of the same key is turned into an update instead of failing with a key violation.
+ */
+public class SqlUpsert {
+
+	private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+	private final String tableName;
+	private final List<String> keyColumns;
+	private final List<String> valueColumns;
+
+	/**
+	 * @param keyColumns the columns of the primary key, bound first
+	 * @param valueColumns the other columns, bound after the key columns; may be empty to only insert missing rows
+	 */
+	public SqlUpsert(String tableName, List<String> keyColumns, List<String> valueColumns) {
+		this.tableName = tableName;
+		this.keyColumns = List.copyOf(keyColumns);
+		this.valueColumns = List.copyOf(valueColumns);
+	}
+
+	public void execute(Connection connection, Object... row) throws SQLException {
+		List<Object[]> rows = new ArrayList<>(1);
+		rows.add(row);
+		execute(connection, rows);
+	}
+
+	/**
+	 * @param rows the key values followed by the other values of every row
+	 */
+	public void execute(Connection connection, List<Object[]> rows) throws SQLException {
+		if (rows.isEmpty()) {
+			return;
+		}
+		for (Object[] row : rows) {
+			if (row.length != keyColumns.size() + valueColumns.size()) {
+				throw new IllegalArgumentException("Expected " + (keyColumns.size() + valueColumns.size()) + " values for " + tableName + ".");
+			}
+		}
+		String product = String.valueOf(connection.getMetaData().getDatabaseProductName()).toLowerCase(Locale.ROOT);
+		if (product.contains("postgres")) {
+			executeBatch(connection, insert() + " ON CONFLICT (" + String.join(", ", keyColumns) + ") DO "
+					+ (valueColumns.isEmpty() ? "NOTHING" : "UPDATE SET " + assignments("EXCLUDED.%s")), rows);
+		} else if (product.contains("mysql") || product.contains("mariadb")) {
+			executeBatch(connection, insert() + " ON DUPLICATE KEY UPDATE "
+					+ (valueColumns.isEmpty() ? keyColumns.get(0) + " = " + keyColumns.get(0) : assignments("VALUES(%s)")), rows);
+		} else {
+			for (Object[] row : rows) {
+				updateOrInsert(connection, row);
+			}
+		}
+	}
+
+	private void updateOrInsert(Connection connection, Object[] row) throws SQLException {
+		if (update(connection, row) > 0) {
+			return;
+		}
+		try (PreparedStatement statement = connection.prepareStatement(insert())) {
+			bind(statement, row);
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			if (e.getSQLState() == null || !e.getSQLState().startsWith(INTEGRITY_CONSTRAINT_VIOLATION)) {
+				throw e;
+			}
+			// inserted concurrently
+			update(connection, row);
+		}
+	}
+
+	/**
+	 * @return the number of existing rows, updated if there are value columns
+	 */
+	private int update(Connection connection, Object[] row) throws SQLException {
+		String where = " WHERE " + String.join(" = ? AND ", keyColumns) + " = ?";
+		String sql = valueColumns.isEmpty() ? "SELECT COUNT(*) FROM " + tableName + where
+				: "UPDATE " + tableName + " SET " + String.join(" = ?, ", valueColumns) + " = ?" + where;
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			int index = 1;
+			for (int i = keyColumns.size(); i < row.length; i++) {
+				statement.setObject(index++, row[i]);
+			}
+			for (int i = 0; i < keyColumns.size(); i++) {
+				statement.setObject(index++, row[i]);
+			}
+			if (valueColumns.isEmpty()) {
+				try (ResultSet resultSet = statement.executeQuery()) {
+					return resultSet.next() ? resultSet.getInt(1) : 0;
+				}
+			}
+			return statement.executeUpdate();
+		}
+	}
+
+	private void executeBatch(Connection connection, String sql, List<Object[]> rows) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			for (Object[] row : rows) {
+				bind(statement, row);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+	private String insert() {
+		List<String> columns = new ArrayList<>(keyColumns);
+		columns.addAll(valueColumns);
+		return "INSERT INTO " + tableName + " (" + String.join(", ", columns) + ") VALUES (" + "?, ".repeat(columns.size() - 1) + "?)";
+	}
+
+	private String assignments(String valueFormat) {
+		List<String> assignments = new ArrayList<>(valueColumns.size());
+		for (String column : valueColumns) {
+			assignments.add(column + " = " + String.format(valueFormat, column));
+		}
+		return String.join(", ", assignments);
+	}
+
+	private void bind(PreparedStatement statement, Object[] row) throws SQLException {
+		for (int i = 0; i < row.length; i++) {
+			statement.setObject(i + 1, row[i]);
+		}
+	}
+}
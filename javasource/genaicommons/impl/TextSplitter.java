@@ -0,0 +1,17 @@
+package genaicommons.impl;
+
+import java.io.Reader;
+
+/**
+ * Splits text into chunks while it is being read, so that documents do not have to be loaded into memory as a whole.
+ * Chunks are passed to the consumer in document order.
+ */
+public interface TextSplitter {
+
+	void split(Reader reader, ChunkConsumer consumer) throws Exception;
+
+	@FunctionalInterface
+	interface ChunkConsumer {
+		void accept(String chunk) throws Exception;
+	}
+}
@@ -0,0 +1,46 @@
+package genaicommons.impl;
+
+/**
+ * Creates the text splitter for a splitter type, as passed (as a string) to the chunking operations.
+ */
+public class TextSplitters {
+
+	/**
+	 * - CHARACTER: chunks of a fixed number of characters, ending at a space where possible.
+	 * - RECURSIVE (default): splits on paragraphs, then lines, sentences and words, keeping the largest units that fit in a chunk.
+	 * - SENTENCE: chunks only end at sentence boundaries.
+	 * - TOKEN: ChunkSize and ChunkOverlap are counted in (approximated) tokens instead of characters, to match the input limit of
+	 *   embedding models.
+	 */
+	public enum SplitterType {
+		CHARACTER, RECURSIVE, SENTENCE, TOKEN;
+
+		public static SplitterType fromString(String value) {
+			if (value == null || value.isBlank()) {
+				return RECURSIVE;
+			}
+			try {
+				return SplitterType.valueOf(value.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown splitter type " + value + ". Supported values are CHARACTER, RECURSIVE, SENTENCE and TOKEN.");
+			}
+		}
+	}
+
+	/**
+	 * @param chunkSize maximum chunk size, in tokens for TOKEN and in characters for the other types
+	 * @param chunkOverlap size shared by consecutive chunks, in the same unit as chunkSize
+	 */
+	public static TextSplitter create(SplitterType splitterType, int chunkSize, int chunkOverlap) {
+		switch (splitterType) {
+		case CHARACTER:
+			return new FixedSizeTextSplitter(chunkSize, chunkOverlap);
+		case SENTENCE:
+			return new SentenceTextSplitter(chunkSize, chunkOverlap);
+		case TOKEN:
+			return new TokenTextSplitter(chunkSize, chunkOverlap);
+		default:
+			return new RecursiveTextSplitter(chunkSize, chunkOverlap);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package genaicommons.impl;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Approximates the number of tokens that a byte pair encoding tokenizer (like cl100k) produces for a text, without needing the
+ * vocabulary of a specific model. The text is first split with the same pre-tokenization pattern these tokenizers use; every
+ * piece is then estimated: Latin words at about five characters per token, numbers per group of three digits, other scripts at
+ * one token per character. For English text the estimate is usually within 10% of the real count.
+ */
+public class TokenCounter {
+
+	private static final Pattern PRE_TOKEN = Pattern.compile("'(?:s|t|re|ve|m|ll|d)| ?\\p{L}+| ?\\p{N}+| ?[^\\s\\p{L}\\p{N}]+|\\s+");
+	private static final int CHARACTERS_PER_WORD_TOKEN = 5;
+	private static final int DIGITS_PER_TOKEN = 3;
+	private static final int CHARACTERS_PER_SYMBOL_TOKEN = 2;
+	private static final char LAST_LATIN_CHARACTER = '\u024F';
+
+	public static int count(CharSequence text) {
+		int tokens = 0;
+		Matcher matcher = PRE_TOKEN.matcher(text);
+		while (matcher.find()) {
+			tokens += estimate(text, matcher.start(), matcher.end());
+		}
+		return tokens;
+	}
+
+	/**
+	 * Splits the text into pre-tokens; concatenating the pieces results in the original text.
+	 */
+	public static void split(CharSequence text, List<String> pieces) {
+		Matcher matcher = PRE_TOKEN.matcher(text);
+		int end = 0;
+		while (matcher.find()) {
+			if (matcher.start() > end) {
+				pieces.add(text.subSequence(end, matcher.start()).toString());
+			}
+			pieces.add(matcher.group());
+			end = matcher.end();
+		}
+		if (end < text.length()) {
+			pieces.add(text.subSequence(end, text.length()).toString());
+		}
+	}
+
+	private static int estimate(CharSequence text, int start, int end) {
+		if (text.charAt(start) == ' ' && end - start > 1) {
+			// the leading space is merged into the token
+			start++;
+		}
+		int length = end - start;
+		char first = text.charAt(start);
+		if (Character.isWhitespace(first)) {
+			return 1;
+		}
+		if (Character.isDigit(first)) {
+			return ceilDiv(length, DIGITS_PER_TOKEN);
+		}
+		if (Character.isLetter(first)) {
+			for (int i = start; i < end; i++) {
+				if (text.charAt(i) > LAST_LATIN_CHARACTER) {
+					return length;
+				}
+			}
+			return ceilDiv(length, CHARACTERS_PER_WORD_TOKEN);
+		}
+		return ceilDiv(length, CHARACTERS_PER_SYMBOL_TOKEN);
+	}
+
+	private static int ceilDiv(int value, int divisor) {
+		return Math.max(1, (value + divisor - 1) / divisor);
+	}
+}
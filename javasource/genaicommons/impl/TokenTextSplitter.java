@@ -0,0 +1,51 @@
+package genaicommons.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits into chunks of up to ChunkSize tokens, with ChunkOverlap tokens shared between consecutive chunks, so that chunks
+ * fit the input limit of an embedding model. Tokens are approximated with {@link TokenCounter}; chunks only end between
+ * pre-tokens, so words are never cut, and punctuation is kept with the word before it.
+ */
+public class TokenTextSplitter extends SegmentingTextSplitter {
+
+	public TokenTextSplitter(int chunkSize, int chunkOverlap) {
+		super(chunkSize, chunkOverlap);
+	}
+
+	@Override
+	protected void segment(String text, List<String> segments) {
+		List<String> pieces = new ArrayList<>();
+		TokenCounter.split(text, pieces);
+		// punctuation and whitespace stay with the preceding word (or the next one at the start), so that no chunk consists of punctuation only
+		StringBuilder segment = new StringBuilder();
+		boolean segmentHasWord = false;
+		for (String piece : pieces) {
+			boolean word = hasWord(piece);
+			if (segmentHasWord && word) {
+				segments.add(segment.toString());
+				segment.setLength(0);
+			}
+			segment.append(piece);
+			segmentHasWord |= word;
+		}
+		if (segment.length() > 0) {
+			segments.add(segment.toString());
+		}
+	}
+
+	private static boolean hasWord(String piece) {
+		for (int i = 0; i < piece.length(); i++) {
+			if (Character.isLetterOrDigit(piece.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	protected int measure(String segment) {
+		return TokenCounter.count(segment);
+	}
+}
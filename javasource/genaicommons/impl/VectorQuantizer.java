@@ -0,0 +1,116 @@
+package genaicommons.impl;
+
+/**
+ * Compresses embedding vectors into compact codes that can be compared much faster than full precision floats:
+ * - SCALAR: every dimension is stored as a signed byte (int8), with one scale factor per vector (4x smaller).
+ * - BINARY: every dimension is stored as a single bit (its sign), packed in longs (32x smaller) and compared using the Hamming distance.
+ * Quantized distances are approximations; they are meant to select candidates that are rescored on the original vectors afterwards.
+ */
+public class VectorQuantizer {
+
+	public enum QuantizationType {
+		NONE, SCALAR, BINARY;
+
+		public static QuantizationType fromString(String value) {
+			if (value == null || value.isBlank()) {
+				return NONE;
+			}
+			try {
+				return QuantizationType.valueOf(value.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Unknown quantization type " + value + ". Supported values are NONE, SCALAR and BINARY.");
+			}
+		}
+	}
+
+	/**
+	 * Int8 representation of a vector: value[i] is approximately codes[i] * scale.
+	 */
+	public static final class ScalarCode {
+		private final byte[] codes;
+		private final float scale;
+
+		private ScalarCode(byte[] codes, float scale) {
+			this.codes = codes;
+			this.scale = scale;
+		}
+
+		public byte[] getCodes() {
+			return codes;
+		}
+
+		public float getScale() {
+			return scale;
+		}
+	}
+
+	public static ScalarCode quantizeScalar(float[] vector) {
+		float maxAbs = 0f;
+		for (float value : vector) {
+			maxAbs = Math.max(maxAbs, Math.abs(value));
+		}
+		byte[] codes = new byte[vector.length];
+		if (maxAbs == 0f) {
+			return new ScalarCode(codes, 0f);
+		}
+		float scale = maxAbs / 127f;
+		for (int i = 0; i < vector.length; i++) {
+			codes[i] = (byte) Math.round(vector[i] / scale);
+		}
+		return new ScalarCode(codes, scale);
+	}
+
+	/**
+	 * Approximate dot product of two scalar quantized vectors.
+	 */
+	public static float scalarDot(ScalarCode a, ScalarCode b) {
+		byte[] codesA = a.codes;
+		byte[] codesB = b.codes;
+		if (codesA.length != codesB.length) {
+			throw new IllegalArgumentException("Vectors have different dimensions (" + codesA.length + " and " + codesB.length + ").");
+		}
+		int sum = 0;
+		for (int i = 0; i < codesA.length; i++) {
+			sum += codesA[i] * codesB[i];
+		}
+		return sum * a.scale * b.scale;
+	}
+
+	/**
+	 * Packs the sign of every dimension into a bit: 1 for positive values, 0 otherwise (same convention as binary_quantize in pgvector).
+	 */
+	public static long[] quantizeBinary(float[] vector) {
+		long[] bits = new long[(vector.length + 63) >>> 6];
+		for (int i = 0; i < vector.length; i++) {
+			if (vector[i] > 0f) {
+				bits[i >>> 6] |= 1L << (i & 63);
+			}
+		}
+		return bits;
+	}
+
+	public static int hammingDistance(long[] a, long[] b) {
+		if (a.length != b.length) {
+			throw new IllegalArgumentException("Binary codes have different lengths (" + a.length + " and " + b.length + ").");
+		}
+		int distance = 0;
+		for (int i = 0; i < a.length; i++) {
+			distance += Long.bitCount(a[i] ^ b[i]);
+		}
+		return distance;
+	}
+
+	/**
+	 * Number of bytes needed to store one quantized vector of the given dimension.
+	 */
+	public static long getBytesPerVector(QuantizationType type, int dimensions) {
+		switch (type) {
+		case SCALAR:
+			return dimensions + Float.BYTES;
+		case BINARY:
+			return (long) ((dimensions + 63) >>> 6) * Long.BYTES;
+		default:
+			return (long) dimensions * Float.BYTES;
+		}
+	}
+}
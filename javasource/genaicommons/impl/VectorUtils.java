@@ -0,0 +1,121 @@
+package genaicommons.impl;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Helpers to work with embedding vectors in their string representation (e.g. "[0.1,0.2,0.3]"),
+ * as stored in the EmbeddingVector attribute of a Chunk. Vectors are parsed once into a primitive
+ * float array, so that distance calculations do not need to box or re-parse values.
+ */
+public class VectorUtils {
+
+	/**
+	 * Parses a vector string like "[0.1, -0.2, 0.3]" into a float array.
+	 * @param vector
+	 * @return
+	 */
+	public static float[] parse(String vector) {
+		requireNonNull(vector, "Vector is required.");
+		int start = vector.indexOf('[');
+		int end = vector.lastIndexOf(']');
+		if (start < 0 || end < start) {
+			throw new IllegalArgumentException("Vector must be formatted as [v1,v2,...].");
+		}
+
+		int dimensions = 0;
+		boolean hasValue = false;
+		for (int i = start + 1; i < end; i++) {
+			char c = vector.charAt(i);
+			if (c == ',') {
+				dimensions++;
+			} else if (!Character.isWhitespace(c)) {
+				hasValue = true;
+			}
+		}
+		if (!hasValue) {
+			return new float[0];
+		}
+
+		float[] result = new float[dimensions + 1];
+		int index = 0;
+		int valueStart = start + 1;
+		for (int i = start + 1; i <= end; i++) {
+			if (i == end || vector.charAt(i) == ',') {
+				result[index++] = Float.parseFloat(vector.substring(valueStart, i).trim());
+				valueStart = i + 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Formats a float array into the string representation used for embedding vectors.
+	 * @param vector
+	 * @return
+	 */
+	public static String format(float[] vector) {
+		StringBuilder sb = new StringBuilder(vector.length * 12 + 2).append('[');
+		for (int i = 0; i < vector.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(vector[i]);
+		}
+		return sb.append(']').toString();
+	}
+
+	public static float dot(float[] a, float[] b) {
+		validateDimensions(a, b);
+		float sum = 0f;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	public static float norm(float[] a) {
+		float sum = 0f;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * a[i];
+		}
+		return (float) Math.sqrt(sum);
+	}
+
+	/**
+	 * Cosine similarity in the range -1.0 to 1.0 (same as 1 - cosine distance in pgvector).
+	 */
+	public static float cosineSimilarity(float[] a, float[] b) {
+		validateDimensions(a, b);
+		float dot = 0f, normA = 0f, normB = 0f;
+		for (int i = 0; i < a.length; i++) {
+			dot += a[i] * b[i];
+			normA += a[i] * a[i];
+			normB += b[i] * b[i];
+		}
+		if (normA == 0f || normB == 0f) {
+			return 0f;
+		}
+		return (float) (dot / Math.sqrt((double) normA * normB));
+	}
+
+	/**
+	 * Returns a copy of the vector scaled to unit length, so that cosine similarity equals the dot product.
+	 */
+	public static float[] normalize(float[] a) {
+		float norm = norm(a);
+		float[] result = new float[a.length];
+		if (norm == 0f) {
+			return result;
+		}
+		for (int i = 0; i < a.length; i++) {
+			result[i] = a[i] / norm;
+		}
+		return result;
+	}
+
+	private static void validateDimensions(float[] a, float[] b) {
+		if (a.length != b.length) {
+			throw new IllegalArgumentException("Vectors have different dimensions (" + a.length + " and " + b.length + ").");
+		}
+	}
+}
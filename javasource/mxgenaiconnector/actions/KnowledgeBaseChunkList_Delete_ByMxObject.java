@@ -11,6 +11,7 @@ package mxgenaiconnector.actions;
 
 import java.util.ArrayList;
 import com.mendix.systemwideinterfaces.core.IContext;
+import genaicommons.impl.RetrievalCache;
 import genaicommons.proxies.KnowledgeBaseChunk;
 import mxgenaiconnector.impl.ChunkUtils;
 import mxgenaiconnector.impl.MxLogger;
@@ -56,7 +57,10 @@ public class KnowledgeBaseChunkList_Delete_ByMxObject extends UserAction<java.la
 			else {
 				ChunkUtils.addChunkWithMxObjectID(getContext(), MxObject, chunkList);
 			}
-			return mxgenaiconnector.proxies.microflows.Microflows.knowledgeBaseChunkList_Delete_FromKnowledgeBase(getContext(), chunkList, Collection.initialize(getContext(), DeployedKnowledgeBase.getMendixObject()));
+			boolean isSuccess = mxgenaiconnector.proxies.microflows.Microflows.knowledgeBaseChunkList_Delete_FromKnowledgeBase(getContext(), chunkList, Collection.initialize(getContext(), DeployedKnowledgeBase.getMendixObject()));
+			// deleted chunks must not be returned from cached retrievals anymore
+			RetrievalCache.invalidate(getContext(), DeployedKnowledgeBase);
+			return isSuccess;
 		} catch (Error e) {
 			LOGGER.error(e, "Delete was not successful.");
 			return false;
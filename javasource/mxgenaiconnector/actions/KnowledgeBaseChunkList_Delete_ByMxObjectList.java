@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
+import genaicommons.impl.RetrievalCache;
 import genaicommons.proxies.KnowledgeBaseChunk;
 import mxgenaiconnector.impl.ChunkUtils;
 import mxgenaiconnector.impl.MxLogger;
@@ -54,7 +55,10 @@ public class KnowledgeBaseChunkList_Delete_ByMxObjectList extends UserAction<jav
 			}
 			java.util.List<KnowledgeBaseChunk> chunkList = new ArrayList<>();
 			MxObjectList.forEach(o -> ChunkUtils.addChunkWithMxObjectID(getContext(), o, chunkList));
-			return mxgenaiconnector.proxies.microflows.Microflows.knowledgeBaseChunkList_Delete_FromKnowledgeBase(getContext(), chunkList, Collection.initialize(getContext(), DeployedKnowledgeBase.getMendixObject()));
+			boolean isSuccess = mxgenaiconnector.proxies.microflows.Microflows.knowledgeBaseChunkList_Delete_FromKnowledgeBase(getContext(), chunkList, Collection.initialize(getContext(), DeployedKnowledgeBase.getMendixObject()));
+			// deleted chunks must not be returned from cached retrievals anymore
+			RetrievalCache.invalidate(getContext(), DeployedKnowledgeBase);
+			return isSuccess;
 		} catch (Error e) {
 			LOGGER.error(e, "Delete list was not successful.");
 			return false;
@@ -14,6 +14,7 @@ import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
 import com.mendix.systemwideinterfaces.core.UserAction;
+import genaicommons.impl.RetrievalCache;
 import genaicommons.proxies.KnowledgeBaseChunk;
 import mxgenaiconnector.impl.ChunkUtils;
 import mxgenaiconnector.impl.MxLogger;
@@ -71,9 +72,20 @@ public class KnowledgeBaseChunkList_Embed_RetrieveNearestNeighbors_SetAssociatio
 			IMetaObject targetChunk = Core.getMetaObject(TargetChunk);
 			ChunkUtils.validateTargetChunk(targetChunk);
 			
-			// call a microflow to retrieve chunks
-			java.util.List<KnowledgeBaseChunk> chunkList = mxgenaiconnector.proxies.microflows.Microflows.knowledgeBaseChunkList_Embed_RetrieveNearestNeighbors(
-					getContext(), Content, MinimumSimilarity, MaxNumberOfResults, DeployedKnowledgeBase, MetadataCollection);
+			// serve from the retrieval cache if possible, so that the content does not need to be embedded again
+			String cacheKey = RetrievalCache.isEnabled() 
+					? RetrievalCache.createKey(getContext(), DeployedKnowledgeBase, Content, MetadataCollection, MaxNumberOfResults, MinimumSimilarity) 
+					: null;
+			java.util.List<KnowledgeBaseChunk> chunkList = cacheKey == null ? null : RetrievalCache.get(getContext(), cacheKey);
+			if (chunkList == null) {
+				long generation = RetrievalCache.getGeneration(getContext(), DeployedKnowledgeBase);
+				// call a microflow to retrieve chunks
+				chunkList = mxgenaiconnector.proxies.microflows.Microflows.knowledgeBaseChunkList_Embed_RetrieveNearestNeighbors(
+						getContext(), Content, MinimumSimilarity, MaxNumberOfResults, DeployedKnowledgeBase, MetadataCollection);
+				if (cacheKey != null) {
+					RetrievalCache.put(getContext(), cacheKey, DeployedKnowledgeBase, generation, chunkList);
+				}
+			}
 			
 			//map to target chunks to return
 			return ChunkUtils.getTargetChunkList(getContext(), chunkList, targetChunk);
@@ -11,6 +11,8 @@ package pgvectorknowledgebase.actions;
 
 import java.util.ArrayList;
 import com.mendix.systemwideinterfaces.core.IContext;
+import genaicommons.impl.NearDuplicateDetector;
+import genaicommons.impl.RetrievalCache;
 import genaicommons.proxies.KnowledgeBaseChunk;
 import pgvectorknowledgebase.impl.ChunkUtils;
 import pgvectorknowledgebase.impl.MxLogger;
@@ -61,7 +63,14 @@ public class KnowledgeBaseChunkList_Delete_ByMxObject extends UserAction<java.la
 			else {
 				ChunkUtils.addChunkWithMxObjectID(getContext(), MxObject, chunkList);
 			}
-			return pgvectorknowledgebase.proxies.microflows.Microflows.knowledgeBaseChunkList_Delete_FromKnowledgeBase(getContext(), chunkList, DeployedKnowledgeBase);
+			boolean isSuccess = pgvectorknowledgebase.proxies.microflows.Microflows.knowledgeBaseChunkList_Delete_FromKnowledgeBase(getContext(), chunkList, DeployedKnowledgeBase);
+			// deleted chunks must not be returned from cached retrievals anymore
+			RetrievalCache.invalidate(getContext(), DeployedKnowledgeBase);
+			if (isSuccess) {
+				NearDuplicateDetector.removeFromIndex(getContext(), DeployedKnowledgeBase, 
+						chunkList.stream().map(chunk -> chunk.getMxObjectID(getContext())).collect(java.util.stream.Collectors.toList()));
+			}
+			return isSuccess;
 		} catch (Error e) {
 			LOGGER.error(e, "Something went wrong while deleting a chunk from the knowledge base.");
 			return false;
@@ -13,9 +13,12 @@ import com.mendix.core.Core;
 import com.mendix.systemwideinterfaces.core.IContext;
 import com.mendix.systemwideinterfaces.core.IMendixObject;
 import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+import genaicommons.impl.RetrievalCache;
 import genaicommons.proxies.KnowledgeBaseChunk;
 import pgvectorknowledgebase.impl.ChunkUtils;
 import pgvectorknowledgebase.impl.MxLogger;
+import pgvectorknowledgebase.impl.PgVectorQuantization;
+import pgvectorknowledgebase.impl.PgVectorQuantization.QuantizationSettings;
 import com.mendix.systemwideinterfaces.core.UserAction;
 
 /**
@@ -77,9 +80,26 @@ public class KnowledgeBaseChunkList_RetrieveNearestNeighbors_SetAssociation exte
 			IMetaObject targetChunk = Core.getMetaObject(TargetChunk);
 			ChunkUtils.validateTargetChunk(targetChunk);
 			
-			// call a microflow to retrieve chunks
-			java.util.List<KnowledgeBaseChunk> chunkList = pgvectorknowledgebase.proxies.microflows.Microflows.knowledgeBaseChunkList_RetrieveNearestNeighbors(
-					getContext(), Vector, MinimumSimilarity, MaxNumberOfResults, DeployedKnowledgeBase, MetadataCollection);
+			QuantizationSettings quantization = PgVectorQuantization.getSettings(getContext(), DeployedKnowledgeBase);
+			
+			// serve from the retrieval cache if possible; quantized results differ, so they get keys of their own
+			String cacheKey = RetrievalCache.isEnabled() 
+					? RetrievalCache.createKey(getContext(), DeployedKnowledgeBase, Vector, MetadataCollection, MaxNumberOfResults, MinimumSimilarity, 
+							quantization == null ? null : quantization.toString()) 
+					: null;
+			java.util.List<KnowledgeBaseChunk> chunkList = cacheKey == null ? null : RetrievalCache.get(getContext(), cacheKey);
+			if (chunkList == null) {
+				long generation = RetrievalCache.getGeneration(getContext(), DeployedKnowledgeBase);
+				// use the quantized two-stage search if configured for this knowledge base, otherwise call a microflow to retrieve chunks
+				chunkList = quantization != null 
+						? PgVectorQuantization.retrieveNearestNeighbors(
+								getContext(), DeployedKnowledgeBase, quantization, Vector, MinimumSimilarity, MaxNumberOfResults, MetadataCollection)
+						: pgvectorknowledgebase.proxies.microflows.Microflows.knowledgeBaseChunkList_RetrieveNearestNeighbors(
+								getContext(), Vector, MinimumSimilarity, MaxNumberOfResults, DeployedKnowledgeBase, MetadataCollection);
+				if (cacheKey != null) {
+					RetrievalCache.put(getContext(), cacheKey, DeployedKnowledgeBase, generation, chunkList);
+				}
+			}
 			
 			//map to target chunks to return
 			return ChunkUtils.getTargetChunkList(getContext(), chunkList, targetChunk);
@@ -0,0 +1,223 @@
+package pgvectorknowledgebase.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+
+import databaseconnector.impl.ConnectionManagerSingleton;
+import genaicommons.impl.MinHash;
+import genaicommons.impl.MinHashLshIndex;
+import genaicommons.impl.NearDuplicateDetector;
+import genaicommons.proxies.DeployedKnowledgeBase;
+import genaicommons.proxies.KnowledgeBaseChunk;
+import genaicommons.proxies.Metadata;
+import genaicommons.proxies.MetadataCollection;
+import pgvectorknowledgebase.proxies.DatabaseConfiguration;
+
+/**
+ * Direct JDBC access to the tables of a PgVector knowledge base, for operations that cannot be expressed
+ * efficiently with the generic query microflows. Connections are taken from the same pool as the Database Connector,
+ * based on the DatabaseConfiguration associated to the PgVectorKnowledgeBase.
+ * The knowledge base name is used as table name (and [name]_metadata for the metadata table), like in the microflows.
+ */
+public class PgVectorDatabase {
+
+	private static final MxLogger LOGGER = new MxLogger(PgVectorDatabase.class);
+	private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+	private static final int TEXT_FETCH_SIZE = 1000;
+	private static final String CHUNK_COLUMNS = "chunk.id, chunk.humanreadableid, chunk.vector::text AS vector, chunk.key, chunk.mxobjectid, chunk.mxentity";
+
+	public static Connection getConnection(IContext context, DeployedKnowledgeBase deployedKnowledgeBase) throws Exception {
+		requireNonNull(deployedKnowledgeBase, "DeployedKnowledgeBase is required.");
+		DatabaseConfiguration databaseConfiguration = pgvectorknowledgebase.proxies.microflows.Microflows
+				.deployedKnowledgeBase_GetDatabaseConfiguration_PgVectorKnowledgeBase(context, deployedKnowledgeBase);
+		requireNonNull(databaseConfiguration, "No DatabaseConfiguration found for knowledge base " + deployedKnowledgeBase.getName(context) + ".");
+		String password = encryption.proxies.microflows.Microflows.decrypt(context, databaseConfiguration.getPassword(context));
+		return ConnectionManagerSingleton.getInstance().getConnection(databaseConfiguration.getJdbcURL(context),
+				databaseConfiguration.getUsername(context), password);
+	}
+
+	/**
+	 * Returns the table name of the knowledge base. Since table names cannot be passed as query parameters,
+	 * only plain identifiers are accepted.
+	 */
+	public static String getTableName(IContext context, DeployedKnowledgeBase deployedKnowledgeBase) {
+		String name = deployedKnowledgeBase.getName(context);
+		if (name == null || !TABLE_NAME_PATTERN.matcher(name.trim()).matches()) {
+			throw new IllegalArgumentException("Knowledge base name " + name + " is not a valid table name.");
+		}
+		return name.trim();
+	}
+
+	public static String getMetadataTableName(String tableName) {
+		return tableName + "_metadata";
+	}
+
+	/**
+	 * Returns the column list to select from the main table (aliased as chunk) so that rows can be mapped with {@link #readChunks}.
+	 */
+	public static String getChunkColumns() {
+		return CHUNK_COLUMNS;
+	}
+
+	/**
+	 * Appends one EXISTS condition per metadata key/value pair to the where clause of a query on the main table (aliased as chunkAlias).
+	 * A chunk only matches if it has all of the metadata of the collection.
+	 */
+	public static void appendMetadataFilter(IContext context, StringBuilder sql, List<Object> parameters, String tableName,
+			String chunkAlias, MetadataCollection metadataCollection) throws Exception {
+		if (metadataCollection == null) {
+			return;
+		}
+		for (Metadata metadata : metadataCollection.getMetadataCollection_Metadata(context)) {
+			sql.append(" AND EXISTS (SELECT 1 FROM ").append(getMetadataTableName(tableName))
+					.append(" metadata WHERE metadata.chunkid = ").append(chunkAlias).append(".id AND metadata.key = ? AND metadata.value = ?)");
+			parameters.add(metadata.getKey(context));
+			parameters.add(metadata.getValue(context));
+		}
+	}
+
+	public static void setParameters(PreparedStatement statement, List<Object> parameters) throws SQLException {
+		for (int i = 0; i < parameters.size(); i++) {
+			statement.setObject(i + 1, parameters.get(i));
+		}
+	}
+
+	/**
+	 * Maps the result set (selected with {@link #getChunkColumns()} and optionally a similarity column) to KnowledgeBaseChunk objects
+	 * and adds the metadata of all chunks using one additional query.
+	 */
+	public static List<KnowledgeBaseChunk> readChunks(IContext context, Connection connection, ResultSet resultSet, String tableName) throws SQLException {
+		return readChunks(context, connection, resultSet, tableName, null);
+	}
+
+	/**
+	 * Same as {@link #readChunks(IContext, Connection, ResultSet, String)}, additionally calling rowCallback for every row to read extra columns.
+	 */
+	public static List<KnowledgeBaseChunk> readChunks(IContext context, Connection connection, ResultSet resultSet, String tableName,
+			RowCallback rowCallback) throws SQLException {
+		Map<String, KnowledgeBaseChunk> chunks = new LinkedHashMap<>();
+		boolean hasSimilarity = hasColumn(resultSet, "similarity");
+		while (resultSet.next()) {
+			KnowledgeBaseChunk chunk = new KnowledgeBaseChunk(context);
+			String chunkID = resultSet.getString("id");
+			chunk.setChunkID(context, chunkID);
+			chunk.setHumanReadableID(context, resultSet.getString("humanreadableid"));
+			chunk.setEmbeddingVector(context, resultSet.getString("vector"));
+			chunk.setInputText(context, resultSet.getString("key"));
+			chunk.setMxObjectID(context, resultSet.getString("mxobjectid"));
+			chunk.setMxEntity(context, resultSet.getString("mxentity"));
+			if (hasSimilarity) {
+				chunk.setSimilarity(context, resultSet.getBigDecimal("similarity"));
+			}
+			chunks.put(chunkID, chunk);
+			if (rowCallback != null) {
+				rowCallback.accept(resultSet);
+			}
+		}
+		addMetadata(context, connection, tableName, chunks);
+		return new ArrayList<>(chunks.values());
+	}
+
+	private static void addMetadata(IContext context, Connection connection, String tableName, Map<String, KnowledgeBaseChunk> chunks) throws SQLException {
+		if (chunks.isEmpty()) {
+			return;
+		}
+		Map<String, List<Metadata>> metadataPerChunk = new LinkedHashMap<>();
+		String sql = "SELECT chunkid, key, value FROM " + getMetadataTableName(tableName) + " WHERE chunkid = ANY (?)";
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			Array chunkIDs = connection.createArrayOf("varchar", chunks.keySet().toArray());
+			statement.setArray(1, chunkIDs);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					Metadata metadata = new Metadata(context);
+					metadata.setKey(context, resultSet.getString("key"));
+					metadata.setValue(context, resultSet.getString("value"));
+					metadataPerChunk.computeIfAbsent(resultSet.getString("chunkid"), id -> new ArrayList<>()).add(metadata);
+				}
+			}
+		}
+		metadataPerChunk.forEach((chunkID, metadataList) -> {
+			MetadataCollection metadataCollection = new MetadataCollection(context);
+			metadataCollection.setMetadataCollection_Metadata(context, metadataList);
+			chunks.get(chunkID).setKnowledgeBaseChunk_MetadataCollection(context, metadataCollection);
+		});
+	}
+
+	/**
+	 * (Re)builds the in-memory near duplicate index of the knowledge base from all chunks that are stored in it, so that
+	 * {@link NearDuplicateDetector} also finds duplicates of chunks that were inserted before the last restart. Call it in after-startup
+	 * logic, and after chunks were changed by logic that does not update the index itself. The current index stays in use until the
+	 * new one is complete.
+	 * @return the number of chunks that were read
+	 */
+	public static int buildNearDuplicateIndex(IContext context, DeployedKnowledgeBase deployedKnowledgeBase) throws Exception {
+		MinHashLshIndex index = new MinHashLshIndex();
+		int count = readChunkTexts(context, deployedKnowledgeBase, (chunkID, mxObjectID, text) -> {
+			int[] signature = MinHash.signature(text);
+			if (signature != null) {
+				index.add(chunkID, mxObjectID, signature);
+			}
+		});
+		NearDuplicateDetector.setIndex(context, deployedKnowledgeBase, index);
+		LOGGER.info("Near duplicate index built for knowledge base " + getTableName(context, deployedKnowledgeBase) + " with "
+				+ index.size() + " of " + count + " chunks.");
+		return count;
+	}
+
+	/**
+	 * Streams the ID, MxObjectID and text of all chunks of the knowledge base to the callback, without keeping them in memory.
+	 * @return the number of chunks read
+	 */
+	public static int readChunkTexts(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, ChunkTextCallback callback) throws Exception {
+		String tableName = getTableName(context, deployedKnowledgeBase);
+		int count = 0;
+		try (Connection connection = getConnection(context, deployedKnowledgeBase)) {
+			// the driver only uses a cursor (and thus the fetch size) within a transaction
+			connection.setAutoCommit(false);
+			try (PreparedStatement statement = connection.prepareStatement("SELECT id, mxobjectid, key FROM " + tableName)) {
+				statement.setFetchSize(TEXT_FETCH_SIZE);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						callback.accept(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3));
+						count++;
+					}
+				}
+				connection.commit();
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		}
+		return count;
+	}
+
+	@FunctionalInterface
+	public interface ChunkTextCallback {
+		void accept(String chunkID, String mxObjectID, String text);
+	}
+
+	@FunctionalInterface
+	public interface RowCallback {
+		void accept(ResultSet resultSet) throws SQLException;
+	}
+
+	private static boolean hasColumn(ResultSet resultSet, String columnLabel) throws SQLException {
+		for (int i = 1; i <= resultSet.getMetaData().getColumnCount(); i++) {
+			if (columnLabel.equalsIgnoreCase(resultSet.getMetaData().getColumnLabel(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
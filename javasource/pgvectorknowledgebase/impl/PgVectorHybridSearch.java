@@ -0,0 +1,181 @@
+package pgvectorknowledgebase.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.mendix.core.Core;
+import com.mendix.systemwideinterfaces.core.IContext;
+import com.mendix.systemwideinterfaces.core.IMendixObject;
+import com.mendix.systemwideinterfaces.core.meta.IMetaObject;
+
+import genaicommons.proxies.DeployedKnowledgeBase;
+import genaicommons.proxies.KnowledgeBaseChunk;
+import genaicommons.proxies.MetadataCollection;
+
+/**
+ * Hybrid retrieval for PgVector knowledge bases: full-text search (tsvector with a GIN index) and vector similarity are
+ * executed in one SQL statement and fused with reciprocal rank fusion (RRF) in the database:
+ * hybrid score = 1 / (k + vector rank) + 1 / (k + text rank), where a missing rank contributes 0.
+ *
+ * Full-text search requires the generated column key_tsv on the knowledge base table, see {@link #createFullTextIndex}.
+ * Chunks containing exact terms like skill keywords or certification codes are then found even when their vector similarity is lower.
+ */
+public class PgVectorHybridSearch {
+
+	private static final MxLogger LOGGER = new MxLogger(PgVectorHybridSearch.class);
+	private static final Pattern LANGUAGE_PATTERN = Pattern.compile("[a-z_]+");
+	public static final String DEFAULT_LANGUAGE = "english";
+	public static final String LEXICAL_SCORE = "LexicalScore";
+	public static final String HYBRID_SCORE = "HybridScore";
+	private static final int RANK_CONSTANT = 60;
+	private static final int CANDIDATE_FACTOR = 4;
+	private static final int MIN_CANDIDATES = 40;
+	private static final int DEFAULT_MAX_NUMBER_OF_RESULTS = 10;
+
+	/**
+	 * Adds the generated tsvector column key_tsv (based on the chunk text) and a GIN index on it, if they do not exist yet.
+	 * Existing rows are populated by the database when the column is added, new chunks are indexed on insert.
+	 * The knowledge base table must exist, i.e. chunks were inserted before.
+	 *
+	 * @param language the PostgreSQL text search configuration used for stemming and stop words, e.g. english or dutch;
+	 *            defaults to {@link #DEFAULT_LANGUAGE}
+	 */
+	public static void createFullTextIndex(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, String language) throws Exception {
+		String tableName = PgVectorDatabase.getTableName(context, deployedKnowledgeBase);
+		String regconfig = getLanguage(language);
+		try (Connection connection = PgVectorDatabase.getConnection(context, deployedKnowledgeBase);
+				Statement statement = connection.createStatement()) {
+			statement.execute("ALTER TABLE " + tableName + " ADD COLUMN IF NOT EXISTS key_tsv tsvector GENERATED ALWAYS AS (to_tsvector('"
+					+ regconfig + "', coalesce(key, ''))) STORED");
+			statement.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_key_tsv_idx ON " + tableName + " USING gin (key_tsv)");
+		}
+		LOGGER.info("Full-text index (" + regconfig + ") available for knowledge base " + tableName + ".");
+	}
+
+	/**
+	 * Retrieves the chunks ranked by the fused score and, like Retrieve Nearest Neighbors & Associate, sets the associations to the
+	 * Mendix objects for which the chunks were created on new objects of the target chunk entity. If that entity has decimal attributes
+	 * {@link #LEXICAL_SCORE} and/or {@link #HYBRID_SCORE}, these are set with the full-text rank and the fused score.
+	 *
+	 * @param targetChunk the entity of the returned objects, a specialization of KnowledgeBaseChunk
+	 * @param queryText the query for full-text search; web search syntax is supported, e.g. quoted phrases, OR and -exclusions
+	 * @param language the text search configuration used for {@link #createFullTextIndex}
+	 * @param metadataCollection when provided, only chunks with all of the metadata key/value pairs are returned
+	 */
+	public static List<IMendixObject> retrieveAndAssociate(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, String targetChunk,
+			String vector, String queryText, String language, MetadataCollection metadataCollection, Long maxNumberOfResults) throws Exception {
+		IMetaObject targetChunkMetaObject = Core.getMetaObject(targetChunk);
+		ChunkUtils.validateTargetChunk(targetChunkMetaObject);
+		HybridResult result = retrieve(context, deployedKnowledgeBase, vector, queryText, language, metadataCollection, maxNumberOfResults);
+		List<IMendixObject> targetChunkList = ChunkUtils.getTargetChunkList(context, result.getChunks(), targetChunkMetaObject);
+		result.setScores(context, targetChunkList);
+		return targetChunkList;
+	}
+
+	/**
+	 * Retrieves the chunks ranked by the fused score. Every chunk carries its vector similarity (Similarity) and,
+	 * in the returned score map, its lexical score and hybrid score.
+	 */
+	public static HybridResult retrieve(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, String vector, String queryText,
+			String language, MetadataCollection metadataCollection, Long maxNumberOfResults) throws Exception {
+		requireNonNull(vector, "Vector is required.");
+		requireNonNull(queryText, "QueryText is required.");
+		String tableName = PgVectorDatabase.getTableName(context, deployedKnowledgeBase);
+		int limit = maxNumberOfResults == null || maxNumberOfResults <= 0 ? DEFAULT_MAX_NUMBER_OF_RESULTS : maxNumberOfResults.intValue();
+		int candidates = Math.max(MIN_CANDIDATES, limit * CANDIDATE_FACTOR);
+
+		List<Object> parameters = new ArrayList<>();
+		StringBuilder sql = new StringBuilder("WITH query AS (SELECT websearch_to_tsquery(?::regconfig, ?) AS tsquery),");
+		parameters.add(getLanguage(language));
+		parameters.add(queryText);
+
+		// both candidate lists are limited before they are ranked, so that the indexes can be used
+		sql.append(" vector_candidates AS (SELECT id, ROW_NUMBER() OVER (ORDER BY distance) AS vector_rank FROM (SELECT chunk.id, chunk.vector <=> ?::vector AS distance FROM ")
+				.append(tableName).append(" chunk WHERE 1 = 1");
+		parameters.add(vector);
+		PgVectorDatabase.appendMetadataFilter(context, sql, parameters, tableName, "chunk", metadataCollection);
+		sql.append(" ORDER BY distance LIMIT ?) nearest),");
+		parameters.add(candidates);
+
+		sql.append(" text_candidates AS (SELECT id, ROW_NUMBER() OVER (ORDER BY text_score DESC) AS text_rank FROM (SELECT chunk.id, ts_rank_cd(chunk.key_tsv, query.tsquery) AS text_score FROM ")
+				.append(tableName).append(" chunk, query WHERE chunk.key_tsv @@ query.tsquery");
+		PgVectorDatabase.appendMetadataFilter(context, sql, parameters, tableName, "chunk", metadataCollection);
+		sql.append(" ORDER BY text_score DESC LIMIT ?) matches),");
+		parameters.add(candidates);
+
+		sql.append(" fused AS (SELECT COALESCE(v.id, t.id) AS id, COALESCE(1.0 / (? + v.vector_rank), 0) + COALESCE(1.0 / (? + t.text_rank), 0) AS hybrid_score")
+				.append(" FROM vector_candidates v FULL OUTER JOIN text_candidates t ON v.id = t.id)");
+		parameters.add(RANK_CONSTANT);
+		parameters.add(RANK_CONSTANT);
+
+		sql.append(" SELECT ").append(PgVectorDatabase.getChunkColumns())
+				.append(", 1 - (chunk.vector <=> ?::vector) AS similarity, ts_rank_cd(chunk.key_tsv, query.tsquery) AS lexical_score, fused.hybrid_score")
+				.append(" FROM fused JOIN ").append(tableName).append(" chunk ON chunk.id = fused.id CROSS JOIN query")
+				.append(" ORDER BY fused.hybrid_score DESC LIMIT ?");
+		parameters.add(vector);
+		parameters.add(limit);
+
+		try (Connection connection = PgVectorDatabase.getConnection(context, deployedKnowledgeBase);
+				PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+			PgVectorDatabase.setParameters(statement, parameters);
+			Map<String, BigDecimal[]> scores = new HashMap<>();
+			List<KnowledgeBaseChunk> chunks;
+			try (ResultSet resultSet = statement.executeQuery()) {
+				chunks = PgVectorDatabase.readChunks(context, connection, resultSet, tableName,
+						rs -> scores.put(rs.getString("id"), new BigDecimal[] { rs.getBigDecimal("lexical_score"), rs.getBigDecimal("hybrid_score") }));
+			}
+			return new HybridResult(chunks, scores);
+		}
+	}
+
+	private static String getLanguage(String language) {
+		String regconfig = language == null || language.isBlank() ? DEFAULT_LANGUAGE : language.trim().toLowerCase();
+		if (!LANGUAGE_PATTERN.matcher(regconfig).matches()) {
+			throw new IllegalArgumentException("Language " + language + " is not a valid text search configuration name.");
+		}
+		return regconfig;
+	}
+
+	public static final class HybridResult {
+		private final List<KnowledgeBaseChunk> chunks;
+		private final Map<String, BigDecimal[]> scores;
+
+		private HybridResult(List<KnowledgeBaseChunk> chunks, Map<String, BigDecimal[]> scores) {
+			this.chunks = chunks;
+			this.scores = scores;
+		}
+
+		public List<KnowledgeBaseChunk> getChunks() {
+			return chunks;
+		}
+
+		/**
+		 * Sets the LexicalScore and HybridScore attributes on the given chunk objects if their entity has these (decimal) attributes.
+		 */
+		public void setScores(IContext context, List<IMendixObject> chunkObjects) {
+			for (IMendixObject chunkObject : chunkObjects) {
+				IMetaObject metaObject = chunkObject.getMetaObject();
+				BigDecimal[] chunkScores = scores.get((String) chunkObject.getValue(context, KnowledgeBaseChunk.MemberNames.ChunkID.toString()));
+				if (chunkScores == null) {
+					continue;
+				}
+				if (metaObject.getMetaPrimitive(LEXICAL_SCORE) != null) {
+					chunkObject.setValue(context, LEXICAL_SCORE, chunkScores[0]);
+				}
+				if (metaObject.getMetaPrimitive(HYBRID_SCORE) != null) {
+					chunkObject.setValue(context, HYBRID_SCORE, chunkScores[1]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package pgvectorknowledgebase.impl;
+
+import static java.util.Objects.requireNonNull;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mendix.systemwideinterfaces.core.IContext;
+
+import genaicommons.impl.QuantizedVectorIndex;
+import genaicommons.impl.RetrievalCache;
+import genaicommons.impl.VectorQuantizer.QuantizationType;
+import genaicommons.impl.VectorUtils;
+import genaicommons.proxies.DeployedKnowledgeBase;
+import genaicommons.proxies.KnowledgeBaseChunk;
+import genaicommons.proxies.MetadataCollection;
+
+/**
+ * Quantized two-stage retrieval for PgVector knowledge bases.
+ *
+ * The candidate stage orders on an expression index over a compressed representation of the stored vectors,
+ * the rescoring stage calculates the exact cosine similarity on the original vectors for the candidates only:
+ * - BINARY uses binary_quantize(vector)::bit(n) with the Hamming distance (bit_hamming_ops).
+ * - SCALAR uses vector::halfvec(n) with the cosine distance (halfvec_cosine_ops). PgVector has no int8 vector type,
+ *   so half precision is the scalar quantization that can be indexed in the database.
+ * The original vectors are kept, so quantization can be switched off (or changed) at any time. The database maintains the expression
+ * index when chunks are inserted, so ingestion does not change; {@link QuantizedVectorIndex} is only used in memory by {@link #evaluate}.
+ *
+ * Settings are stored per knowledge base name with {@link QuantizationSettingsStore}, so they survive a restart and apply to all cluster
+ * nodes. Every node reads them again after at most {@link #SETTINGS_CACHE_MILLIS} ms.
+ *
+ * A metadata filter is applied while the candidates are selected, after the approximate index scan. To still find enough candidates,
+ * iterative index scans are used on PgVector 0.8.0 and higher; older versions select and scan {@link #FILTERED_CANDIDATE_FACTOR} times
+ * more candidates instead.
+ */
+public class PgVectorQuantization {
+
+	private static final MxLogger LOGGER = new MxLogger(PgVectorQuantization.class);
+	private static final QuantizationSettingsStore STORE = new QuantizationSettingsStore();
+	private static final Map<String, CachedSettings> SETTINGS = new ConcurrentHashMap<>();
+	private static final Map<String, Boolean> ITERATIVE_SCAN_SUPPORTED = new ConcurrentHashMap<>();
+	static final long SETTINGS_CACHE_MILLIS = 30_000;
+	static final int FILTERED_CANDIDATE_FACTOR = 10;
+	private static final int DEFAULT_MAX_NUMBER_OF_RESULTS = 100;
+	public static final int DEFAULT_RESCORE_FACTOR = 4;
+	private static final int MAX_EF_SEARCH = 1000;
+
+	public static final class QuantizationSettings {
+		private final QuantizationType quantizationType;
+		private final int rescoreFactor;
+		private final int dimensions;
+
+		QuantizationSettings(QuantizationType quantizationType, int rescoreFactor, int dimensions) {
+			this.quantizationType = quantizationType;
+			this.rescoreFactor = rescoreFactor;
+			this.dimensions = dimensions;
+		}
+
+		public QuantizationType getQuantizationType() {
+			return quantizationType;
+		}
+
+		public int getRescoreFactor() {
+			return rescoreFactor;
+		}
+
+		public int getDimensions() {
+			return dimensions;
+		}
+
+		@Override
+		public String toString() {
+			return quantizationType + "/" + rescoreFactor + "/" + dimensions;
+		}
+	}
+
+	private static final class CachedSettings {
+		private final QuantizationSettings settings;
+		private final long loaded = System.currentTimeMillis();
+
+		private CachedSettings(QuantizationSettings settings) {
+			this.settings = settings;
+		}
+	}
+
+	/**
+	 * Stores the quantization settings for the knowledge base and optionally creates the expression index for the candidate stage.
+	 * Passing NONE removes the settings, so that retrieval uses the default (exact) query again. The settings apply to the Retrieve
+	 * Nearest Neighbors & Associate operation.
+	 *
+	 * @param quantizationType BINARY (1 bit per dimension, Hamming distance), SCALAR (half precision per dimension) or NONE
+	 * @param rescoreFactor the number of candidates per requested result that are rescored on the original vectors, e.g.
+	 *            {@link #DEFAULT_RESCORE_FACTOR}; higher values increase recall
+	 * @param createIndex creates the HNSW expression index for the candidate stage if it does not exist yet (PgVector 0.7.0 or higher)
+	 * @throws IllegalStateException if the knowledge base contains no chunks yet, since the dimension is derived from the stored vectors
+	 */
+	public static void configure(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, QuantizationType quantizationType,
+			int rescoreFactor, boolean createIndex) throws Exception {
+		requireNonNull(deployedKnowledgeBase, "DeployedKnowledgeBase is required.");
+		String tableName = PgVectorDatabase.getTableName(context, deployedKnowledgeBase);
+		if (quantizationType == QuantizationType.NONE) {
+			STORE.remove(tableName);
+			SETTINGS.remove(tableName);
+			RetrievalCache.invalidate(context, deployedKnowledgeBase);
+			LOGGER.info("Quantization disabled for knowledge base " + tableName + ".");
+			return;
+		}
+		if (rescoreFactor < 1) {
+			throw new IllegalArgumentException("RescoreFactor must be at least 1.");
+		}
+		try (Connection connection = PgVectorDatabase.getConnection(context, deployedKnowledgeBase)) {
+			int dimensions = getDimensions(connection, tableName);
+			if (createIndex) {
+				createIndex(connection, tableName, quantizationType, dimensions);
+			}
+			QuantizationSettings settings = new QuantizationSettings(quantizationType, rescoreFactor, dimensions);
+			STORE.put(tableName, settings);
+			SETTINGS.put(tableName, new CachedSettings(settings));
+			RetrievalCache.invalidate(context, deployedKnowledgeBase);
+			LOGGER.info("Quantization " + quantizationType + " enabled for knowledge base " + tableName + " (" + dimensions
+					+ " dimensions, rescore factor " + rescoreFactor + ").");
+		}
+	}
+
+	/**
+	 * @return the quantization settings of the knowledge base, or null if quantization is not enabled for it
+	 */
+	public static QuantizationSettings getSettings(IContext context, DeployedKnowledgeBase deployedKnowledgeBase) {
+		if (deployedKnowledgeBase == null || deployedKnowledgeBase.getName(context) == null) {
+			return null;
+		}
+		String tableName = deployedKnowledgeBase.getName(context).trim();
+		CachedSettings cached = SETTINGS.get(tableName);
+		if (cached == null || System.currentTimeMillis() - cached.loaded > SETTINGS_CACHE_MILLIS) {
+			cached = new CachedSettings(STORE.get(tableName));
+			SETTINGS.put(tableName, cached);
+		}
+		return cached.settings;
+	}
+
+	/**
+	 * Two-stage nearest neighbor retrieval: MaxNumberOfResults * RescoreFactor candidates are selected on the quantized index,
+	 * after which the candidates are rescored and filtered on the exact similarity.
+	 */
+	public static List<KnowledgeBaseChunk> retrieveNearestNeighbors(IContext context, DeployedKnowledgeBase deployedKnowledgeBase,
+			QuantizationSettings settings, String vector, BigDecimal minimumSimilarity, Long maxNumberOfResults,
+			MetadataCollection metadataCollection) throws Exception {
+		requireNonNull(vector, "Vector is required.");
+		String tableName = PgVectorDatabase.getTableName(context, deployedKnowledgeBase);
+		requireNonNull(settings, "Quantization is not configured for knowledge base " + tableName + ".");
+
+		int limit = maxNumberOfResults == null || maxNumberOfResults <= 0 ? DEFAULT_MAX_NUMBER_OF_RESULTS : maxNumberOfResults.intValue();
+		int candidates = limit * settings.getRescoreFactor();
+		boolean filtered = metadataCollection != null && !metadataCollection.getMetadataCollection_Metadata(context).isEmpty();
+		List<Object> parameters = new ArrayList<>();
+		StringBuilder sql = new StringBuilder("SELECT * FROM (SELECT ").append(PgVectorDatabase.getChunkColumns())
+				.append(", 1 - (chunk.vector <=> ?::vector) AS similarity FROM (SELECT * FROM ").append(tableName)
+				.append(" candidate WHERE 1 = 1");
+		parameters.add(vector);
+		PgVectorDatabase.appendMetadataFilter(context, sql, parameters, tableName, "candidate", metadataCollection);
+		sql.append(" ORDER BY ").append(getCandidateDistance(settings, "candidate.vector", "?")).append(" LIMIT ?) chunk) similarities");
+		parameters.add(vector);
+		int candidatesParameter = parameters.size();
+		parameters.add(candidates);
+		if (minimumSimilarity != null) {
+			sql.append(" WHERE similarity >= ?");
+			parameters.add(minimumSimilarity);
+		}
+		sql.append(" ORDER BY similarity DESC LIMIT ?");
+		parameters.add(limit);
+
+		try (Connection connection = PgVectorDatabase.getConnection(context, deployedKnowledgeBase)) {
+			connection.setAutoCommit(false);
+			try {
+				if (filtered) {
+					if (isIterativeScanSupported(connection, tableName)) {
+						// keeps scanning the index until enough candidates match the filter; the candidates are reordered on the exact similarity anyway
+						setConfig(connection, "hnsw.iterative_scan", "relaxed_order");
+					} else {
+						// the filter is applied after the index scan, so more candidates have to be scanned to keep enough matches
+						candidates = Math.multiplyExact(candidates, FILTERED_CANDIDATE_FACTOR);
+						parameters.set(candidatesParameter, candidates);
+					}
+				}
+				// the approximate index must provide enough candidates, otherwise the result is cut off at hnsw.ef_search (default 40)
+				setConfig(connection, "hnsw.ef_search", String.valueOf(Math.min(MAX_EF_SEARCH, Math.max(40, candidates))));
+				List<KnowledgeBaseChunk> chunks;
+				try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+					PgVectorDatabase.setParameters(statement, parameters);
+					try (ResultSet resultSet = statement.executeQuery()) {
+						chunks = PgVectorDatabase.readChunks(context, connection, resultSet, tableName);
+					}
+				}
+				connection.commit();
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Quantized retrieval on " + tableName + " rescored " + candidates + " candidates and returned " + chunks.size() + " chunks.");
+				}
+				return chunks;
+			} catch (Exception e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		}
+	}
+
+	/**
+	 * Loads a random sample of the stored vectors and compares the two-stage search with the exact search:
+	 * recall@k and memory savings of the candidate stage are returned as a report, which is also logged on level Info.
+	 * Use this to choose the quantization type and rescore factor before calling {@link #configure}.
+	 *
+	 * @param sampleSize the number of random vectors loaded from the knowledge base (e.g. 2000); every tenth one is used as query
+	 * @param k the number of results for which recall@k is calculated
+	 */
+	public static String evaluate(IContext context, DeployedKnowledgeBase deployedKnowledgeBase, QuantizationType quantizationType,
+			int rescoreFactor, int sampleSize, int k) throws Exception {
+		String tableName = PgVectorDatabase.getTableName(context, deployedKnowledgeBase);
+		List<String> ids = new ArrayList<>();
+		List<float[]> vectors = new ArrayList<>();
+		try (Connection connection = PgVectorDatabase.getConnection(context, deployedKnowledgeBase);
+				PreparedStatement statement = connection.prepareStatement("SELECT id, vector::text FROM " + tableName + " ORDER BY random() LIMIT ?")) {
+			statement.setInt(1, sampleSize);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					ids.add(resultSet.getString(1));
+					vectors.add(VectorUtils.parse(resultSet.getString(2)));
+				}
+			}
+		}
+		if (vectors.isEmpty()) {
+			return "Knowledge base " + tableName + " does not contain any vectors.";
+		}
+
+		QuantizedVectorIndex index = new QuantizedVectorIndex(quantizationType, vectors.get(0).length);
+		for (int i = 0; i < vectors.size(); i++) {
+			index.add(ids.get(i), vectors.get(i));
+		}
+		// every tenth vector of the sample is used as a query
+		List<float[]> queries = new ArrayList<>();
+		for (int i = 0; i < vectors.size(); i += 10) {
+			queries.add(vectors.get(i));
+		}
+		double recall = index.recallAtK(queries, k, rescoreFactor);
+		String report = String.format("Quantization %s on %d vectors of knowledge base %s: recall@%d %.3f with rescore factor %d, candidate stage memory %d bytes instead of %d bytes (%.1f%% saved).",
+				quantizationType, index.size(), tableName, k, recall, rescoreFactor, index.getQuantizedBytes(), index.getFullPrecisionBytes(), index.getMemorySavings() * 100);
+		LOGGER.info(report);
+		return report;
+	}
+
+	private static boolean isIterativeScanSupported(Connection connection, String tableName) throws Exception {
+		Boolean supported = ITERATIVE_SCAN_SUPPORTED.get(tableName);
+		if (supported == null) {
+			try (Statement statement = connection.createStatement();
+					ResultSet resultSet = statement.executeQuery("SELECT extversion FROM pg_extension WHERE extname = 'vector'")) {
+				supported = resultSet.next() && compareVersions(resultSet.getString(1), "0.8.0") >= 0;
+			}
+			ITERATIVE_SCAN_SUPPORTED.put(tableName, supported);
+		}
+		return supported;
+	}
+
+	static int compareVersions(String version, String other) {
+		String[] parts = version.split("\\.");
+		String[] otherParts = other.split("\\.");
+		for (int i = 0; i < Math.max(parts.length, otherParts.length); i++) {
+			int part = i < parts.length ? Integer.parseInt(parts[i].replaceAll("\\D.*", "0")) : 0;
+			int otherPart = i < otherParts.length ? Integer.parseInt(otherParts[i].replaceAll("\\D.*", "0")) : 0;
+			if (part != otherPart) {
+				return Integer.compare(part, otherPart);
+			}
+		}
+		return 0;
+	}
+
+	private static void setConfig(Connection connection, String name, String value) throws Exception {
+		try (PreparedStatement statement = connection.prepareStatement("SELECT set_config(?, ?, true)")) {
+			statement.setString(1, name);
+			statement.setString(2, value);
+			statement.execute();
+		}
+	}
+
+	private static int getDimensions(Connection connection, String tableName) throws Exception {
+		try (Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT vector_dims(vector) FROM " + tableName + " LIMIT 1")) {
+			if (!resultSet.next()) {
+				throw new IllegalStateException("Knowledge base " + tableName + " is empty; the vector dimension cannot be determined.");
+			}
+			return resultSet.getInt(1);
+		}
+	}
+
+	private static void createIndex(Connection connection, String tableName, QuantizationType quantizationType, int dimensions) throws Exception {
+		String indexExpression = quantizationType == QuantizationType.BINARY
+				? "(binary_quantize(vector)::bit(" + dimensions + ")) bit_hamming_ops"
+				: "(vector::halfvec(" + dimensions + ")) halfvec_cosine_ops";
+		String indexName = tableName + (quantizationType == QuantizationType.BINARY ? "_vector_bq_idx" : "_vector_hv_idx");
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE INDEX IF NOT EXISTS " + indexName + " ON " + tableName + " USING hnsw (" + indexExpression + ")");
+		}
+	}
+
+	private static String getCandidateDistance(QuantizationSettings settings, String column, String parameter) {
+		int dimensions = settings.getDimensions();
+		if (settings.getQuantizationType() == QuantizationType.BINARY) {
+			return "binary_quantize(" + column + ")::bit(" + dimensions + ") <~> binary_quantize(" + parameter + "::vector)";
+		}
+		return column + "::halfvec(" + dimensions + ") <=> " + parameter + "::halfvec(" + dimensions + ")";
+	}
+}
@@ -0,0 +1,60 @@
+package pgvectorknowledgebase.impl;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+
+import communitycommons.RawTable;
+import genaicommons.impl.SqlUpsert;
+import genaicommons.impl.VectorQuantizer.QuantizationType;
+import pgvectorknowledgebase.impl.PgVectorQuantization.QuantizationSettings;
+
+/**
+ * Stores the quantization settings of the knowledge bases in the application database, so that they survive a restart of the
+ * runtime and are shared between cluster nodes. Like the ingestion checkpoints of GenAICommons, the table is not part of the domain
+ * model and is created on first use.
+ */
+public class QuantizationSettingsStore {
+
+	private static final String TABLE_NAME = "pgvectorknowledgebase_quantization";
+	private static final SqlUpsert UPSERT = new SqlUpsert(TABLE_NAME, List.of("knowledgebase"),
+			List.of("quantizationtype", "rescorefactor", "dimensions"));
+	private static final RawTable TABLE = new RawTable(TABLE_NAME, "quantization settings",
+			"CREATE TABLE " + TABLE_NAME + " (knowledgebase VARCHAR(200) NOT NULL, quantizationtype VARCHAR(20) NOT NULL, "
+				+ "rescorefactor INTEGER NOT NULL, dimensions INTEGER NOT NULL, PRIMARY KEY (knowledgebase))");
+
+	/**
+	 * @return the settings of the knowledge base, or null if quantization is not enabled for it
+	 */
+	public QuantizationSettings get(String knowledgeBase) {
+		return TABLE.execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement(
+					"SELECT quantizationtype, rescorefactor, dimensions FROM " + TABLE_NAME + " WHERE knowledgebase = ?")) {
+				statement.setString(1, knowledgeBase);
+				try (ResultSet resultSet = statement.executeQuery()) {
+					if (!resultSet.next()) {
+						return null;
+					}
+					return new QuantizationSettings(QuantizationType.valueOf(resultSet.getString(1)), resultSet.getInt(2), resultSet.getInt(3));
+				}
+			}
+		});
+	}
+
+	public void put(String knowledgeBase, QuantizationSettings settings) {
+		TABLE.execute(connection -> {
+			UPSERT.execute(connection, knowledgeBase, settings.getQuantizationType().name(), settings.getRescoreFactor(), settings.getDimensions());
+			return null;
+		});
+	}
+
+	public void remove(String knowledgeBase) {
+		TABLE.execute(connection -> {
+			try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE knowledgebase = ?")) {
+				statement.setString(1, knowledgeBase);
+				statement.executeUpdate();
+			}
+			return null;
+		});
+	}
+}